@@ -0,0 +1,278 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.openstreetmap.josm.actions.search.SearchCompiler;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.tracer.PostTraceNotifications;
+import org.openstreetmap.josm.plugins.tracer.bench.TracerBenchmark.Benchmark;
+import org.openstreetmap.josm.plugins.tracer.clipper.ClipType;
+import org.openstreetmap.josm.plugins.tracer.clipper.Clipper;
+import org.openstreetmap.josm.plugins.tracer.clipper.Path;
+import org.openstreetmap.josm.plugins.tracer.clipper.Paths;
+import org.openstreetmap.josm.plugins.tracer.clipper.PolyType;
+import org.openstreetmap.josm.plugins.tracer.connectways.AngPolygonClipper;
+import org.openstreetmap.josm.plugins.tracer.connectways.AreaBoundaryWayNodePredicate;
+import org.openstreetmap.josm.plugins.tracer.connectways.AreaPredicate;
+import org.openstreetmap.josm.plugins.tracer.connectways.ClipAreas;
+import org.openstreetmap.josm.plugins.tracer.connectways.ClipAreasSettings;
+import org.openstreetmap.josm.plugins.tracer.connectways.EdNode;
+import org.openstreetmap.josm.plugins.tracer.connectways.EdWay;
+import org.openstreetmap.josm.plugins.tracer.connectways.GeomDeviation;
+import org.openstreetmap.josm.plugins.tracer.connectways.IReuseNearNodePredicate;
+import org.openstreetmap.josm.plugins.tracer.connectways.MergeIdenticalWays;
+import org.openstreetmap.josm.plugins.tracer.connectways.RemoveNeedlessNodes;
+import org.openstreetmap.josm.plugins.tracer.connectways.ReuseNearNodeMethod;
+import org.openstreetmap.josm.plugins.tracer.connectways.WayEditor;
+
+/**
+ * Benchmarks of connectways operations on {@link SyntheticData}.
+ * Tolerances are the same as used by LPIS module.
+ */
+final class ConnectwaysBenchmarks {
+
+    private static final String areaPattern = "landuse=*";
+    private static final GeomDeviation connectTolerance = new GeomDeviation(0.25, Math.PI / 15);
+    private static final GeomDeviation removeNeedlessNodesTolerance = new GeomDeviation(0.25, Math.PI / 40);
+    private static final double reuseNearNodesMeters = 0.5;
+    private static final double resurrectNodesMeters = 10.0;
+
+    private ConnectwaysBenchmarks () {
+    }
+
+    static List<Benchmark> all () {
+        List<Benchmark> list = new ArrayList<>();
+        list.add(new ClipperExecute());
+        list.add(new PolygonDifference());
+        list.add(new ClipAreasBench());
+        list.add(new ConnectExistingTouchingNodes());
+        list.add(new ReuseNearNodes());
+        list.add(new RemoveNeedlessNodesBench());
+        list.add(new MergeIdenticalWaysBench());
+        list.add(new FinalizeEdit());
+        return list;
+    }
+
+    private static Match areaMatch () throws SearchCompiler.ParseError {
+        return SearchCompiler.compile(areaPattern);
+    }
+
+    private static EdWay newTracedWay (WayEditor editor, List<LatLon> coors) {
+        List<EdNode> nodes = new ArrayList<>(coors.size());
+        for (int i = 0; i < coors.size() - 1; i++)
+            nodes.add(editor.newNode(coors.get(i)));
+        nodes.add(nodes.get(0));
+        EdWay way = editor.newWay(nodes);
+        way.put("landuse", "meadow");
+        return way;
+    }
+
+    /**
+     * Base of benchmarks working on a fresh WayEditor with the traced way.
+     */
+    private abstract static class EditorBenchmark extends Benchmark {
+        protected SyntheticData m_data;
+        protected Match m_match;
+        protected WayEditor m_editor;
+        protected EdWay m_way;
+
+        EditorBenchmark (String name) {
+            super(name);
+        }
+
+        protected boolean duplicates () {
+            return false;
+        }
+
+        @Override
+        public void setUp (int vertices, int density) throws Exception {
+            m_data = new SyntheticData(vertices, density, duplicates());
+            m_match = areaMatch();
+        }
+
+        @Override
+        public void prepare () throws Exception {
+            m_editor = new WayEditor(m_data.dataSet());
+            m_way = newTracedWay(m_editor, m_data.traced());
+        }
+    }
+
+    static final class ClipperExecute extends Benchmark {
+        private Path m_subject;
+        private Path m_clip;
+
+        ClipperExecute () {
+            super("clipper.Clipper.execute");
+        }
+
+        @Override
+        public void setUp (int vertices, int density) {
+            m_subject = SyntheticData.clipperCircle(0, 0, 1000000000L, vertices);
+            m_clip = SyntheticData.clipperCircle(500000000L, 0, 1000000000L, vertices);
+        }
+
+        @Override
+        public Object run () throws Exception {
+            Clipper clipper = new Clipper(0);
+            clipper.addPath(m_subject, PolyType.ptSubject, true);
+            clipper.addPath(m_clip, PolyType.ptClip, true);
+            Paths solution = new Paths();
+            clipper.execute(ClipType.ctDifference, solution);
+            return solution;
+        }
+    }
+
+    static final class PolygonDifference extends EditorBenchmark {
+        PolygonDifference () {
+            super("connectways.AngPolygonClipper.polygonDifference");
+        }
+
+        @Override
+        public Object run () {
+            Object result = null;
+            for (Way area: m_data.areas()) {
+                AngPolygonClipper clipper = new AngPolygonClipper(m_editor, connectTolerance, 0.0);
+                clipper.polygonDifference(m_way, m_editor.useWay(area));
+                result = clipper.outerPolygons();
+            }
+            return result;
+        }
+    }
+
+    static final class ClipAreasBench extends EditorBenchmark {
+        ClipAreasBench () {
+            super("connectways.ClipAreas.clipAreas");
+        }
+
+        @Override
+        public Object run () {
+            ClipAreas clip = new ClipAreas(m_editor, new ClipAreasSettings(connectTolerance), new PostTraceNotifications());
+            clip.clipAreas(m_way, new AreaPredicate(m_match));
+            return m_editor;
+        }
+    }
+
+    static final class ConnectExistingTouchingNodes extends EditorBenchmark {
+        ConnectExistingTouchingNodes () {
+            super("connectways.EdWay.connectExistingTouchingNodes");
+        }
+
+        @Override
+        public Object run () {
+            return m_way.connectExistingTouchingNodes(connectTolerance, new AreaBoundaryWayNodePredicate(m_match));
+        }
+    }
+
+    static final class ReuseNearNodes extends EditorBenchmark {
+        ReuseNearNodes () {
+            super("connectways.EdWay.reuseNearNodes");
+        }
+
+        @Override
+        public Object run () {
+            IReuseNearNodePredicate reuse = new IReuseNearNodePredicate() {
+                @Override
+                public ReuseNearNodeMethod reuseNearNode(EdNode node, EdNode near_node, double distance_meters) {
+                    return distance_meters <= reuseNearNodesMeters ? ReuseNearNodeMethod.reuseNode : ReuseNearNodeMethod.dontReuseNode;
+                }
+
+                @Override
+                public double lookupDistanceMeters() {
+                    return reuseNearNodesMeters;
+                }
+            };
+            return m_way.reuseNearNodes(reuse, new AreaBoundaryWayNodePredicate(m_match));
+        }
+    }
+
+    static final class RemoveNeedlessNodesBench extends EditorBenchmark {
+        private Set<EdWay> m_ways;
+
+        RemoveNeedlessNodesBench () {
+            super("connectways.RemoveNeedlessNodes");
+        }
+
+        @Override
+        public void prepare () throws Exception {
+            super.prepare();
+            m_ways = new HashSet<>();
+            for (Way area: m_data.areas())
+                m_ways.add(m_editor.useWay(area));
+        }
+
+        @Override
+        public Object run () {
+            RemoveNeedlessNodes remover = new RemoveNeedlessNodes(new AreaPredicate(m_match), removeNeedlessNodesTolerance, (Math.PI*2)/3);
+            remover.removeNeedlessNodes(m_ways);
+            return remover;
+        }
+    }
+
+    static final class MergeIdenticalWaysBench extends EditorBenchmark {
+        private Set<EdWay> m_ways;
+
+        MergeIdenticalWaysBench () {
+            super("connectways.MergeIdenticalWays");
+        }
+
+        @Override
+        protected boolean duplicates () {
+            return true;
+        }
+
+        @Override
+        public void prepare () throws Exception {
+            super.prepare();
+            m_ways = new HashSet<>();
+            for (Way area: m_data.areas())
+                m_ways.add(m_editor.useWay(area));
+        }
+
+        @Override
+        public Object run () {
+            MergeIdenticalWays merger = new MergeIdenticalWays(m_editor, new AreaPredicate(m_match));
+            return merger.mergeWays(m_ways, true, null);
+        }
+    }
+
+    static final class FinalizeEdit extends EditorBenchmark {
+        FinalizeEdit () {
+            super("connectways.WayEditor.finalizeEdit");
+        }
+
+        @Override
+        public void prepare () throws Exception {
+            super.prepare();
+            ClipAreas clip = new ClipAreas(m_editor, new ClipAreasSettings(connectTolerance), new PostTraceNotifications());
+            clip.clipAreas(m_way, new AreaPredicate(m_match));
+        }
+
+        @Override
+        public Object run () {
+            return m_editor.finalizeEdit(m_way, resurrectNodesMeters);
+        }
+    }
+}
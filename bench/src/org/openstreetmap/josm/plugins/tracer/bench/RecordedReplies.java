@@ -0,0 +1,111 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openstreetmap.josm.plugins.tracer.IUrlStreamProvider;
+import org.openstreetmap.josm.plugins.tracer.TracerUtils;
+
+/**
+ * Serves recorded server replies (RUIAN JSON, LPIS GML, classic server output).
+ *
+ * Every reply is stored in a separate UTF-8 file named by SHA-1 of the request URL,
+ * "index.txt" maps file names to URLs. In recording mode, requests are passed
+ * to live servers and their replies are stored.
+ */
+public final class RecordedReplies implements IUrlStreamProvider {
+
+    private final File m_dir;
+    private final boolean m_record;
+    private final AtomicInteger m_served = new AtomicInteger();
+    private final AtomicInteger m_missing = new AtomicInteger();
+
+    public RecordedReplies (File dir, boolean record) {
+        m_dir = dir;
+        m_record = record;
+        if (record)
+            m_dir.mkdirs();
+    }
+
+    @Override
+    public BufferedReader openUrlStream(String url, int timeout, String charset) throws IOException {
+        File file = new File(m_dir, replyFileName(url));
+
+        if (m_record) {
+            StringBuilder sb = new StringBuilder();
+            try (BufferedReader reader = TracerUtils.openLiveUrlStream(url, timeout, charset)) {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    sb.append(line).append('\n');
+            }
+            String content = sb.toString();
+            synchronized (this) {
+                Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+                try (Writer index = Files.newBufferedWriter(new File(m_dir, "index.txt").toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    index.write(file.getName() + " " + url + "\n");
+                }
+            }
+            m_served.incrementAndGet();
+            return new BufferedReader(new StringReader(content));
+        }
+
+        if (!file.isFile()) {
+            m_missing.incrementAndGet();
+            throw new FileNotFoundException("No recorded reply for " + url);
+        }
+        m_served.incrementAndGet();
+        return Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    public int served () {
+        return m_served.get();
+    }
+
+    public int missing () {
+        return m_missing.get();
+    }
+
+    static String replyFileName (String url) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 6);
+            for (byte b: digest)
+                sb.append(String.format("%02x", b & 0xff));
+            sb.append(".reply");
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
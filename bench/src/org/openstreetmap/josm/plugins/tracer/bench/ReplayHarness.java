@@ -0,0 +1,235 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+import org.openstreetmap.josm.plugins.tracer.TracerModule;
+import org.openstreetmap.josm.plugins.tracer.TracerUtils;
+import org.openstreetmap.josm.plugins.tracer.connectways.EditorSession;
+import org.openstreetmap.josm.plugins.tracer.modules.classic.ClassicModule;
+import org.openstreetmap.josm.plugins.tracer.modules.lpis.LpisModule;
+import org.openstreetmap.josm.plugins.tracer.modules.ruian.RuianModule;
+import org.openstreetmap.josm.plugins.tracer.modules.ruianLands.RuianLandsModule;
+
+/**
+ * Headless trace replay.
+ *
+ * Usage: ReplayHarness -osm=data.osm -replies=dir -script=clicks.txt
+ *                      [-record] [-repeat=1] [-verbose] [-session]
+ *
+ * Loads the OSM file into a DataSet and replays scripted clicks through
+ * {@link TracerModule.AbstractTracerTask#runHeadless}. Server replies are served
+ * from recorded files (see {@link RecordedReplies}), -record fetches and stores
+ * them from live servers. Script lines have the form
+ * "module lat lon [ctrl] [alt] [shift]", module is one of classic, ruian,
+ * ruian-lands, lpis; lines starting with # are ignored.
+ *
+ * Produced commands are not executed, so every click sees the original data.
+ * -session enables the EditorSession shared by consecutive clicks.
+ * Tag conflicts of retraces are resolved to the traced values without dialog.
+ * Reports per-click latency, allocated bytes and command counts, clicks which
+ * produced post-trace notifications, and the per-step breakdown collected
+ * by {@link TracerLog}.
+ */
+public final class ReplayHarness {
+
+    private static final class Click {
+        final String module;
+        final LatLon pos;
+        final boolean ctrl, alt, shift;
+
+        Click (String m, LatLon p, boolean c, boolean a, boolean s) {
+            module = m;
+            pos = p;
+            ctrl = c;
+            alt = a;
+            shift = s;
+        }
+    }
+
+    private ReplayHarness () {
+    }
+
+    public static void main (String[] args) throws Exception {
+        String osm = null;
+        String replies = null;
+        String script = null;
+        boolean record = false;
+        boolean verbose = false;
+        boolean session = false;
+        int repeat = 1;
+        for (String arg: args) {
+            if (arg.startsWith("-osm="))
+                osm = arg.substring("-osm=".length());
+            else if (arg.startsWith("-replies="))
+                replies = arg.substring("-replies=".length());
+            else if (arg.startsWith("-script="))
+                script = arg.substring("-script=".length());
+            else if (arg.startsWith("-repeat="))
+                repeat = Integer.parseInt(arg.substring("-repeat=".length()));
+            else if (arg.equals("-record"))
+                record = true;
+            else if (arg.equals("-verbose"))
+                verbose = true;
+            else if (arg.equals("-session"))
+                session = true;
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if (osm == null || replies == null || script == null)
+            throw new IllegalArgumentException("Missing -osm, -replies or -script argument");
+
+        TracerBenchmark.initJosm();
+        Main.pref.put("tracer.log.level", verbose ? "debug" : "off");
+        Main.pref.put("tracer.metrics", true);
+        TracerLog.reloadPreferences();
+        TracerLog.Metrics metrics = new TracerLog.Metrics();
+        TracerLog.bindMetrics(metrics);
+        Main.pref.put("tracer.editor_session", session);
+        EditorSession.reloadPreferences();
+
+        RecordedReplies source = new RecordedReplies(new File(replies), record);
+        TracerUtils.setUrlStreamProvider(source);
+
+        DataSet data_set;
+        try (InputStream is = new FileInputStream(osm)) {
+            data_set = OsmReader.parseDataSet(is, NullProgressMonitor.INSTANCE);
+        }
+
+        List<Click> clicks = parseScript(new File(script));
+        Map<String, TracerModule> modules = new HashMap<>();
+        modules.put("classic", new ClassicModule(true));
+        modules.put("ruian", new RuianModule(true));
+        modules.put("ruian-lands", new RuianLandsModule(true));
+        modules.put("lpis", new LpisModule(true));
+
+        com.sun.management.ThreadMXBean mx = null;
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!mx.isThreadAllocatedMemorySupported())
+                mx = null;
+        }
+        long thread_id = Thread.currentThread().getId();
+
+        int total = clicks.size() * repeat;
+        long[] latency = new long[total];
+        long alloc_sum = 0;
+        long commands = 0;
+        int failed = 0;
+        int no_data = 0;
+        int warned = 0;
+        int tag_conflicts = 0;
+        int n = 0;
+
+        for (int r = 0; r < repeat; r++) {
+            for (Click click: clicks) {
+                TracerModule module = modules.get(click.module);
+                if (module == null)
+                    throw new IllegalArgumentException("Unknown module: " + click.module);
+
+                long alloc_start = mx != null ? mx.getThreadAllocatedBytes(thread_id) : 0;
+                long start = System.nanoTime();
+                int cmd_count = -1;
+                TracerModule.AbstractTracerTask task = module.trace(click.pos, click.ctrl, click.alt, click.shift);
+                try {
+                    List<Command> cmds = task.runHeadless(data_set);
+                    if (cmds == null)
+                        no_data++;
+                    else
+                        cmd_count = cmds.size();
+                }
+                catch (Exception e) {
+                    failed++;
+                    System.out.println("Click " + click.module + " " + click.pos.toDisplayString() + " failed: " + e.toString());
+                }
+                tag_conflicts += task.getResolvedTagConflicts();
+                List<String> notifications = task.takePostTraceNotifications();
+                if (!notifications.isEmpty()) {
+                    warned++;
+                    for (String msg: notifications)
+                        System.out.println("Click " + click.module + " " + click.pos.toDisplayString() + " warning: " + msg);
+                }
+                latency[n] = System.nanoTime() - start;
+                long alloc = mx != null ? mx.getThreadAllocatedBytes(thread_id) - alloc_start : 0;
+                alloc_sum += alloc;
+                if (cmd_count > 0)
+                    commands += cmd_count;
+
+                if (verbose)
+                    System.out.println(String.format("%-12s %s: %.1f ms, %d kB, %d commands", click.module, click.pos.toDisplayString(),
+                        latency[n] / 1.0e6, alloc / 1024, cmd_count));
+                n++;
+            }
+        }
+
+        TracerUtils.setUrlStreamProvider(null);
+
+        Arrays.sort(latency, 0, n);
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += latency[i];
+
+        System.out.println("----- Replay summary -----");
+        System.out.println(" clicks: " + n + ", failed: " + failed + ", no data: " + no_data + ", with warnings: " + warned);
+        System.out.println(" tag conflicts resolved to traced values: " + tag_conflicts);
+        System.out.println(" replies served: " + source.served() + ", missing: " + source.missing());
+        System.out.println(" commands: " + commands);
+        if (n > 0) {
+            System.out.println(String.format(" latency (ms): avg %.2f, p50 %.2f, p95 %.2f, max %.2f",
+                sum / 1.0e6 / n, latency[n / 2] / 1.0e6, latency[Math.min(n - 1, (int)(n * 0.95))] / 1.0e6, latency[n - 1] / 1.0e6));
+            if (mx != null)
+                System.out.println(" allocated (kB/click): " + (alloc_sum / 1024 / n));
+        }
+        TracerLog.dumpMetrics(metrics, "Replay metrics");
+    }
+
+    private static List<Click> parseScript (File file) throws Exception {
+        List<Click> list = new ArrayList<>();
+        for (String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] parts = line.split("\\s+");
+            if (parts.length < 3)
+                throw new IllegalArgumentException("Invalid script line: " + line);
+            List<String> flags = Arrays.asList(parts).subList(3, parts.length);
+            list.add(new Click(parts[0], new LatLon(Double.parseDouble(parts[1]), Double.parseDouble(parts[2])),
+                flags.contains("ctrl"), flags.contains("alt"), flags.contains("shift")));
+        }
+        return list;
+    }
+}
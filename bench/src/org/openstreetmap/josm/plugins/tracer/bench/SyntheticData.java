@@ -0,0 +1,144 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.tracer.clipper.Path;
+import org.openstreetmap.josm.plugins.tracer.clipper.Point2d;
+import org.openstreetmap.josm.plugins.tracer.connectways.GeomUtils;
+
+/**
+ * Synthetic neighbourhood of a traced polygon.
+ *
+ * The traced polygon is a regular polygon with the given number of vertices.
+ * The DataSet contains "density" landuse areas placed around the traced polygon
+ * boundary, so every one of them overlaps the traced polygon. Each existing area
+ * has densified (nearly collinear) edges, so needless node removal has work to do.
+ */
+public final class SyntheticData {
+
+    public static final LatLon center = new LatLon(50.0, 15.0);
+    public static final double radiusMeters = 100.0;
+
+    private final DataSet m_dataSet;
+    private final List<LatLon> m_traced;
+    private final List<Way> m_areas;
+
+    /**
+     * Builds the synthetic data.
+     * @param vertices number of vertices of the traced polygon and of every neighbour area
+     * @param density number of existing areas around the traced polygon
+     * @param duplicates add a node-identical duplicate of every existing area
+     */
+    public SyntheticData (int vertices, int density, boolean duplicates) {
+        m_dataSet = new DataSet();
+        m_traced = circle(center, radiusMeters, vertices, 0.0);
+        m_areas = new ArrayList<>(density);
+
+        double mpd_lat = GeomUtils.getMetersPerDegreeOfLatitude(center);
+        double mpd_lon = GeomUtils.getMetersPerDegreeOfLongitude(center);
+
+        for (int i = 0; i < density; i++) {
+            double a = 2 * Math.PI * i / density;
+            LatLon c = new LatLon(center.lat() + Math.sin(a) * radiusMeters / mpd_lat,
+                                  center.lon() + Math.cos(a) * radiusMeters / mpd_lon);
+            List<LatLon> coors = circle(c, radiusMeters / 2, Math.max(4, vertices), 0.5);
+            Way way = addWay(coors);
+            way.put("landuse", "meadow");
+            m_areas.add(way);
+            if (duplicates) {
+                Way dup = new Way();
+                dup.setNodes(way.getNodes());
+                dup.put("landuse", "meadow");
+                m_dataSet.addPrimitive(dup);
+            }
+        }
+
+        double ext_lat = 3 * radiusMeters / mpd_lat;
+        double ext_lon = 3 * radiusMeters / mpd_lon;
+        Bounds bounds = new Bounds(center.lat() - ext_lat, center.lon() - ext_lon, center.lat() + ext_lat, center.lon() + ext_lon);
+        m_dataSet.addDataSource(new DataSource(bounds, "tracer-bench"));
+    }
+
+    public DataSet dataSet () {
+        return m_dataSet;
+    }
+
+    /**
+     * Returns coordinates of the closed traced polygon.
+     */
+    public List<LatLon> traced () {
+        return m_traced;
+    }
+
+    public List<Way> areas () {
+        return m_areas;
+    }
+
+    private Way addWay (List<LatLon> coors) {
+        List<Node> nodes = new ArrayList<>(coors.size());
+        for (int i = 0; i < coors.size() - 1; i++) {
+            Node node = new Node(coors.get(i));
+            m_dataSet.addPrimitive(node);
+            nodes.add(node);
+        }
+        nodes.add(nodes.get(0));
+        Way way = new Way();
+        way.setNodes(nodes);
+        m_dataSet.addPrimitive(way);
+        return way;
+    }
+
+    /**
+     * Returns closed regular polygon, every odd vertex is moved by "jitter" meters
+     * outwards, zero jitter gives a regular polygon.
+     */
+    public static List<LatLon> circle (LatLon c, double radius, int vertices, double jitter) {
+        double mpd_lat = GeomUtils.getMetersPerDegreeOfLatitude(c);
+        double mpd_lon = GeomUtils.getMetersPerDegreeOfLongitude(c);
+        List<LatLon> list = new ArrayList<>(vertices + 1);
+        for (int i = 0; i < vertices; i++) {
+            double a = 2 * Math.PI * i / vertices;
+            double r = (i % 2 == 1) ? radius + jitter : radius;
+            list.add(new LatLon(c.lat() + Math.sin(a) * r / mpd_lat, c.lon() + Math.cos(a) * r / mpd_lon));
+        }
+        list.add(list.get(0));
+        return list;
+    }
+
+    /**
+     * Returns regular polygon as a Clipper path in integer coordinates.
+     */
+    public static Path clipperCircle (long cx, long cy, long radius, int vertices) {
+        Path path = new Path();
+        for (int i = 0; i < vertices; i++) {
+            double a = 2 * Math.PI * i / vertices;
+            path.add(new Point2d(cx + Math.round(Math.cos(a) * radius), cy + Math.round(Math.sin(a) * radius)));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.projection.Projections;
+
+/**
+ * Headless benchmark runner for connectways and clipper hot paths.
+ *
+ * Usage: TracerBenchmark [-vertices=16,256,4096] [-density=1,8,32]
+ *                        [-warmup=5] [-iterations=20] [name-filter ...]
+ *
+ * Every benchmark is run for all combinations of vertex count and neighbourhood
+ * density. Each measured operation gets freshly prepared input, preparation
+ * is not included in the reported times.
+ */
+public final class TracerBenchmark {
+
+    /**
+     * Single benchmark. prepare() is called before every measured run().
+     */
+    public abstract static class Benchmark {
+        private final String m_name;
+
+        protected Benchmark (String name) {
+            m_name = name;
+        }
+
+        public String name () {
+            return m_name;
+        }
+
+        /**
+         * Called once for every parameter combination.
+         */
+        public abstract void setUp (int vertices, int density) throws Exception;
+
+        /**
+         * Prepares input of the next measured operation.
+         */
+        public void prepare () throws Exception {
+        }
+
+        /**
+         * Measured operation.
+         * @return any result, to prevent dead code elimination
+         */
+        public abstract Object run () throws Exception;
+    }
+
+    private static int[] m_vertices = { 16, 256, 4096 };
+    private static int[] m_density = { 1, 8, 32 };
+    private static int m_warmup = 5;
+    private static int m_iterations = 20;
+
+    // sink for benchmark results
+    private static int m_sink;
+
+    private TracerBenchmark () {
+    }
+
+    public static void main (String[] args) throws Exception {
+        List<String> filters = new ArrayList<>();
+        for (String arg: args) {
+            if (arg.startsWith("-vertices="))
+                m_vertices = parseInts(arg.substring("-vertices=".length()));
+            else if (arg.startsWith("-density="))
+                m_density = parseInts(arg.substring("-density=".length()));
+            else if (arg.startsWith("-warmup="))
+                m_warmup = Integer.parseInt(arg.substring("-warmup=".length()));
+            else if (arg.startsWith("-iterations="))
+                m_iterations = Integer.parseInt(arg.substring("-iterations=".length()));
+            else
+                filters.add(arg);
+        }
+
+        initJosm ();
+
+        System.out.println(String.format("%-40s %8s %8s %14s %14s", "benchmark", "vertices", "density", "avg (us/op)", "min (us/op)"));
+        for (Benchmark b: ConnectwaysBenchmarks.all()) {
+            if (!matches(b.name(), filters))
+                continue;
+            for (int vertices: m_vertices) {
+                for (int density: m_density) {
+                    measure(b, vertices, density);
+                }
+            }
+        }
+        System.out.println("sink: " + Integer.toString(m_sink));
+    }
+
+    /**
+     * Initializes the minimal JOSM environment needed by connectways.
+     */
+    public static void initJosm () {
+        System.setProperty("java.awt.headless", "true");
+        if (Main.getProjection() == null)
+            Main.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+    }
+
+    private static void measure (Benchmark b, int vertices, int density) throws Exception {
+        b.setUp(vertices, density);
+
+        for (int i = 0; i < m_warmup; i++) {
+            b.prepare();
+            consume(b.run());
+        }
+
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < m_iterations; i++) {
+            b.prepare();
+            long start = System.nanoTime();
+            Object result = b.run();
+            long time = System.nanoTime() - start;
+            consume(result);
+            total += time;
+            min = Math.min(min, time);
+        }
+
+        double avg_us = total / 1000.0 / Math.max(1, m_iterations);
+        double min_us = min / 1000.0;
+        System.out.println(String.format("%-40s %8d %8d %14.1f %14.1f", b.name(), vertices, density, avg_us, min_us));
+    }
+
+    private static void consume (Object o) {
+        if (o != null)
+            m_sink += System.identityHashCode(o) & 1;
+    }
+
+    private static boolean matches (String name, List<String> filters) {
+        if (filters.isEmpty())
+            return true;
+        for (String f: filters)
+            if (name.contains(f))
+                return true;
+        return false;
+    }
+
+    private static int[] parseInts (String s) {
+        String[] parts = s.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            result[i] = Integer.parseInt(parts[i].trim());
+        if (result.length == 0)
+            throw new IllegalArgumentException("Empty parameter list: " + Arrays.toString(parts));
+        return result;
+    }
+}
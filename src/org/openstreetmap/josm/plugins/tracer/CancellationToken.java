@@ -0,0 +1,127 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellation of a tracer download.
+ *
+ * The token is attached to the thread performing the download, see
+ * {@link #enter}. {@link TracerUtils#openUrlStream} registers opened connections
+ * with the current token, cancelling the token closes them, so blocked reads
+ * fail immediately instead of waiting for the timeout.
+ */
+public final class CancellationToken {
+
+    private static final ThreadLocal<CancellationToken> m_current = new ThreadLocal<>();
+
+    private final Object m_lock = new Object();
+    private volatile boolean m_cancelled = false;
+    private final List<Closeable> m_resources = new ArrayList<>();  // m_lock
+
+    /**
+     * Cancels the token and closes all registered resources.
+     */
+    public void cancel () {
+        List<Closeable> resources;
+        synchronized (m_lock) {
+            if (m_cancelled)
+                return;
+            m_cancelled = true;
+            resources = new ArrayList<>(m_resources);
+            m_resources.clear();
+        }
+        for (Closeable c: resources) {
+            try {
+                c.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    public boolean isCancelled () {
+        return m_cancelled;
+    }
+
+    /**
+     * @throws CancelledIOException if the token is cancelled
+     */
+    public void checkCancelled () throws CancelledIOException {
+        if (m_cancelled)
+            throw new CancelledIOException();
+    }
+
+    /**
+     * Registers resource to be closed on cancellation. Closes it immediately
+     * if the token is already cancelled.
+     * @throws CancelledIOException if the token is already cancelled
+     */
+    void register (Closeable c) throws CancelledIOException {
+        synchronized (m_lock) {
+            if (!m_cancelled) {
+                m_resources.add(c);
+                return;
+            }
+        }
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+        }
+        throw new CancelledIOException();
+    }
+
+    void unregister (Closeable c) {
+        synchronized (m_lock) {
+            m_resources.remove(c);
+        }
+    }
+
+    /**
+     * Attaches the token to the current thread.
+     * @param token token, may be null
+     * @return previously attached token, to be passed to {@link #exit}
+     */
+    public static CancellationToken enter (CancellationToken token) {
+        CancellationToken previous = m_current.get();
+        m_current.set(token);
+        return previous;
+    }
+
+    public static void exit (CancellationToken previous) {
+        if (previous == null)
+            m_current.remove();
+        else
+            m_current.set(previous);
+    }
+
+    /**
+     * Returns token attached to the current thread.
+     * @return token or null
+     */
+    public static CancellationToken current () {
+        return m_current.get();
+    }
+}
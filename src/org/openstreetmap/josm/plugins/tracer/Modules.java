@@ -19,6 +19,7 @@
 package org.openstreetmap.josm.plugins.tracer;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 import org.openstreetmap.josm.plugins.tracer.modules.classic.*;
 import org.openstreetmap.josm.plugins.tracer.modules.lpis.*;
@@ -31,24 +32,93 @@ import org.openstreetmap.josm.plugins.tracer.modules.ruianLands.*;
  */
 
 public class Modules {
-    private Map<String, TracerModule> m_modules; // map of all modules
-    private Map.Entry<String, TracerModule> m_active_module; // active module
+    private Map<String, LazyModule> m_modules; // map of all modules
+    private Map.Entry<String, LazyModule> m_active_module; // active module
 
-    private Iterator<Map.Entry<String, TracerModule>>  m_it; // holds current iterator
+    private Iterator<Map.Entry<String, LazyModule>>  m_it; // holds current iterator
 
     private int m_activeModulesCount = 0;
 
     TracerPreferences pref = TracerPreferences.getInstance();
 
+    // modules are warmed up one by one, the thread terminates when idle
+    private static final ExecutorService m_warmUpExecutor = TracerUtils.newIdleExecutor("tracer-warm-up", 1, 10);
+
+    /**
+     * Module created on first use, so disabled modules never load their
+     * classes, compile their patterns nor start their threads.
+     */
+    private static abstract class LazyModule {
+        private TracerModule m_module;
+        private boolean m_enabled;
+        private boolean m_warmedUp;
+
+        LazyModule (boolean enabled) {
+            m_enabled = enabled;
+        }
+
+        protected abstract TracerModule create ();
+
+        synchronized TracerModule get () {
+            if (m_module == null) {
+                long start_time = TracerLog.start();
+                m_module = create();
+                m_module.setModuleIsEnabled(m_enabled);
+                TracerLog.stop("modules.create", start_time);
+            }
+            return m_module;
+        }
+
+        synchronized boolean isEnabled () {
+            return m_enabled;
+        }
+
+        synchronized void setEnabled (boolean enabled) {
+            m_enabled = enabled;
+            if (m_module != null)
+                m_module.setModuleIsEnabled(enabled);
+        }
+
+        /**
+         * Returns true only for the first call.
+         */
+        synchronized boolean startWarmUp () {
+            if (m_warmedUp)
+                return false;
+            m_warmedUp = true;
+            return true;
+        }
+    }
+
     private void init () {
-      m_modules = new LinkedHashMap<String, TracerModule>();
-      m_modules.put("classic", new ClassicModule(false));
-      m_modules.put("ruian", new RuianModule(true));
-      m_modules.put("ruian-lands", new RuianLandsModule(false));
-      m_modules.put("lpis", new LpisModule(false));
+      m_modules = new LinkedHashMap<String, LazyModule>();
+      m_modules.put("classic", new LazyModule(false) {
+          @Override
+          protected TracerModule create() {
+              return new ClassicModule(false);
+          }
+      });
+      m_modules.put("ruian", new LazyModule(true) {
+          @Override
+          protected TracerModule create() {
+              return new RuianModule(true);
+          }
+      });
+      m_modules.put("ruian-lands", new LazyModule(false) {
+          @Override
+          protected TracerModule create() {
+              return new RuianLandsModule(false);
+          }
+      });
+      m_modules.put("lpis", new LazyModule(false) {
+          @Override
+          protected TracerModule create() {
+              return new LpisModule(false);
+          }
+      });
 
       List<String> m_modules_array = new LinkedList<String>();
-      Map.Entry<String, TracerModule> m_current_module;
+      Map.Entry<String, LazyModule> m_current_module;
 
       // Refresh modules list in configuration
       m_it = m_modules.entrySet().iterator();
@@ -60,21 +130,21 @@ public class Modules {
 
       // Set enabled modules
       for (String s: pref.getActiveModules()) {
-        m_modules.get(s).setModuleIsEnabled(true);
+        m_modules.get(s).setEnabled(true);
       }
 
       // Reorder modules
       // First add enabled modules
-      Map<String, TracerModule> m_bckModules = new LinkedHashMap<String, TracerModule>(m_modules);
+      Map<String, LazyModule> m_bckModules = new LinkedHashMap<String, LazyModule>(m_modules);
       m_modules.clear();
       for (String s: pref.getActiveModules()) {
         m_modules.put(s, m_bckModules.get(s));
       }
 
       // Second: add remaining modules
-      Iterator<Map.Entry<String, TracerModule>> it = m_bckModules.entrySet().iterator();
+      Iterator<Map.Entry<String, LazyModule>> it = m_bckModules.entrySet().iterator();
       while (it.hasNext()) {
-        Map.Entry<String, TracerModule> module = it.next();
+        Map.Entry<String, LazyModule> module = it.next();
         if (!m_modules.containsValue(module.getValue())) {
           m_modules.put(module.getKey(), module.getValue());
         }
@@ -88,7 +158,7 @@ public class Modules {
 
       m_it = m_modules.entrySet().iterator();
       m_active_module = m_it.next();
-      while (!m_active_module.getValue().moduleIsEnabled()) {
+      while (!m_active_module.getValue().isEnabled()) {
         m_active_module = m_it.next();
       }
 
@@ -98,9 +168,9 @@ public class Modules {
 
       m_activeModulesCount = 0;
 
-      Iterator<Map.Entry<String, TracerModule>> it = m_modules.entrySet().iterator();
+      Iterator<Map.Entry<String, LazyModule>> it = m_modules.entrySet().iterator();
       while (it.hasNext()) {
-        if (it.next().getValue().moduleIsEnabled()) {
+        if (it.next().getValue().isEnabled()) {
           m_activeModulesCount++;
         }
       }
@@ -118,20 +188,20 @@ public class Modules {
 
       // Reorder modules
       // First add enabled modules
-      Map<String, TracerModule> m_bckModules = new LinkedHashMap<String, TracerModule>(m_modules);
+      Map<String, LazyModule> m_bckModules = new LinkedHashMap<String, LazyModule>(m_modules);
       m_modules.clear();
       for (String s: pref.getActiveModules()) {
         m_modules.put(s, m_bckModules.get(s));
-        m_modules.get(s).setModuleIsEnabled(true);
+        m_modules.get(s).setEnabled(true);
       }
 
       // Second: add remaining modules
-      Iterator<Map.Entry<String, TracerModule>> it = m_bckModules.entrySet().iterator();
+      Iterator<Map.Entry<String, LazyModule>> it = m_bckModules.entrySet().iterator();
       while (it.hasNext()) {
-        Map.Entry<String, TracerModule> module = it.next();
+        Map.Entry<String, LazyModule> module = it.next();
         if (!m_modules.containsValue(module.getValue())) {
           m_modules.put(module.getKey(), module.getValue());
-          m_modules.get(module.getKey()).setModuleIsEnabled(false);
+          m_modules.get(module.getKey()).setEnabled(false);
         }
       }
 
@@ -156,37 +226,37 @@ public class Modules {
       if (m_active_module == null) {
         return null;
       }
-      return m_active_module.getValue().getName();
+      return m_active_module.getValue().get().getName();
     }
 
     public TracerModule getActiveModule() {
       if (m_active_module == null) {
         return null;
       }
-      return m_active_module.getValue();
+      return m_active_module.getValue().get();
     }
 
     public TracerModule nextModule() {
       while (true) {
         if (m_it.hasNext()) {
           m_active_module = m_it.next();
-          if (m_active_module.getValue().moduleIsEnabled())
+          if (m_active_module.getValue().isEnabled())
             break;
         } else {
           m_it = m_modules.entrySet().iterator();
           m_active_module = m_it.next();
-          if (m_active_module.getValue().moduleIsEnabled())
+          if (m_active_module.getValue().isEnabled())
             break;
         }
       }
-      return m_active_module.getValue();
+      return m_active_module.getValue().get();
     }
 
     public void setActiveModule(String m) {
       m_it = m_modules.entrySet().iterator();
       m_active_module = null;
 
-      Map.Entry<String, TracerModule> ent;
+      Map.Entry<String, LazyModule> ent;
 
       while (m_it.hasNext()) {
         ent = m_it.next();
@@ -200,4 +270,38 @@ public class Modules {
     public int getActiveModulesCount() {
       return m_activeModulesCount;
     }
+
+    /**
+     * Creates enabled modules and performs their expensive one-time
+     * initialization on a background thread, active module first.
+     */
+    public void warmUp() {
+      List<LazyModule> modules = new ArrayList<LazyModule>();
+      if (m_active_module != null)
+        modules.add(m_active_module.getValue());
+      for (LazyModule module: m_modules.values()) {
+        if (module.isEnabled() && !modules.contains(module))
+          modules.add(module);
+      }
+
+      for (final LazyModule module: modules) {
+        if (!module.startWarmUp())
+          continue;
+        m_warmUpExecutor.submit(new Runnable() {
+          @Override
+          public void run() {
+            long start_time = TracerLog.start();
+            try {
+              module.get().warmUp();
+            }
+            catch (RuntimeException e) {
+              TracerLog.info("Module warm-up failed: " + e.getMessage());
+            }
+            finally {
+              TracerLog.stop("modules.warmUp", start_time);
+            }
+          }
+        });
+      }
+    }
 }
\ No newline at end of file
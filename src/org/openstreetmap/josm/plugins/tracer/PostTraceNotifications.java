@@ -26,12 +26,25 @@ public class PostTraceNotifications {
     private final List<String> m_list = new ArrayList<> ();
 
     public void add(String s) {
-        System.out.println("Notify: " + s);
+        TracerLog.info("Notify: " + s);
         synchronized(m_list) {
             m_list.add(s);
         }
     }
 
+    /**
+     * Removes and returns all collected notifications, for callers reporting
+     * them in their own summary instead of a notification.
+     * @return collected notifications
+     */
+    public List<String> takeAll () {
+        synchronized(m_list) {
+            List<String> result = new ArrayList<> (m_list);
+            m_list.clear();
+            return result;
+        }
+    }
+
     public void show () {
         StringBuilder sb = new StringBuilder();
         synchronized(m_list) {
@@ -30,14 +30,31 @@ import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
 import org.openstreetmap.josm.tools.Pair;
 
+/**
+ * Spatial cache of objects in a grid of quad tiles.
+ *
+ * Tiles of the base grid (level 0) are split into four children once they
+ * hold more than the bucket limit, so dense areas get small buckets while
+ * sparse areas keep large ones. Tile addressing by {@link QuadIndex} is
+ * shared with tile downloads and prefetching.
+ */
 public class QuadCache<T extends IQuadCacheObject> {
 
+    private static final int defaultMaxBucketSize = 64;
+    private static final int maxBucketLevel = 6;
+
     private final LatLonSize m_quadSize;
     private final Map<QuadIndex, Bucket<T>> m_buckets;
+    private final int m_maxBucketSize;
 
     public QuadCache (LatLonSize quad_size) {
+        this (quad_size, defaultMaxBucketSize);
+    }
+
+    public QuadCache (LatLonSize quad_size, int max_bucket_size) {
         m_quadSize = quad_size;
         m_buckets = new HashMap<> ();
+        m_maxBucketSize = max_bucket_size;
     }
 
     public void add (T object) {
@@ -51,14 +68,61 @@ public class QuadCache<T extends IQuadCacheObject> {
 
         for (long ilat = qi1.iLat(); ilat <= qi2.iLat(); ilat++) {
             for (long ilon = qi1.iLon(); ilon <= qi2.iLon(); ilon++) {
-                QuadIndex qi = new QuadIndex (ilat, ilon);
-                Bucket<T> bucket = m_buckets.get(qi);
-                if (bucket == null) {
-                    bucket = new Bucket<>();
-                    m_buckets.put(qi, bucket);
-                }
-                System.out.println ("QuadCache: adding to bucket: " + qi.toString());
-                bucket.add (object);
+                addToBucket (new QuadIndex (ilat, ilon), object, bbox);
+            }
+        }
+    }
+
+    private void addToBucket (QuadIndex qi, T object, BBox bbox) {
+        Bucket<T> bucket = m_buckets.get(qi);
+        if (bucket == null) {
+            bucket = new Bucket<>();
+            m_buckets.put(qi, bucket);
+        }
+
+        if (bucket.isSplit()) {
+            for (QuadIndex child: qi.children()) {
+                if (QuadIndex.quadIndexToBBox(m_quadSize, child).intersects(bbox))
+                    addToBucket (child, object, bbox);
+            }
+            return;
+        }
+
+        if (TracerLog.isDebug())
+            TracerLog.debug("QuadCache: adding to bucket: " + qi.toString());
+        bucket.add (object);
+        if (bucket.size() > m_maxBucketSize && qi.level() < maxBucketLevel)
+            trySplit (qi, bucket);
+    }
+
+    /**
+     * Splits bucket into four children, unless most of its objects cover
+     * the whole tile and would be just copied into all children.
+     */
+    private void trySplit (QuadIndex qi, Bucket<T> bucket) {
+        if (bucket.size() < bucket.m_nextSplitCheck)
+            return;
+
+        BBox tile = QuadIndex.quadIndexToBBox(m_quadSize, qi);
+        int covering = 0;
+        for (T object: bucket.m_contents) {
+            if (object.getBBox().bounds(tile))
+                ++covering;
+        }
+        if (2 * covering > bucket.size()) {
+            bucket.m_nextSplitCheck = 2 * bucket.size();
+            return;
+        }
+
+        if (TracerLog.isDebug())
+            TracerLog.debug("QuadCache: splitting bucket: " + qi.toString() + ", total: " + Integer.toString (bucket.size()));
+        TracerLog.count("quadCache.split");
+        Set<T> contents = bucket.split();
+        for (T object: contents) {
+            BBox bbox = object.getBBox();
+            for (QuadIndex child: qi.children()) {
+                if (QuadIndex.quadIndexToBBox(m_quadSize, child).intersects(bbox))
+                    addToBucket (child, object, bbox);
             }
         }
     }
@@ -67,20 +131,38 @@ public class QuadCache<T extends IQuadCacheObject> {
         QuadIndex qi = latLonToQuadIndex(latlon);
 
         Bucket<T> bucket = m_buckets.get (qi);
+        while (bucket != null && bucket.isSplit()) {
+            qi = QuadIndex.latLonToQuadIndex(m_quadSize, qi.level() + 1, latlon.lat(), latlon.lon());
+            bucket = m_buckets.get (qi);
+        }
         if (bucket == null)
             return null;
         return bucket.search (latlon, qi);
     }
 
+    /**
+     * Index of a quad tile. Tiles of level 0 have the base size, every next
+     * level halves the tile size in both directions.
+     */
     public static final class QuadIndex {
+        private final int m_level;
         private final long m_ilat;
         private final long m_ilon;
         private final int m_hashCode;
 
         public QuadIndex (long ilat, long ilon) {
+            this (0, ilat, ilon);
+        }
+
+        public QuadIndex (int level, long ilat, long ilon) {
+            m_level = level;
             m_ilat = ilat;
             m_ilon = ilon;
-            m_hashCode = Long.valueOf(m_ilat).hashCode() ^ Long.valueOf(m_ilon).hashCode();
+            m_hashCode = (Long.valueOf(m_ilat).hashCode() ^ Long.valueOf(m_ilon).hashCode()) * 31 + m_level;
+        }
+
+        public int level () {
+            return m_level;
         }
 
         public long iLat () {
@@ -91,6 +173,36 @@ public class QuadCache<T extends IQuadCacheObject> {
             return m_ilon;
         }
 
+        /**
+         * Returns tile of the previous level containing this one, null for level 0.
+         */
+        public QuadIndex parent () {
+            if (m_level == 0)
+                return null;
+            return new QuadIndex (m_level - 1, m_ilat >> 1, m_ilon >> 1);
+        }
+
+        /**
+         * Returns the four tiles of the next level covering this one.
+         */
+        public QuadIndex[] children () {
+            long ilat = m_ilat << 1;
+            long ilon = m_ilon << 1;
+            return new QuadIndex[] {
+                new QuadIndex (m_level + 1, ilat, ilon),
+                new QuadIndex (m_level + 1, ilat, ilon + 1),
+                new QuadIndex (m_level + 1, ilat + 1, ilon),
+                new QuadIndex (m_level + 1, ilat + 1, ilon + 1)
+            };
+        }
+
+        /**
+         * Returns tile of level 0 containing this one.
+         */
+        public QuadIndex base () {
+            return new QuadIndex (0, m_ilat >> m_level, m_ilon >> m_level);
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == null) {
@@ -100,7 +212,7 @@ public class QuadCache<T extends IQuadCacheObject> {
                 return false;
             }
             final QuadIndex other = (QuadIndex) obj;
-            return other.m_ilat == m_ilat && other.m_ilon == m_ilon;
+            return other.m_ilat == m_ilat && other.m_ilon == m_ilon && other.m_level == m_level;
         }
 
         @Override
@@ -110,41 +222,68 @@ public class QuadCache<T extends IQuadCacheObject> {
 
         @Override
         public String toString () {
-            return Long.toString(m_ilat) + "+" + Long.toString (m_ilon);
+            String s = Long.toString(m_ilat) + "+" + Long.toString (m_ilon);
+            return m_level == 0 ? s : Integer.toString(m_level) + ":" + s;
         }
 
         public static QuadIndex latLonToQuadIndex (LatLonSize quad_size, double alat, double alon) {
+            return latLonToQuadIndex (quad_size, 0, alat, alon);
+        }
+
+        public static QuadIndex latLonToQuadIndex (LatLonSize quad_size, int level, double alat, double alon) {
             double lat = alat + 90;
             double lon = alon + 180;
-            long ilat = (long) Math.floor (lat / quad_size.latSize());
-            long ilon = (long) Math.floor (lon / quad_size.lonSize());
-            return new QuadIndex (ilat, ilon);
+            double scale = (double)(1L << level);
+            long ilat = (long) Math.floor (lat * scale / quad_size.latSize());
+            long ilon = (long) Math.floor (lon * scale / quad_size.lonSize());
+            return new QuadIndex (level, ilat, ilon);
         }
 
         public static BBox quadIndexToBBox (LatLonSize quad_size, QuadIndex qi) {
-            double alat = (double)qi.iLat() * quad_size.latSize();
-            double alon = (double)qi.iLon() * quad_size.lonSize();
+            double lat_size = quad_size.latSize() / (double)(1L << qi.level());
+            double lon_size = quad_size.lonSize() / (double)(1L << qi.level());
+            double alat = (double)qi.iLat() * lat_size;
+            double alon = (double)qi.iLon() * lon_size;
             alat -= 90;
             alon -= 180;
             LatLon a = new LatLon (alat, alon);
-            LatLon b = new LatLon (alat + quad_size.latSize(), alon + quad_size.lonSize());
+            LatLon b = new LatLon (alat + lat_size, alon + lon_size);
             return new BBox (a, b);
         }
     }
 
     private class Bucket<T extends IQuadCacheObject> {
-        private final Set<T> m_contents;
+        private Set<T> m_contents;  // null for split buckets
+        private int m_nextSplitCheck = 0;
 
         Bucket () {
             m_contents = new HashSet<>();
         }
 
+        private boolean isSplit() {
+            return m_contents == null;
+        }
+
+        private int size() {
+            return m_contents.size();
+        }
+
         private void add(T object) {
             m_contents.add(object);
         }
 
+        /**
+         * Marks the bucket split, returns its former contents.
+         */
+        private Set<T> split() {
+            Set<T> contents = m_contents;
+            m_contents = null;
+            return contents;
+        }
+
         private List<T> search(LatLon ll, QuadIndex qi) {
-            System.out.println ("QuadCache: searching in bucket: " + qi.toString() + ", total: " + Integer.toString (m_contents.size()));
+            if (TracerLog.isDebug())
+                TracerLog.debug("QuadCache: searching in bucket: " + qi.toString() + ", total: " + Integer.toString (m_contents.size()));
             List<T> list = null;
             for (T object: m_contents) {
                 if (object.containsPoint (ll)) {
@@ -167,14 +306,18 @@ public class QuadCache<T extends IQuadCacheObject> {
     }
 
     public Pair<QuadIndex, QuadIndex> bboxToQuadIndexBox(BBox bbox) {
+        return bboxToQuadIndexBox(m_quadSize, bbox);
+    }
+
+    public static Pair<QuadIndex, QuadIndex> bboxToQuadIndexBox(LatLonSize quad_size, BBox bbox) {
         double lat1 = bbox.getTopLeftLat();
         double lon1 = bbox.getTopLeftLon();
         double lat2 = bbox.getBottomRightLat();
         double lon2 = bbox.getBottomRightLon();
-        QuadIndex qi1 = latLonToQuadIndex (lat1, lon1);
-        QuadIndex qi2 = latLonToQuadIndex (lat1, lon2);
-        QuadIndex qi3 = latLonToQuadIndex (lat2, lon1);
-        QuadIndex qi4 = latLonToQuadIndex (lat2, lon2);
+        QuadIndex qi1 = QuadIndex.latLonToQuadIndex (quad_size, lat1, lon1);
+        QuadIndex qi2 = QuadIndex.latLonToQuadIndex (quad_size, lat1, lon2);
+        QuadIndex qi3 = QuadIndex.latLonToQuadIndex (quad_size, lat2, lon1);
+        QuadIndex qi4 = QuadIndex.latLonToQuadIndex (quad_size, lat2, lon2);
         long ilat1 = Math.min(Math.min (qi1.iLat(), qi2.iLat()), Math.min (qi3.iLat(), qi4.iLat()));
         long ilon1 = Math.min(Math.min (qi1.iLon(), qi2.iLon()), Math.min (qi3.iLon(), qi4.iLon()));
         long ilat2 = Math.max(Math.max (qi1.iLat(), qi2.iLat()), Math.max (qi3.iLat(), qi4.iLat()));
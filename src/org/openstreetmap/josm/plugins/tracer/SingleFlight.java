@@ -0,0 +1,144 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coordinates concurrent executions of identical downloads.
+ * The first caller for a key runs the task, callers arriving while
+ * the task is in flight wait for its result instead of running it again.
+ * Results are not cached, the key is released as soon as the task finishes.
+ *
+ * @param <K> key identifying the download (request URL, record ID, ...)
+ * @param <V> result type
+ */
+public final class SingleFlight<K, V> {
+
+    public interface Task<V> {
+        V run () throws IOException;
+    }
+
+    private static final long cancelPollMillis = 100;
+
+    private final Object m_lock;
+    private final Map<K, FutureTask<V>> m_inFlight;
+
+    public SingleFlight () {
+        m_lock = new Object ();
+        m_inFlight = new HashMap<> ();
+    }
+
+    /**
+     * Run the task, or wait for the identical task already in flight.
+     * Waiting is aborted when the {@link CancellationToken} of the current thread
+     * is cancelled. If the task in flight fails with {@link CancelledIOException}
+     * because its owner was cancelled, waiters run the task again.
+     * @param key Key of the task
+     * @param task Task to run if no task with the same key is in flight
+     * @return Result of the task
+     * @throws IOException if the task failed, or waiting was interrupted or cancelled
+     */
+    public V execute (K key, final Task<V> task) throws IOException {
+        CancellationToken token = CancellationToken.current();
+        while (true) {
+            FutureTask<V> future;
+            boolean owner = false;
+
+            synchronized (m_lock) {
+                future = m_inFlight.get(key);
+                if (future == null) {
+                    future = new FutureTask<> (new Callable<V>() {
+                        @Override
+                        public V call() throws Exception {
+                            return task.run();
+                        }
+                    });
+                    m_inFlight.put(key, future);
+                    owner = true;
+                }
+            }
+
+            if (owner) {
+                try {
+                    future.run();
+                }
+                finally {
+                    synchronized (m_lock) {
+                        m_inFlight.remove(key);
+                    }
+                }
+            }
+            else {
+                if (TracerLog.isDebug())
+                    TracerLog.debug("SingleFlight: joining in-flight task: " + key.toString());
+            }
+
+            try {
+                return waitFor (future, token);
+            }
+            catch (CancelledIOException e) {
+                // retry tasks cancelled by another owner, real failures (timeouts
+                // included) are reported to all waiters
+                if (owner || (token != null && token.isCancelled()))
+                    throw e;
+                if (TracerLog.isDebug())
+                    TracerLog.debug("SingleFlight: in-flight task cancelled, retrying: " + key.toString());
+            }
+        }
+    }
+
+    private V waitFor (FutureTask<V> future, CancellationToken token) throws IOException {
+        try {
+            if (token == null)
+                return future.get();
+            while (true) {
+                token.checkCancelled();
+                try {
+                    return future.get(cancelPollMillis, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException ("Interrupted while waiting");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException (cause);
+        }
+    }
+}
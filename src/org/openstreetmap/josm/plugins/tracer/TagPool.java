@@ -0,0 +1,89 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of canonical strings and immutable tag sets shared by cached records.
+ *
+ * Records of one area repeat the same street and city names and the same
+ * tag sets, pooled instances let thousands of cached records reference
+ * a single copy. Entries are held weakly, so instances no longer referenced
+ * by any record are garbage collected.
+ */
+public final class TagPool {
+
+    private static final Map<Object, WeakReference<Object>> m_pool = new WeakHashMap<>();
+
+    private TagPool () {
+    }
+
+    /**
+     * Returns canonical instance of the string.
+     * @param s string, may be null
+     * @return pooled string equal to s
+     */
+    public static String intern (String s) {
+        if (s == null)
+            return null;
+        if (s.isEmpty())
+            return "";
+        return (String) canonical(s);
+    }
+
+    /**
+     * Returns canonical immutable copy of the tag set, keys and values are
+     * interned as well.
+     * @param tags tags
+     * @return pooled immutable map equal to tags
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, String> tags (Map<String, String> tags) {
+        if (tags.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, String> copy;
+        if (tags.size() == 1) {
+            Map.Entry<String, String> tag = tags.entrySet().iterator().next();
+            copy = Collections.singletonMap(intern(tag.getKey()), intern(tag.getValue()));
+        }
+        else {
+            Map<String, String> map = new HashMap<>(tags.size() * 4 / 3 + 1);
+            for (Map.Entry<String, String> tag: tags.entrySet())
+                map.put(intern(tag.getKey()), intern(tag.getValue()));
+            copy = Collections.unmodifiableMap(map);
+        }
+        return (Map<String, String>) canonical(copy);
+    }
+
+    private static synchronized Object canonical (Object obj) {
+        WeakReference<Object> ref = m_pool.get(obj);
+        Object pooled = ref != null ? ref.get() : null;
+        if (pooled != null)
+            return pooled;
+        m_pool.put(obj, new WeakReference<>(obj));
+        return obj;
+    }
+}
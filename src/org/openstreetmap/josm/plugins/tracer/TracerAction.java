@@ -41,6 +41,10 @@ class TracerAction extends MapMode implements MouseListener, KeyListener {
                 Shortcut.registerShortcut("tools:tracer", tr("Tool: {0}", tr("Tracer")), KeyEvent.VK_T, Shortcut.DIRECT), null);
     }
 
+    Modules getModules() {
+        return m_modules;
+    }
+
     @Override
     public void enterMode() {
         if (!isEnabled()) {
@@ -52,6 +56,7 @@ class TracerAction extends MapMode implements MouseListener, KeyListener {
             TracerUtils.showNotification(tr("Tracer: No active module found!\nPlease enable some in configuration."), "error");
             return;
         }
+        m_modules.warmUp();
 
         super.enterMode();
         Main.map.mapView.addMouseListener(this);
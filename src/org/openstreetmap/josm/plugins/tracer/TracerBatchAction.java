@@ -0,0 +1,81 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.List;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * Traces all objects of the active module inside selected closed ways.
+ */
+class TracerBatchAction extends JosmAction {
+
+    private static final long serialVersionUID = 1L;
+    private final Modules m_modules;
+
+    TracerBatchAction(Modules modules) {
+        super(tr("Tracer: trace all in selection"), "mapmode/tracer-sml", tr("Trace all objects inside selected closed ways."), null, false);
+        m_modules = modules;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        DataSet ds = Main.main.getLayerManager().getEditDataSet();
+        if (ds == null)
+            return;
+
+        m_modules.refreshModulesStatus();
+        if (m_modules.getActiveModulesCount() == 0) {
+            TracerUtils.showNotification(tr("Tracer: No active module found!\nPlease enable some in configuration."), "error");
+            return;
+        }
+
+        BBox bbox = null;
+        List<List<LatLon>> polygons = new ArrayList<>();
+        for (Way way: ds.getSelectedWays()) {
+            if (!way.isClosed() || way.hasIncompleteNodes())
+                continue;
+            List<LatLon> polygon = new ArrayList<>(way.getNodesCount());
+            for (Node node: way.getNodes())
+                polygon.add(node.getCoor());
+            polygons.add(polygon);
+            if (bbox == null)
+                bbox = new BBox(way);
+            else
+                bbox.add(way.getBBox());
+        }
+
+        if (bbox == null) {
+            TracerUtils.showNotification(tr("Select closed ways delimiting the area to trace."), "warning");
+            return;
+        }
+
+        new TracerBatchTask(m_modules.getActiveModule(), bbox, polygons).run();
+    }
+}
@@ -0,0 +1,449 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.downloadtasks.DownloadOsmTask;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.dialogs.relation.DownloadRelationTask;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.plugins.tracer.connectways.EdObject;
+import org.openstreetmap.josm.plugins.tracer.connectways.EditorSession;
+import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
+import org.openstreetmap.josm.plugins.tracer.connectways.WayEditor;
+import org.xml.sax.SAXException;
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * Traces all records of a module inside the given area.
+ *
+ * Records are downloaded in bulk, missing OSM data and incomplete multipolygons
+ * are downloaded once for the whole area. Every record is then traced and
+ * finalized in its own WayEditor, records are grouped in chunks producing
+ * one undo entry each.
+ */
+final class TracerBatchTask {
+
+    private static final double oversizeMeters = 15.0;
+    private static final double automaticOsmDownloadMeters = 100.0;
+    private static final double resurrectNodesDistanceMeters = 10.0;
+    private static final int maxReportedProblems = 5;
+
+    private final TracerModule m_module;
+    private final BBox m_bbox;
+    private final List<List<LatLon>> m_polygons;
+    private final int m_chunkSize;
+
+    private List<TracerRecord> m_records;
+    private List<LatLon> m_positions;
+    private BBox m_recordsBBox;
+    private volatile boolean m_cancelled;
+    private final CancellationToken m_cancellation = new CancellationToken();
+    private final TracerLog.Metrics m_metrics = new TracerLog.Metrics();
+
+    private long m_startTime;
+    private int m_traced;
+    private int m_skipped;
+    private int m_failed;
+    private int m_warned;
+    // "position: message" of the first failures and warnings, for the summary
+    private final List<String> m_failures = new ArrayList<>();
+    private final List<String> m_warnings = new ArrayList<>();
+    private int m_warningsCount;
+
+    /**
+     * @param module module to trace with
+     * @param bbox area to trace
+     * @param polygons closed polygons restricting traced records inside bbox, empty list for whole bbox
+     */
+    TracerBatchTask (TracerModule module, BBox bbox, List<List<LatLon>> polygons) {
+        m_module = module;
+        m_bbox = bbox;
+        m_polygons = polygons;
+        m_chunkSize = Math.max(1, Main.pref.getInteger("tracer.batch.chunk_size", 50));
+    }
+
+    void run () {
+        TracerLog.reloadPreferences();
+        EditorSession.reloadPreferences();
+        m_startTime = System.nanoTime();
+
+        Main.worker.submit (new PleaseWaitRunnable (tr("Tracing all {0} objects", m_module.getName())) {
+            @Override
+            protected void cancel() {
+                m_cancelled = true;
+                m_cancellation.cancel();
+            }
+
+            @Override
+            protected void realRun() throws SAXException, IOException, OsmTransferException {
+                this.getProgressMonitor().indeterminateSubTask(tr("Downloading {0} data..." , m_module.getName()));
+                if (downloadRecords () && !m_cancelled)
+                    stepDownloadMissingArea ();
+            }
+
+            @Override
+            protected void finish() {}
+        });
+    }
+
+    private boolean downloadRecords () {
+        List<TracerRecord> records;
+        TracerLog.Metrics previous_metrics = TracerLog.bindMetrics(m_metrics);
+        long start_time = TracerLog.start();
+        CancellationToken previous = CancellationToken.enter(m_cancellation);
+        try {
+            records = m_module.downloadRecords(m_bbox);
+        }
+        catch (Exception e) {
+            if (m_cancellation.isCancelled())
+                return false;
+            TracerLog.info("Batch: " + m_module.getName() + " download failed: " + e.toString());
+            TracerUtils.showNotification(tr("{0} download failed.\nException: {1}", m_module.getName(), e.getLocalizedMessage()), "error");
+            return false;
+        }
+        finally {
+            CancellationToken.exit(previous);
+            TracerLog.stop("batch.downloadRecords", start_time);
+            TracerLog.bindMetrics(previous_metrics);
+        }
+
+        if (records == null) {
+            TracerUtils.showNotification(tr("Module {0} doesn''t support tracing of an area.", m_module.getName()), "warning");
+            return false;
+        }
+
+        m_records = new ArrayList<>(records.size());
+        m_positions = new ArrayList<>(records.size());
+        for (TracerRecord record: records) {
+            if (!record.hasData())
+                continue;
+            LatLon pos = record.getInteriorPoint();
+            if (pos == null || !insidePolygons(pos))
+                continue;
+            m_records.add(record);
+            m_positions.add(pos);
+            if (m_recordsBBox == null)
+                m_recordsBBox = new BBox(record.getBBox());
+            else
+                m_recordsBBox.add(record.getBBox());
+        }
+
+        if (m_records.isEmpty()) {
+            TracerUtils.showNotification(tr("Data not available."), "warning");
+            return false;
+        }
+        TracerLog.info("Batch: " + Integer.toString(m_records.size()) + " records to trace");
+        return true;
+    }
+
+    private boolean insidePolygons (LatLon pos) {
+        if (m_polygons.isEmpty())
+            return true;
+        for (List<LatLon> polygon: m_polygons) {
+            if (TracerRecord.polygonContainsPoint(polygon, pos))
+                return true;
+        }
+        return false;
+    }
+
+    private void stepDownloadMissingArea () {
+        DataSet ds = Main.main.getLayerManager().getEditDataSet();
+        LatLonSize extrasize = LatLonSize.get(m_recordsBBox, oversizeMeters);
+        LatLonSize downloadsize = LatLonSize.get(m_recordsBBox, automaticOsmDownloadMeters);
+
+        Bounds area = null;
+        for (TracerRecord record: m_records) {
+            Bounds b = record.getMissingAreaToDownload(ds, extrasize, downloadsize);
+            if (b == null)
+                continue;
+            if (area == null)
+                area = b;
+            else
+                area.extend(b);
+        }
+
+        if (area == null) {
+            stepDownloadIncompleteMultipolygons ();
+            return;
+        }
+
+        final DownloadOsmTask task = new DownloadOsmMissingAreaTask();
+        final Future<?> future = task.download(false, area, null);
+        Main.worker.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.get();
+                    if (task.isCanceled())
+                        m_cancelled = true;
+                } catch (Exception e) {}
+                if (!m_cancelled)
+                    stepDownloadIncompleteMultipolygons ();
+            }
+        });
+    }
+
+    private void stepDownloadIncompleteMultipolygons () {
+        List<Relation> incomplete_multipolygons = TracerModule.getIncompleteMultipolygons(Main.main.getLayerManager().getEditDataSet(), m_recordsBBox);
+        if (incomplete_multipolygons.isEmpty()) {
+            stepTrace ();
+            return;
+        }
+
+        final DownloadRelationTask task = new DownloadRelationTask(incomplete_multipolygons, Main.main.getLayerManager().getEditLayer());
+        final Future<?> future = Main.worker.submit(task);
+        Main.worker.submit (new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.get();
+                    if (task.getProgressMonitor().isCanceled())
+                        m_cancelled = true;
+                } catch (Exception e) {}
+                if (!m_cancelled)
+                    stepTrace ();
+            }
+        });
+    }
+
+    /**
+     * Traces records in chunks in EDT. The chunks are driven from a progress
+     * dialog, so tracing can be cancelled between chunks.
+     */
+    private void stepTrace () {
+        Main.worker.submit (new PleaseWaitRunnable (tr("Tracing all {0} objects", m_module.getName())) {
+            @Override
+            protected void cancel() {
+                m_cancelled = true;
+            }
+
+            @Override
+            protected void realRun() {
+                ProgressMonitor monitor = getProgressMonitor();
+                monitor.setTicksCount(m_records.size());
+                for (int first = 0; first < m_records.size() && !m_cancelled; first += m_chunkSize) {
+                    final int chunk_first = first;
+                    final int chunk_last = Math.min(first + m_chunkSize, m_records.size());
+                    monitor.subTask(tr("Tracing objects {0}-{1} of {2}", chunk_first + 1, chunk_last, m_records.size()));
+                    GuiHelper.runInEDTAndWait(new Runnable() {
+                        @Override
+                        public void run() {
+                            traceChunk (chunk_first, chunk_last);
+                        }
+                    });
+                    monitor.worked(chunk_last - chunk_first);
+                }
+            }
+
+            @Override
+            protected void finish() {
+                TracerBatchTask.this.finish ();
+            }
+        });
+    }
+
+    private void traceChunk (int first, int last) {
+        DataSet data_set = Main.main.getLayerManager().getEditDataSet();
+        TracerLog.Metrics previous = TracerLog.bindMetrics(m_metrics);
+        long start_time = TracerLog.start();
+        List<Command> commands = new ArrayList<>();
+        int traced = 0;
+        data_set.beginUpdate();
+        try {
+            for (int i = first; i < last && !m_cancelled; i++) {
+                Command command = traceRecord (data_set, i);
+                if (command != null) {
+                    commands.add(command);
+                    ++traced;
+                }
+            }
+            if (!commands.isEmpty())
+                Main.main.undoRedo.add(new ExecutedCommands(tr("Trace {0} objects", traced), commands));
+        }
+        finally {
+            data_set.endUpdate();
+            TracerLog.stop("batch.chunk", start_time);
+            TracerLog.count("batch.records", last - first);
+            TracerLog.bindMetrics(previous);
+        }
+    }
+
+    /**
+     * Traces one record in its own WayEditor, finalizes it and executes the
+     * resulting commands, so the following records see the traced object.
+     * Edits of a skipped or failed record are discarded with its editor.
+     * Post-trace notifications of the record are collected for the summary.
+     * @return executed command, null if nothing was changed
+     */
+    private Command traceRecord (DataSet data_set, int i) {
+        TracerRecord record = m_records.get(i);
+        LatLon pos = m_positions.get(i);
+        WayEditor editor = new WayEditor (data_set);
+        editor.snapshotNeighbourhood(TracerModule.neighbourhoodBBox(record.getBBox()));
+
+        TracerModule.AbstractTracerTask task = m_module.trace(pos, false, false, false);
+        List<Command> commands;
+        try {
+            EdObject object = task.traceRecord(editor, record);
+            if (object == null) {
+                ++m_skipped;
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Batch: skipped record at " + pos.toDisplayString());
+                return null;
+            }
+            commands = editor.finalizeEdit(object, resurrectNodesDistanceMeters);
+        }
+        catch (Exception e) {
+            recordFailure(pos, e.toString());
+            return null;
+        }
+        finally {
+            recordWarnings(pos, task.postTraceNotifications().takeAll());
+        }
+
+        if (commands.isEmpty()) {
+            ++m_traced;
+            return null;
+        }
+        Command command = new SequenceCommand(tr("Trace object"), commands);
+        if (!command.executeCommand()) {
+            recordFailure(pos, tr("Commands can''t be executed"));
+            return null;
+        }
+        ++m_traced;
+        return command;
+    }
+
+    private void recordFailure (LatLon pos, String reason) {
+        ++m_failed;
+        String msg = pos.toDisplayString() + ": " + reason;
+        TracerLog.info("Batch: record failed at " + msg);
+        if (m_failures.size() < maxReportedProblems)
+            m_failures.add(msg);
+    }
+
+    private void recordWarnings (LatLon pos, List<String> warnings) {
+        if (warnings.isEmpty())
+            return;
+        ++m_warned;
+        for (String warning: warnings) {
+            String msg = pos.toDisplayString() + ": " + warning;
+            TracerLog.info("Batch: warning at " + msg);
+            if (m_warnings.size() < maxReportedProblems)
+                m_warnings.add(msg);
+            ++m_warningsCount;
+        }
+    }
+
+    /**
+     * Commands already executed while tracing a chunk. Adding to the undo stack
+     * doesn't execute them again, undo and redo work as usual.
+     */
+    private static final class ExecutedCommands extends Command {
+        private final String m_name;
+        private final List<Command> m_commands;
+        private boolean m_executed = true;
+
+        ExecutedCommands (String name, List<Command> commands) {
+            m_name = name;
+            m_commands = commands;
+        }
+
+        @Override
+        public boolean executeCommand() {
+            if (m_executed) {
+                m_executed = false;
+                return true;
+            }
+            for (int i = 0; i < m_commands.size(); i++) {
+                if (!m_commands.get(i).executeCommand()) {
+                    for (int j = i - 1; j >= 0; j--)
+                        m_commands.get(j).undoCommand();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void undoCommand() {
+            for (int i = m_commands.size() - 1; i >= 0; i--)
+                m_commands.get(i).undoCommand();
+        }
+
+        @Override
+        public void fillModifiedData(Collection<OsmPrimitive> modified, Collection<OsmPrimitive> deleted, Collection<OsmPrimitive> added) {
+            for (Command c: m_commands)
+                c.fillModifiedData(modified, deleted, added);
+        }
+
+        @Override
+        public Collection<? extends OsmPrimitive> getParticipatingPrimitives() {
+            Set<OsmPrimitive> result = new HashSet<>();
+            for (Command c: m_commands)
+                result.addAll(c.getParticipatingPrimitives());
+            return result;
+        }
+
+        @Override
+        public String getDescriptionText() {
+            return m_name;
+        }
+    }
+
+    private void finish () {
+        double seconds = (System.nanoTime() - m_startTime) / 1.0e9;
+        String msg = tr("Traced {0} of {1} objects in {2} s ({3} objects/s).",
+            m_traced, m_records.size(), String.format("%.1f", seconds), String.format("%.2f", m_traced / Math.max(seconds, 0.001)));
+        if (m_skipped > 0 || m_failed > 0 || m_warned > 0)
+            msg += "\n" + tr("Skipped: {0}, failed: {1}, with warnings: {2}", m_skipped, m_failed, m_warned);
+        if (m_cancelled)
+            msg += "\n" + tr("Cancelled.");
+        for (String failure: m_failures)
+            msg += "\n" + tr("Failed at {0}", failure);
+        if (m_failed > m_failures.size())
+            msg += "\n" + tr("... and {0} more failures, see the log.", m_failed - m_failures.size());
+        for (String warning: m_warnings)
+            msg += "\n" + warning;
+        if (m_warningsCount > m_warnings.size())
+            msg += "\n" + tr("... and {0} more warnings, see the log.", m_warningsCount - m_warnings.size());
+        TracerLog.info("Batch: " + msg);
+        TracerUtils.showNotification(msg, m_failed > 0 || m_warned > 0 ? "warning" : "info");
+        TracerLog.dumpMetrics(m_metrics, "Batch metrics");
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openstreetmap.josm.Main;
+
+/**
+ * Plugin-wide logging and metrics.
+ *
+ * Messages are gated by level ("tracer.log.level" preference: off, info, debug, trace),
+ * callers on hot paths should test {@link #isDebug()} / {@link #isTrace()} before
+ * building the message string. Named counters and timers are collected only if
+ * "tracer.metrics" preference is enabled, otherwise all calls return immediately.
+ *
+ * Metrics are recorded into the {@link Metrics} collector bound to the current thread,
+ * every trace owns its collector and binds it to each thread it runs on. Metrics of
+ * unbound threads (prefetch, warm-up) go to a shared background collector that is
+ * reported separately.
+ */
+public final class TracerLog {
+
+    public static final int levelOff = 0;
+    public static final int levelInfo = 1;
+    public static final int levelDebug = 2;
+    public static final int levelTrace = 3;
+
+    private static volatile int m_level = levelInfo;
+    private static volatile boolean m_metrics = false;
+
+    private static final Metrics m_background = new Metrics();
+    private static final ThreadLocal<Metrics> m_current = new ThreadLocal<>();
+
+    private static final class Metric {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+
+    /**
+     * Collector of named counters and timers.
+     */
+    public static final class Metrics {
+        // name -> {count, total nanos}
+        private final ConcurrentHashMap<String, Metric> m_values = new ConcurrentHashMap<>();
+
+        private Metric metric (String name) {
+            Metric m = m_values.get(name);
+            if (m == null) {
+                Metric nm = new Metric();
+                m = m_values.putIfAbsent(name, nm);
+                if (m == null)
+                    m = nm;
+            }
+            return m;
+        }
+
+        private void dump (String title) {
+            if (m_values.isEmpty())
+                return;
+
+            List<String> names = new ArrayList<>(m_values.keySet());
+            Collections.sort(names);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("----- ").append(title).append(" -----\n");
+            for (String name: names) {
+                Metric m = m_values.remove(name);
+                if (m == null)
+                    continue;
+                long count = m.count.get();
+                long nanos = m.nanos.get();
+                sb.append(' ').append(name).append(": ").append(count);
+                if (nanos > 0)
+                    sb.append(" x, ").append(String.format("%.2f", nanos / 1.0e6)).append(" ms");
+                sb.append('\n');
+            }
+            System.out.print(sb.toString());
+        }
+    }
+
+    private TracerLog () {
+    }
+
+    /**
+     * Reloads logging preferences, called at the beginning of every trace.
+     */
+    public static void reloadPreferences () {
+        m_level = parseLevel (Main.pref.get("tracer.log.level", "info"));
+        m_metrics = Main.pref.getBoolean("tracer.metrics", false);
+    }
+
+    private static int parseLevel (String s) {
+        if ("off".equals(s))
+            return levelOff;
+        if ("debug".equals(s))
+            return levelDebug;
+        if ("trace".equals(s))
+            return levelTrace;
+        return levelInfo;
+    }
+
+    public static boolean isEnabled (int level) {
+        return level <= m_level;
+    }
+
+    public static boolean isDebug () {
+        return levelDebug <= m_level;
+    }
+
+    public static boolean isTrace () {
+        return levelTrace <= m_level;
+    }
+
+    public static boolean metricsEnabled () {
+        return m_metrics;
+    }
+
+    public static void info (String msg) {
+        if (levelInfo <= m_level)
+            System.out.println(msg);
+    }
+
+    public static void debug (String msg) {
+        if (levelDebug <= m_level)
+            System.out.println(msg);
+    }
+
+    public static void trace (String msg) {
+        if (levelTrace <= m_level)
+            System.out.println(msg);
+    }
+
+    /**
+     * Increments the named counter.
+     * @param name counter name
+     */
+    public static void count (String name) {
+        if (m_metrics)
+            metric(name).count.incrementAndGet();
+    }
+
+    public static void count (String name, long delta) {
+        if (m_metrics)
+            metric(name).count.addAndGet(delta);
+    }
+
+    /**
+     * Starts a timer.
+     * @return start timestamp to be passed to {@link #stop}, 0 if metrics are disabled
+     */
+    public static long start () {
+        return m_metrics ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds time elapsed since {@link #start} to the named timer.
+     * @param name timer name
+     * @param start_time value returned by start()
+     */
+    public static void stop (String name, long start_time) {
+        if (!m_metrics || start_time == 0)
+            return;
+        Metric m = metric(name);
+        m.count.incrementAndGet();
+        m.nanos.addAndGet(System.nanoTime() - start_time);
+    }
+
+    private static Metric metric (String name) {
+        Metrics metrics = m_current.get();
+        return (metrics != null ? metrics : m_background).metric(name);
+    }
+
+    /**
+     * Binds the collector to the current thread, metrics of the thread are recorded
+     * into it until the previous binding is restored.
+     * @param metrics collector to bind, null to unbind
+     * @return previously bound collector, to be passed back to this method
+     */
+    public static Metrics bindMetrics (Metrics metrics) {
+        Metrics previous = m_current.get();
+        if (metrics != null)
+            m_current.set(metrics);
+        else
+            m_current.remove();
+        return previous;
+    }
+
+    /**
+     * Prints all counters and timers of the collector and resets them. Background
+     * metrics collected in the meantime are printed and reset under their own title.
+     * @param metrics collector to dump
+     * @param title dump title
+     */
+    public static void dumpMetrics (Metrics metrics, String title) {
+        if (!m_metrics)
+            return;
+        metrics.dump(title);
+        m_background.dump("Background metrics");
+    }
+}
@@ -21,7 +21,9 @@ package org.openstreetmap.josm.plugins.tracer;
 import java.awt.Cursor;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import javax.swing.JOptionPane;
@@ -41,10 +43,12 @@ import org.openstreetmap.josm.gui.dialogs.relation.DownloadRelationTask;
 import static org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.Functions.tr;
 import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.plugins.tracer.connectways.BBoxUtils;
 import org.openstreetmap.josm.plugins.tracer.connectways.EdMultipolygon;
 import org.openstreetmap.josm.plugins.tracer.connectways.EdNode;
 import org.openstreetmap.josm.plugins.tracer.connectways.EdObject;
 import org.openstreetmap.josm.plugins.tracer.connectways.EdWay;
+import org.openstreetmap.josm.plugins.tracer.connectways.EditorSession;
 import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
 import org.openstreetmap.josm.plugins.tracer.connectways.MultipolygonMatch;
 import org.openstreetmap.josm.plugins.tracer.connectways.WayEditor;
@@ -64,11 +68,21 @@ enum TracerTaskStep {
  */
 
 public abstract class TracerModule {
+
+    // extension of traced record bbox covering most of connectways searches
+    private static final double neighbourhoodMeters = 50.0;
     /**
      *  Function for initialization
      */
     public abstract void init();
 
+    /**
+     *  Performs expensive one-time initialization in advance, called on
+     *  a background thread when the tracer mode is entered
+     */
+    public void warmUp() {
+    }
+
     /**
      *  Returns cursor image
      *  @return Module cursor image
@@ -108,10 +122,58 @@ public abstract class TracerModule {
      */
     public abstract AbstractTracerTask trace(LatLon pos, boolean ctrl, boolean alt, boolean shift);
 
+    /**
+     *  Downloads records of all objects intersecting the given area, used by batch tracing.
+     *  Modules without bulk download support return null.
+     *  @param bbox area to download
+     *  @return list of records, null if not supported
+     *  @throws Exception if the download fails
+     */
+    public List<TracerRecord> downloadRecords(BBox bbox) throws Exception {
+        return null;
+    }
+
+    /**
+     * Returns area around the traced records, which is searched by connectways
+     * operations and taken as WayEditor neighbourhood snapshot.
+     * @param records_bbox bbox of traced records
+     * @return extended bbox
+     */
+    static BBox neighbourhoodBBox(BBox records_bbox) {
+        BBox bbox = new BBox(records_bbox);
+        BBoxUtils.extendBBox(bbox, LatLonSize.get(bbox, neighbourhoodMeters));
+        return bbox;
+    }
+
+    /**
+     * Returns list of all existing incomplete multipolygons in the given area.
+     * These relations must be downloaded first, clipping doesn't support incomplete
+     * multipolygons.
+     * @param ds data set to search
+     * @param bbox area to search
+     * @return List of incomplete multipolygon relations
+     */
+    static List<Relation> getIncompleteMultipolygons(DataSet ds, BBox bbox) {
+        ds.getReadLock().lock();
+        try {
+            List<Relation> list = new ArrayList<>();
+            for (Relation rel : ds.searchRelations(bbox)) {
+                if (!MultipolygonMatch.match(rel))
+                    continue;
+                if (rel.isIncomplete() || rel.hasIncompleteMembers())
+                    list.add(rel);
+            }
+            return list;
+        } finally {
+            ds.getReadLock().unlock();
+        }
+    }
+
     public abstract class AbstractTracerTask {
 
         TracerTaskStep m_taskStep;
-        private boolean m_cancelled;
+        private volatile boolean m_cancelled;
+        private final CancellationToken m_cancellation = new CancellationToken();
 
         protected final LatLon m_pos;
         protected final boolean m_ctrl;
@@ -124,6 +186,13 @@ public abstract class TracerModule {
         protected boolean m_updateTagsOnly;
 
         private TracerRecord m_record;
+        private long m_stepStartTime;
+        // metrics of this trace, bound to every thread the trace runs on
+        private final TracerLog.Metrics m_metrics = new TracerLog.Metrics();
+        private boolean m_headless;
+        // resolve tag conflicts without dialog, only for runHeadless
+        private boolean m_keepTracedTags;
+        private int m_resolvedTagConflicts;
 
         private static final double resurrectNodesDistanceMeters = 10.0;
         private static final double defaultAutomaticOsmDownloadMeters = 500.0;
@@ -149,13 +218,97 @@ public abstract class TracerModule {
         public void run () {
             if (m_taskStep != TracerTaskStep.ttsInit)
                 throw new AssertionError("Tracer task already in progress");
+            TracerLog.reloadPreferences();
+            EditorSession.reloadPreferences();
             nextStep ();
         }
 
+        /**
+         * Runs the trace synchronously on the given DataSet, without any GUI interaction.
+         * Missing areas and incomplete multipolygons are not downloaded, resulting
+         * commands are returned and not executed. Tag conflicts are resolved to the
+         * traced values and notifications are kept for {@link #takePostTraceNotifications}.
+         * Used by the headless replay harness, metrics go to the collector bound by the caller.
+         * @param data_set data set to trace into
+         * @return commands creating the traced object, empty list if nothing changed,
+         * null if there's no data for the traced position
+         * @throws Exception if the record download fails
+         */
+        public List<Command> runHeadless (DataSet data_set) throws Exception {
+            if (m_taskStep != TracerTaskStep.ttsInit)
+                throw new AssertionError("Tracer task already in progress");
+            m_headless = true;
+            m_keepTracedTags = true;
+
+            m_taskStep = TracerTaskStep.ttsDownloadRecord;
+            long start_time = TracerLog.start();
+            m_record = downloadRecord(m_pos);
+            TracerLog.stop("step." + m_taskStep.name(), start_time);
+            if (m_record == null || !m_record.hasData())
+                return null;
+
+            m_taskStep = TracerTaskStep.ttsCreateTracedPolygon;
+            start_time = TracerLog.start();
+            try {
+                WayEditor editor = newWayEditor (data_set);
+                EdObject object = createTracedPolygonImpl (editor);
+                if (object == null)
+                    return new ArrayList<>();
+                return editor.finalizeEdit(object, getResurrectNodesDistanceMeters());
+            }
+            finally {
+                TracerLog.stop("step." + m_taskStep.name(), start_time);
+            }
+        }
+
+        /**
+         * Traces an already downloaded record into the given editor, used by batch tracing.
+         * The editor is not finalized, caller finalizes it or discards it for skipped records.
+         * Dialogs are replaced by notifications, except tag conflict resolution.
+         * @param editor editor of the traced record
+         * @param record record to trace
+         * @return traced object, null if the record was skipped
+         */
+        EdObject traceRecord (WayEditor editor, TracerRecord record) {
+            if (m_taskStep != TracerTaskStep.ttsInit)
+                throw new AssertionError("Tracer task already in progress");
+            m_headless = true;
+            m_record = record;
+            m_taskStep = TracerTaskStep.ttsCreateTracedPolygon;
+            return createTracedPolygonImpl (editor);
+        }
+
+        /**
+         * Creates WayEditor for the traced record, with a snapshot of the record's neighbourhood.
+         */
+        private WayEditor newWayEditor (DataSet data_set) {
+            WayEditor editor = new WayEditor (data_set);
+            editor.snapshotNeighbourhood(neighbourhoodBBox(m_record.getBBox()));
+            return editor;
+        }
+
         private void nextStep () {
+            TracerLog.Metrics previous = TracerLog.bindMetrics(m_metrics);
+            try {
+                nextStepImpl ();
+            }
+            finally {
+                TracerLog.bindMetrics(previous);
+            }
+        }
+
+        private void nextStepImpl () {
 
-            if (m_cancelled)
+            if (TracerLog.metricsEnabled()) {
+                if (m_taskStep != TracerTaskStep.ttsInit)
+                    TracerLog.stop("step." + m_taskStep.name(), m_stepStartTime);
+                m_stepStartTime = TracerLog.start();
+            }
+
+            if (m_cancelled) {
+                TracerLog.dumpMetrics(m_metrics, "Trace cancelled");
                 return;
+            }
 
             switch (m_taskStep) {
                 case ttsInit:
@@ -187,18 +340,28 @@ public abstract class TracerModule {
         }
 
         private void downloadRecordTaskBody (boolean async) {
-            System.out.println("");
-            System.out.println("----- Trace -----");
-            System.out.println("");
+            TracerLog.info("");
+            TracerLog.info("----- Trace -----");
+            TracerLog.info("");
 
+            CancellationToken previous = CancellationToken.enter(m_cancellation);
+            TracerLog.Metrics previous_metrics = TracerLog.bindMetrics(m_metrics);
             try {
                 m_record = downloadRecord(m_pos);
             }
             catch (final Exception e) {
+                if (m_cancellation.isCancelled()) {
+                    TracerLog.info("Trace cancelled during download");
+                    return;
+                }
                 e.printStackTrace();
                 TracerUtils.showNotification(tr("{0} download failed ({1}).\nException: {2}", getName(), m_pos.toDisplayString(), e.getLocalizedMessage()), "error");
                 return;
             }
+            finally {
+                TracerLog.bindMetrics(previous_metrics);
+                CancellationToken.exit(previous);
+            }
 
             if (!async) {
                 nextStep ();
@@ -238,7 +401,9 @@ public abstract class TracerModule {
             Main.worker.submit (new PleaseWaitRunnable (tr("Tracing")) {
                     @Override
                     protected void cancel() {
+                        // abort the running download, don't wait for its timeout
                         m_cancelled = true;
+                        m_cancellation.cancel();
                     }
 
                     @Override
@@ -324,7 +489,8 @@ public abstract class TracerModule {
                     public void run() {
                         try {
                             future.get();
-                            // mmhm, DownloadRelationTask doesn't expose "cancelled" flag :-(
+                            if (task.getProgressMonitor().isCanceled())
+                                m_cancelled = true;
                         } catch (Exception e) {}
                         nextStep ();
                     }
@@ -339,12 +505,14 @@ public abstract class TracerModule {
                 @Override
                 @SuppressWarnings("CallToPrintStackTrace")
                 public void run() {
-                    long start_time = System.nanoTime();
                     DataSet data_set = Main.main.getLayerManager().getEditDataSet();
+                    TracerLog.Metrics previous = TracerLog.bindMetrics(m_metrics);
                     data_set.beginUpdate();
                     try {
-                        WayEditor editor = new WayEditor (data_set);
+                        WayEditor editor = newWayEditor (data_set);
+                        long impl_time = TracerLog.start();
                         EdObject object = createTracedPolygonImpl (editor);
+                        TracerLog.stop("connectways.createTracedPolygon", impl_time);
                         if (object != null) {
                             finalizeEdit(editor, object);
                         }
@@ -356,22 +524,24 @@ public abstract class TracerModule {
                     }
                     finally {
                         data_set.endUpdate();
-                        long end_time = System.nanoTime();
-                        long time_msecs = (end_time - start_time) / (1000*1000);
-                        System.out.println("Polygon time (ms): " + Long.toString(time_msecs));
+                        TracerLog.stop("step." + m_taskStep.name(), m_stepStartTime);
+                        TracerLog.bindMetrics(previous);
+                        TracerLog.dumpMetrics(m_metrics, "Trace metrics");
                     }
                 }
 
                 private void finalizeEdit(WayEditor editor, EdObject object) {
 
+                    long finalize_time = TracerLog.start();
                     List<Command> commands = editor.finalizeEdit(object, getResurrectNodesDistanceMeters());
+                    TracerLog.stop("connectways.finalizeEdit", finalize_time);
 
                     if (commands.isEmpty()) {
                         postTraceNotifications().add(tr("Nothing changed."));
                         return;
                     }
 
-                    long start_time = System.nanoTime();
+                    long start_time = TracerLog.start();
 
                     Main.main.undoRedo.add(new SequenceCommand(tr("Trace object"), commands));
 
@@ -392,9 +562,7 @@ public abstract class TracerModule {
                     } else {
                         editor.getDataSet().setSelected(sel);
                     }
-                    long end_time = System.nanoTime();
-                    long time_msecs = (end_time - start_time) / (1000 * 1000);
-                    System.out.println("undoRedo time (ms): " + Long.toString(time_msecs));
+                    TracerLog.stop("undoRedo", start_time);
                 }
             });
         }
@@ -406,24 +574,14 @@ public abstract class TracerModule {
          * @return List of incomplete multipolygon relations
          */
         private List<Relation> getIncompleteMultipolygonsForDownload() {
-            DataSet ds = Main.main.getLayerManager().getEditDataSet();
-            ds.getReadLock().lock();
-            BBox bbox = m_record.getBBox();
-            try {
-                List<Relation> list = new ArrayList<>();
-                for (Relation rel : ds.searchRelations(bbox)) {
-                    if (!MultipolygonMatch.match(rel))
-                        continue;
-                    if (rel.isIncomplete() || rel.hasIncompleteMembers())
-                        list.add(rel);
-                }
-                return list;
-            } finally {
-                ds.getReadLock().unlock();
-            }
+            return getIncompleteMultipolygons(Main.main.getLayerManager().getEditDataSet(), m_record.getBBox());
         }
 
         protected void wayIsOutsideDownloadedAreaDialog() {
+            if (m_headless) {
+                postTraceNotifications().add(tr("Way is outside downloaded area"));
+                return;
+            }
             ExtendedDialog ed = new ExtendedDialog(
                 Main.parent, tr("Way is outside downloaded area"),
                 new String[] {tr("Ok")});
@@ -443,6 +601,48 @@ public abstract class TracerModule {
             return m_postTraceNotifications;
         }
 
+        /**
+         * Removes and returns notifications of the trace, for headless callers
+         * which report them on their own.
+         * @return list of notifications
+         */
+        public List<String> takePostTraceNotifications() {
+            return m_postTraceNotifications.takeAll();
+        }
+
+        /**
+         * Returns number of tag conflicts resolved without dialog by {@link #runHeadless}.
+         * @return number of conflicting keys
+         */
+        public int getResolvedTagConflicts() {
+            return m_resolvedTagConflicts;
+        }
+
+        /**
+         * Combines tags of a retraced object with the traced tags, both maps must
+         * contain the same keys. Conflicts are resolved in a dialog, headless
+         * runs keep the traced values.
+         * @param old_keys tags of the existing object
+         * @param new_keys traced tags
+         * @return resolved tags, null if the resolution was cancelled
+         */
+        protected Map<String, String> resolveTagConflicts(Map<String, String> old_keys, Map<String, String> new_keys) {
+            if (!m_keepTracedTags)
+                return CombineTagsResolver.launchIfNecessary(old_keys, new_keys);
+
+            int conflicts = 0;
+            for (Map.Entry<String, String> tag: new_keys.entrySet()) {
+                String old_value = old_keys.get(tag.getKey());
+                if (old_value != null && !old_value.equals(tag.getValue()))
+                    ++conflicts;
+            }
+            if (conflicts > 0) {
+                m_resolvedTagConflicts += conflicts;
+                postTraceNotifications().add(tr("{0} conflicting tags resolved to traced values.", Integer.toString(conflicts)));
+            }
+            return new HashMap<>(new_keys);
+        }
+
         protected abstract LatLonSize getMissingAreaCheckExtraSize(LatLon pos);
 
         protected double getAutomaticOsmDownloadMeters () {
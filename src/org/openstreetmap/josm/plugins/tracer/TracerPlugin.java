@@ -29,7 +29,9 @@ public class TracerPlugin extends Plugin {
 
     public TracerPlugin(PluginInformation info) {
         super(info);
-        MainMenu.add(Main.main.menu.moreToolsMenu, new TracerAction());
+        TracerAction action = new TracerAction();
+        MainMenu.add(Main.main.menu.moreToolsMenu, action);
+        MainMenu.add(Main.main.menu.moreToolsMenu, new TracerBatchAction(action.getModules()));
     }
 
     @Override
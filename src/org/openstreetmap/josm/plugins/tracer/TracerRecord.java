@@ -19,15 +19,15 @@
 package org.openstreetmap.josm.plugins.tracer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonString;
-import javax.json.JsonValue;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
@@ -204,50 +204,142 @@ public abstract class TracerRecord implements IQuadCacheObject {
         return multipolygon;
     }
 
-    protected static long parseJsonLong(JsonObject obj, String key, long dflt) {
-        String val = retrieveJsonString (obj, key);
+    protected static long parseJsonLong(Map<String, String> obj, String key, long dflt) {
+        String val = obj.get(key);
         if (val == null)
             return dflt;
         return Long.parseLong(val);
     }
 
-    protected static int parseJsonInt(JsonObject obj, String key, int dflt) {
-        String val = retrieveJsonString (obj, key);
+    protected static int parseJsonInt(Map<String, String> obj, String key, int dflt) {
+        String val = obj.get(key);
         if (val == null)
             return dflt;
         return Integer.parseInt(val);
     }
 
-    protected static String parseJsonString(JsonObject obj, String key, String dflt) {
-        String val = retrieveJsonString (obj, key);
+    protected static String parseJsonString(Map<String, String> obj, String key, String dflt) {
+        String val = obj.get(key);
         return (val != null) ? val : dflt;
     }
 
-    protected static JsonObject retrieveJsonObject(JsonObject obj, String key) {
-        JsonValue v = obj.get(key);
-        if (v == null)
-            return null;
-        if (v.getValueType() != JsonValue.ValueType.OBJECT)
-            return null;
-        return (JsonObject)v;
+    /**
+     * Skips the JSON value started by the given event.
+     */
+    protected static void skipJsonValue(JsonParser parser, JsonParser.Event event) {
+        if (event != JsonParser.Event.START_ARRAY && event != JsonParser.Event.START_OBJECT)
+            return;
+        int depth = 1;
+        while (depth > 0) {
+            JsonParser.Event e = parser.next();
+            if (e == JsonParser.Event.START_ARRAY || e == JsonParser.Event.START_OBJECT)
+                depth++;
+            else if (e == JsonParser.Event.END_ARRAY || e == JsonParser.Event.END_OBJECT)
+                depth--;
+        }
     }
 
-    protected static JsonArray retrieveJsonArray(JsonObject obj, String key) {
-        JsonValue v = obj.get(key);
-        if (v == null)
-            return null;
-        if (v.getValueType() != JsonValue.ValueType.ARRAY)
+    /**
+     * Reads the next JSON value, skips it if it's not a string.
+     * @return string value or null
+     */
+    protected static String readJsonString(JsonParser parser) {
+        JsonParser.Event event = parser.next();
+        if (event == JsonParser.Event.VALUE_STRING)
+            return parser.getString();
+        skipJsonValue(parser, event);
+        return null;
+    }
+
+    /**
+     * Reads the next JSON value, skips it if it's not an object. Only string
+     * members are kept.
+     * @return map of string members or null
+     */
+    protected static Map<String, String> readJsonStringMap(JsonParser parser) {
+        JsonParser.Event event = parser.next();
+        if (event != JsonParser.Event.START_OBJECT) {
+            skipJsonValue(parser, event);
             return null;
-        return (JsonArray)v;
+        }
+        Map<String, String> map = new HashMap<>();
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            String val = readJsonString(parser);
+            if (val != null)
+                map.put(key, val);
+        }
+        return map;
     }
 
-    protected static String retrieveJsonString(JsonObject obj, String key) {
-        JsonValue v = obj.get(key);
-        if (v == null)
+    /**
+     * Reads the next JSON value as an array of [lon, lat] coordinates.
+     * Coordinates are collected in a primitive buffer, LatLons are created
+     * only once per node.
+     * @param round round coordinates to OSM precision
+     * @return list of coordinates or null if the value isn't an array
+     */
+    protected static List<LatLon> readJsonCoordinates(JsonParser parser, boolean round) {
+        JsonParser.Event event = parser.next();
+        if (event != JsonParser.Event.START_ARRAY) {
+            skipJsonValue(parser, event);
             return null;
-        if (v.getValueType() != JsonValue.ValueType.STRING)
+        }
+        return readJsonCoordinatesTail(parser, round);
+    }
+
+    private static List<LatLon> readJsonCoordinatesTail(JsonParser parser, boolean round) {
+        double[] buf = new double[64];
+        int n = 0;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event != JsonParser.Event.START_ARRAY)
+                throw new JsonException("Coordinate pair expected");
+            if (n + 2 > buf.length)
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            int i = 0;
+            while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                if (event != JsonParser.Event.VALUE_NUMBER)
+                    throw new JsonException("Coordinate number expected");
+                // getString avoids BigDecimal conversion of every coordinate
+                if (i < 2)
+                    buf[n + i] = Double.parseDouble(parser.getString());
+                i++;
+            }
+            if (i < 2)
+                throw new JsonException("Incomplete coordinate pair");
+            n += 2;
+        }
+
+        List<LatLon> list = new ArrayList<>(n / 2);
+        for (int i = 0; i < n; i += 2) {
+            double lon = buf[i];
+            double lat = buf[i + 1];
+            if (round)
+                list.add(new LatLon(LatLon.roundToOsmPrecision(lat), LatLon.roundToOsmPrecision(lon)));
+            else
+                list.add(new LatLon(lat, lon));
+        }
+        return list;
+    }
+
+    /**
+     * Reads the next JSON value as an array of coordinate arrays.
+     * @return list of polygons or null if the value isn't an array
+     */
+    protected static List<List<LatLon>> readJsonPolygons(JsonParser parser, boolean round) {
+        JsonParser.Event event = parser.next();
+        if (event != JsonParser.Event.START_ARRAY) {
+            skipJsonValue(parser, event);
             return null;
-        return ((JsonString)v).getString();
+        }
+        List<List<LatLon>> list = new ArrayList<>();
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event != JsonParser.Event.START_ARRAY)
+                throw new JsonException("Coordinates array expected");
+            list.add(readJsonCoordinatesTail(parser, round));
+        }
+        return list;
     }
 
     public abstract Map<String, String> getKeys(boolean alt);
@@ -336,7 +428,53 @@ public abstract class TracerRecord implements IQuadCacheObject {
         return true;
     }
 
-    private boolean polygonContainsPoint(List<LatLon> way, LatLon latlon) {
+    /**
+     * Returns a point inside the traced geometry. It's used as the trace position
+     * of records downloaded in bulk, which have no clicked position.
+     * @return point inside the geometry, null if no such point was found
+     */
+    public LatLon getInteriorPoint () {
+        BBox bbox = this.getBBox();
+        double lat1 = bbox.getBottomRightLat();
+        double lat2 = bbox.getTopLeftLat();
+
+        // scan lines at 1/2, 1/4, 3/4, 1/8, ... of bbox height, try the middle
+        // of the widest inside interval first
+        for (int div = 2; div <= 16; div *= 2) {
+            for (int i = 1; i < div; i += 2) {
+                double lat = lat1 + (lat2 - lat1) * i / div;
+                List<Double> xs = scanLineCrossings (this.getOuter(), lat);
+                while (xs.size() >= 2) {
+                    int widest = 0;
+                    for (int j = 2; j + 1 < xs.size(); j += 2) {
+                        if (xs.get(j + 1) - xs.get(j) > xs.get(widest + 1) - xs.get(widest))
+                            widest = j;
+                    }
+                    LatLon ll = new LatLon (lat, (xs.get(widest) + xs.get(widest + 1)) / 2);
+                    if (this.containsPoint(ll))
+                        return ll;
+                    xs.remove(widest + 1);
+                    xs.remove(widest);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Double> scanLineCrossings (List<LatLon> way, double lat) {
+        List<Double> xs = new ArrayList<>();
+        for (int i = 1; i < way.size(); i++) {
+            LatLon p0 = way.get(i - 1);
+            LatLon p1 = way.get(i);
+            if ((p0.lat() < lat) == (p1.lat() < lat))
+                continue;
+            xs.add(p0.lon() + (lat - p0.lat()) * (p1.lon() - p0.lon()) / (p1.lat() - p0.lat()));
+        }
+        Collections.sort(xs);
+        return xs;
+    }
+
+    static boolean polygonContainsPoint(List<LatLon> way, LatLon latlon) {
         // (stolen from JOSM's Geometry, nodeInsidePolygon)
 
         if (way.size() < 2)
@@ -382,7 +520,7 @@ public abstract class TracerRecord implements IQuadCacheObject {
         return inside;
     }
 
-    private EastNorth getEastNorth (LatLon latlon) {
+    private static EastNorth getEastNorth (LatLon latlon) {
         return Projections.project(latlon);
     }
 }
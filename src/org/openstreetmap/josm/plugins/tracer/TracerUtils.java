@@ -21,11 +21,21 @@ package org.openstreetmap.josm.plugins.tracer;
 
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.JOptionPane;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.util.GuiHelper;
@@ -89,6 +99,17 @@ public abstract class TracerUtils {
 
     private final static int defaultStreamTimeout = 10000;
 
+    // replaces live server connections if set (headless replay)
+    private static volatile IUrlStreamProvider m_urlStreamProvider = null;
+
+    /**
+     * Installs source of server replies, null restores live server connections.
+     * @param provider reply source
+     */
+    public static void setUrlStreamProvider (IUrlStreamProvider provider) {
+        m_urlStreamProvider = provider;
+    }
+
     public static BufferedReader openUrlStream (String url, int timeout) throws IOException {
         return openUrlStream (url, timeout, null);
     }
@@ -102,7 +123,23 @@ public abstract class TracerUtils {
     }
 
     public static BufferedReader openUrlStream (String url, int timeout, String charset) throws MalformedURLException, IOException {
+        CancellationToken token = CancellationToken.current();
+        if (token != null)
+            token.checkCancelled();
+        IUrlStreamProvider provider = m_urlStreamProvider;
+        if (provider != null)
+            return provider.openUrlStream(url, timeout, charset);
+        return openLiveUrlStream(url, timeout, charset);
+    }
+
+    /**
+     * Opens connection to the live server, bypassing installed {@link IUrlStreamProvider}.
+     * The connection is closed when the current {@link CancellationToken} is cancelled.
+     */
+    public static BufferedReader openLiveUrlStream (String url, int timeout, String charset) throws MalformedURLException, IOException {
+        final CancellationToken token = CancellationToken.current();
         URLConnection conn = null;
+        Closeable closer = null;
         boolean succeeded = false;
         try {
              conn = new URL(url).openConnection();
@@ -111,13 +148,44 @@ public abstract class TracerUtils {
              conn.setConnectTimeout(timeout);
              conn.setReadTimeout(timeout);
 
+             // disconnecting aborts blocked reads of the connection
+             if (token != null && conn instanceof HttpURLConnection) {
+                 final HttpURLConnection http = (HttpURLConnection)conn;
+                 closer = new Closeable() {
+                     @Override
+                     public void close() {
+                         http.disconnect();
+                     }
+                 };
+                 token.register(closer);
+             }
+
+             InputStream in = conn.getInputStream();
+             if (token != null)
+                 in = new CancellableInputStream(in, token);
              InputStreamReader isr = charset != null ?
-                     new InputStreamReader(conn.getInputStream(), charset) : new InputStreamReader(conn.getInputStream());
-             BufferedReader reader = new BufferedReader(isr);
+                     new InputStreamReader(in, charset) : new InputStreamReader(in);
+             final Closeable reader_closer = closer;
+             BufferedReader reader = new BufferedReader(isr) {
+                 @Override
+                 public void close() throws IOException {
+                     if (reader_closer != null)
+                         token.unregister(reader_closer);
+                     super.close();
+                 }
+             };
              succeeded = true;
              return reader;
         }
+        catch (IOException e) {
+            // report connections aborted by cancellation as such
+            if (token != null && token.isCancelled() && !(e instanceof CancelledIOException))
+                throw new CancelledIOException();
+            throw e;
+        }
         finally {
+            if (!succeeded && closer != null)
+                token.unregister(closer);
             if (!succeeded && conn != null) {
                 try {
                     conn.getInputStream().close();
@@ -127,4 +195,88 @@ public abstract class TracerUtils {
             }
         }
     }
+
+    /**
+     * Reports reads failed because of a cancelled token (the connection is
+     * disconnected, reads fail with a SocketException) as CancelledIOException.
+     */
+    private static final class CancellableInputStream extends FilterInputStream {
+        private final CancellationToken m_token;
+
+        CancellableInputStream (InputStream in, CancellationToken token) {
+            super (in);
+            m_token = token;
+        }
+
+        private IOException translate (IOException e) {
+            if (m_token.isCancelled() && !(e instanceof CancelledIOException))
+                return new CancelledIOException();
+            return e;
+        }
+
+        @Override
+        public int read () throws IOException {
+            try {
+                return super.read();
+            }
+            catch (IOException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            }
+            catch (IOException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public long skip (long n) throws IOException {
+            try {
+                return super.skip(n);
+            }
+            catch (IOException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public int available () throws IOException {
+            try {
+                return super.available();
+            }
+            catch (IOException e) {
+                throw translate(e);
+            }
+        }
+    }
+
+    /**
+     * Creates executor with up to the given number of daemon threads. Threads
+     * are started on demand and terminate after being idle for idle_seconds,
+     * so an unused executor doesn't hold any threads.
+     * @param name thread name prefix
+     * @param threads maximum number of threads
+     * @param idle_seconds idle time after which a thread terminates
+     * @return executor
+     */
+    public static ExecutorService newIdleExecutor (final String name, int threads, long idle_seconds) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, idle_seconds, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger m_counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name + "-" + m_counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
  }
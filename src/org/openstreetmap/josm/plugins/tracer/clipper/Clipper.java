@@ -40,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.List;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 
 enum JoinType { jtSquare, jtRound, jtMiter };
 enum EndType { etClosedPolygon, etClosedLine, etOpenButt, etOpenSquare, etOpenRound };
@@ -2490,7 +2491,8 @@ public class Clipper extends ClipperBase {
         {
           ip.Y = edge1.iCurr.Y;
           ip.X = topX(edge1, ip.Y);
-          System.out.println("IntersectionPoint(1): " + Long.toString(ip.X) + ", " + Long.toString(ip.Y));
+          if (TracerLog.isTrace())
+            TracerLog.trace("IntersectionPoint(1): " + Long.toString(ip.X) + ", " + Long.toString(ip.Y));
           return ip;
         }
 
@@ -2554,7 +2556,8 @@ public class Clipper extends ClipperBase {
             ip.X = topX(edge1, ip.Y);
         }
 
-        System.out.println("IntersectionPoint(2): " + Long.toString(ip.X) + ", " + Long.toString(ip.Y));
+        if (TracerLog.isTrace())
+          TracerLog.trace("IntersectionPoint(2): " + Long.toString(ip.X) + ", " + Long.toString(ip.Y));
         return ip;
       }
 
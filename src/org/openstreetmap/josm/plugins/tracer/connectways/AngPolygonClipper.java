@@ -26,10 +26,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.clipper.ClipType;
 import org.openstreetmap.josm.plugins.tracer.clipper.Clipper;
 import org.openstreetmap.josm.plugins.tracer.clipper.ClipperException;
@@ -53,6 +56,10 @@ public class AngPolygonClipper {
     private List<List<EdNode>> m_outers;
     private List<List<EdNode>> m_inners;
 
+    private final double m_fixedPointScale;
+
+    // exact clipper point lookup, LatLon lookup is built only for new vertices
+    private PointNodeMap m_pointsMap;
     private Map<LatLon, EdNode> m_nodesMap;
 
     public AngPolygonClipper (WayEditor editor, GeomDeviation tolerance, double discard_cutoffs_percent) {
@@ -63,9 +70,11 @@ public class AngPolygonClipper {
 
         m_DiscardCutoffsPercent = discard_cutoffs_percent;
         m_DiscardedPercent = 0.0;
+        m_fixedPointScale = fixedPointScale();
 
         m_outers = null;
         m_inners = null;
+        m_pointsMap = null;
         m_nodesMap = null;
         m_subjectNodes = null;
     }
@@ -92,7 +101,8 @@ public class AngPolygonClipper {
         // initialize collections
         m_outers = new ArrayList<>();
         m_inners = new ArrayList<>();
-        m_nodesMap = new HashMap<>();
+        m_pointsMap = new PointNodeMap(256);
+        m_nodesMap = null;
         m_subjectNodes = new HashSet<>();
 
         m_DiscardedPercent = 0.0;
@@ -119,12 +129,14 @@ public class AngPolygonClipper {
         }
         catch (ClipperException e) {
             e.printStackTrace();
+            m_pointsMap = null;
             m_nodesMap = null;
             m_outers = null;
             m_inners = null;
             throw new AssertionError("AngPolygonClipper.polygonDifference failed, ClipperException", e);
         }
 
+        m_pointsMap = null;
         m_nodesMap = null;
         m_outers = Collections.unmodifiableList(m_outers);
         m_inners = Collections.unmodifiableList(m_inners);
@@ -134,7 +146,7 @@ public class AngPolygonClipper {
         if (m_subjectNodes == null || m_outers == null || m_inners == null)
             throw new IllegalStateException();
 
-        List<Bounds> bounds = m_editor.getDataSet().getDataSourceBounds();
+        List<Bounds> bounds = m_editor.getDataSourceBounds();
         Set<EdNode> cur_nodes = new HashSet<>();
 
         // Test new nodes not occurring in subject nodes
@@ -142,7 +154,8 @@ public class AngPolygonClipper {
             for (EdNode n: list) {
                 if (!m_subjectNodes.contains(n))
                     if (!n.isInsideBounds(bounds, LatLonSize.Zero)) {
-                        System.out.println("Clip adds new outer node outside downloaded area: " + Long.toString(n.getUniqueId()) + ", " + n.getCoor().toDisplayString());
+                        if (TracerLog.isDebug())
+                            TracerLog.debug("Clip adds new outer node outside downloaded area: " + Long.toString(n.getUniqueId()) + ", " + n.getCoor().toDisplayString());
                         return true;
                     }
                 cur_nodes.add(n);
@@ -152,7 +165,8 @@ public class AngPolygonClipper {
             for (EdNode n: list) {
                 if (!m_subjectNodes.contains(n))
                     if (!n.isInsideBounds(bounds, LatLonSize.Zero)) {
-                        System.out.println("Clip adds new inner node outside downloaded area: " + Long.toString(n.getUniqueId()) + ", " + n.getCoor().toDisplayString());
+                        if (TracerLog.isDebug())
+                            TracerLog.debug("Clip adds new inner node outside downloaded area: " + Long.toString(n.getUniqueId()) + ", " + n.getCoor().toDisplayString());
                         return true;
                     }
                 cur_nodes.add(n);
@@ -163,7 +177,8 @@ public class AngPolygonClipper {
         for (EdNode node: m_subjectNodes) {
             if (!cur_nodes.contains(node))
                 if (!node.isInsideBounds(bounds, LatLonSize.Zero)) {
-                    System.out.println("Clip removes node outside downloaded area: " + Long.toString(node.getUniqueId()) + ", " + node.getCoor().toDisplayString());
+                    if (TracerLog.isDebug())
+                        TracerLog.debug("Clip removes node outside downloaded area: " + Long.toString(node.getUniqueId()) + ", " + node.getCoor().toDisplayString());
                     return true;
                 }
         }
@@ -206,12 +221,14 @@ public class AngPolygonClipper {
         double area = getEastNorthArea(outers, inners);
         double percent = (area/subj_area) * 100.0;
         if (percent >= 0.0 && percent < m_DiscardCutoffsPercent) {
-            System.out.println("Discarding cutoff area, percent=" + Double.toString(percent));
+            if (TracerLog.isDebug())
+                TracerLog.debug("Discarding cutoff area, percent=" + Double.toString(percent));
             m_DiscardedPercent += percent;
             return;
         }
         else {
-            System.out.println("Cutoff out of limit, percent=" + Double.toString(percent));
+            if (TracerLog.isDebug())
+                TracerLog.debug("Cutoff out of limit, percent=" + Double.toString(percent));
         }
 
         aouters.addAll(outers);
@@ -283,7 +300,8 @@ public class AngPolygonClipper {
                 int i1 = (i + 1) % list.size();
                 int i2 = (i + 2) % list.size();
                 if (GeomUtils.duplicateNodes(list.get(i).getCoor(), list.get(i2).getCoor(), m_duplicateNodesPrecision)) {
-                    System.out.println(" x d: tail " + Long.toString(list.get(i).getUniqueId()));
+                    if (TracerLog.isDebug())
+                        TracerLog.debug(" x d: tail " + Long.toString(list.get(i).getUniqueId()));
                     list.remove(i1);
                     list.remove(i2 > i1 ? i1 : 0);
                     i = i >= 3 ? i - 3 : 0;
@@ -324,37 +342,64 @@ public class AngPolygonClipper {
         return p;
     }
 
-    // #### improve! the scale must be derived from EastNorth precision, which depends on
-    // present JOSM projection! Or try to rewrite clipper to floating point...
-    private final static double fixedPointScale = 10000000000.0;
+    // fixed point resolution in meters, 1e-10 m matches the former fixed scale
+    // in metric projections
+    private final static double fixedPointResolutionMeters = 1e-10;
+
+    /**
+     * Returns fixed point scale of the current projection, so that clipper
+     * resolution is the same in all projections. Any projected coordinate
+     * (at most tens of thousands of kilometers) fits into the clipper range.
+     */
+    private static double fixedPointScale() {
+        Projection proj = Main.getProjection();
+        double meters_per_unit = proj != null ? proj.getMetersPerUnit() : 1.0;
+        if (!(meters_per_unit > 0.0) || Double.isInfinite(meters_per_unit))
+            meters_per_unit = 1.0;
+        return meters_per_unit / fixedPointResolutionMeters;
+    }
 
     private Point2d nodeToPoint2d(EdNode node) {
-        EastNorth en = node.getEastNorth();
-        long x = (long)(en.getX() * fixedPointScale);
-        long y = (long)(en.getY() * fixedPointScale);
-        Point2d pt = new Point2d(x, y);
-        m_nodesMap.put(node.getCoor().getRoundedToOsmPrecision(), node);
-        return pt;
+        long x = (long)(node.east() * m_fixedPointScale);
+        long y = (long)(node.north() * m_fixedPointScale);
+        m_pointsMap.put(x, y, node);
+        return new Point2d(x, y);
     }
 
     private EdNode point2dToNode(Point2d pt) {
-        // perform inverse projection to LatLon
-        double x = ((double)pt.X) / fixedPointScale;
-        double y = ((double)pt.Y) / fixedPointScale;
+        // unchanged vertices are found without inverse projection
+        EdNode node = m_pointsMap.get(pt.X, pt.Y);
+        if (node != null)
+            return node;
+
+        // new vertex, perform inverse projection to LatLon
+        double x = ((double)pt.X) / m_fixedPointScale;
+        double y = ((double)pt.Y) / m_fixedPointScale;
         EastNorth en = new EastNorth (x,y);
         LatLon ll = Projections.inverseProject(en);
 
         // lookup in LatLon map
-        EdNode node = m_nodesMap.get(ll.getRoundedToOsmPrecision());
-        if (node != null)
-            return node;
-
-        // create new node
-        node = m_editor.newNode(ll);
-        m_nodesMap.put(ll, node);
+        if (m_nodesMap == null)
+            buildNodesMap();
+        node = m_nodesMap.get(ll.getRoundedToOsmPrecision());
+        if (node == null) {
+            // create new node
+            node = m_editor.newNode(ll);
+            m_nodesMap.put(ll, node);
+        }
+        m_pointsMap.put(pt.X, pt.Y, node);
         return node;
     }
 
+    private void buildNodesMap() {
+        m_nodesMap = new HashMap<>();
+        for (int i = 0; i < m_pointsMap.capacity(); i++) {
+            EdNode node = m_pointsMap.slot(i);
+            if (node != null)
+                m_nodesMap.put(node.getCoor().getRoundedToOsmPrecision(), node);
+        }
+    }
+
     private Paths edObjectToPaths(EdObject obj, boolean issubj) {
         if (obj.isWay()) {
             Path p = wayToPath((EdWay)obj, issubj);
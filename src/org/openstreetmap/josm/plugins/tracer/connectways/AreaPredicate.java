@@ -19,16 +19,27 @@
 
 package org.openstreetmap.josm.plugins.tracer.connectways;
 
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 
+/**
+ * Matches closed ways and multipolygons (including their boundary ways).
+ *
+ * Results are memoized. Results for edited objects are kept in the owning
+ * WayEditor and invalidated on tag and membership changes. Results for
+ * DataSet primitives are kept in the EditorSession if enabled, otherwise
+ * for the lifetime of the predicate, which must not outlive a single trace.
+ */
 public class AreaPredicate implements IEdAreaPredicate {
 
     private final Match m_filter;
+    private final Map<OsmPrimitive, Boolean> m_primitiveCache = new IdentityHashMap<>();
 
     public AreaPredicate (Match filter) {
         m_filter = filter;
@@ -36,6 +47,67 @@ public class AreaPredicate implements IEdAreaPredicate {
 
     @Override
     public boolean evaluate(EdWay way) {
+        Map<EdObject, Boolean> cache = way.getEditor().areaPredicateCache(m_filter);
+        Boolean result = cache.get(way);
+        if (result == null) {
+            result = evaluateImpl(way);
+            cache.put(way, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean evaluate(Way way) {
+        EditorSession session = EditorSession.get(way.getDataSet());
+        if (session != null) {
+            Boolean result = session.getAreaResult(m_filter, way);
+            if (result == null) {
+                result = evaluateImpl(way);
+                session.putAreaResult(m_filter, way, result);
+            }
+            return result;
+        }
+
+        Boolean result = m_primitiveCache.get(way);
+        if (result == null) {
+            result = evaluateImpl(way);
+            m_primitiveCache.put(way, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean evaluate(EdMultipolygon mp) {
+        Map<EdObject, Boolean> cache = mp.getEditor().areaPredicateCache(m_filter);
+        Boolean result = cache.get(mp);
+        if (result == null) {
+            result = evaluateImpl(mp);
+            cache.put(mp, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean evaluate(Relation mp) {
+        EditorSession session = EditorSession.get(mp.getDataSet());
+        if (session != null) {
+            Boolean result = session.getAreaResult(m_filter, mp);
+            if (result == null) {
+                result = evaluateImpl(mp);
+                session.putAreaResult(m_filter, mp, result);
+            }
+            return result;
+        }
+
+        Boolean result = m_primitiveCache.get(mp);
+        if (result == null) {
+            result = evaluateImpl(mp);
+            m_primitiveCache.put(mp, result);
+        }
+        return result;
+    }
+
+    private boolean evaluateImpl(EdWay way) {
 
         // closed matching way
         if (way.isClosed() && way.matches(m_filter))
@@ -58,8 +130,7 @@ public class AreaPredicate implements IEdAreaPredicate {
         return false;
     }
 
-    @Override
-    public boolean evaluate(Way way) {
+    private boolean evaluateImpl(Way way) {
 
         // closed matching way
         if (way.isClosed() && m_filter.match(way))
@@ -75,8 +146,7 @@ public class AreaPredicate implements IEdAreaPredicate {
         return false;
     }
 
-    @Override
-    public boolean evaluate(EdMultipolygon mp) {
+    private boolean evaluateImpl(EdMultipolygon mp) {
 
         // new-style multipolygon, ignore way tags
         if (mp.matches(m_filter))
@@ -98,8 +168,7 @@ public class AreaPredicate implements IEdAreaPredicate {
         return matching_ways > 0;
     }
 
-    @Override
-    public boolean evaluate(Relation mp) {
+    private boolean evaluateImpl(Relation mp) {
 
         if (!MultipolygonMatch.match(mp))
             return false;
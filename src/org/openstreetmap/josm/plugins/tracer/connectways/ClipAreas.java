@@ -22,13 +22,12 @@ package org.openstreetmap.josm.plugins.tracer.connectways;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import org.openstreetmap.josm.plugins.tracer.PostTraceNotifications;
 import static org.openstreetmap.josm.tools.I18n.tr;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.tools.Pair;
 
 public class ClipAreas {
@@ -45,6 +44,7 @@ public class ClipAreas {
 
     public void clipAreas(EdWay clip_way, AreaPredicate filter) {
 
+        long start_time = TracerLog.start();
         Set<EdObject> areas = m_editor.useAllAreasInBBox(clip_way.getBBox(), filter);
         for (EdObject obj : areas) {
             if (obj.isMultipolygon()) {
@@ -64,6 +64,7 @@ public class ClipAreas {
                 clipSimpleSimple(clip_way, subject_way);
             }
         }
+        TracerLog.stop("connectways.clipAreas", start_time);
     }
 
     private boolean canSilentlyDiscard(EdWay way, double cutoffs_percent) {
@@ -82,7 +83,16 @@ public class ClipAreas {
         // where nodes must be added too.
         subject_way.connectNonIncludedTouchingNodes(m_settings.connectSubjectToClipTolerance(), clip_way);
 
-        System.out.println("Computing difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_way=" + Long.toString(subject_way.getUniqueId()));
+        // Neighbouring areas often only touch the clip way, don't run Clipper for them.
+        if (!PolygonOverlap.interiorsMayOverlap(clip_way, subject_way)) {
+            if (TracerLog.isDebug())
+                TracerLog.debug("Skipping difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_way=" + Long.toString(subject_way.getUniqueId()) + " don't overlap");
+            TracerLog.count("clipAreas.skipped");
+            return;
+        }
+
+        if (TracerLog.isDebug())
+            TracerLog.debug("Computing difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_way=" + Long.toString(subject_way.getUniqueId()));
 
         AngPolygonClipper clipper = new AngPolygonClipper(m_editor, m_settings.clipperWayCleanupsTolerance(), m_settings.discardCutoffsPercent());
         clipper.polygonDifference(clip_way, subject_way);
@@ -94,7 +104,8 @@ public class ClipAreas {
         List<List<EdNode>> outers = clipper.outerPolygons();
         List<List<EdNode>> inners = clipper.innerPolygons();
 
-        System.out.println("- result: outers=" + Long.toString(outers.size()) + ", inners=" + Long.toString(inners.size()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("- result: outers=" + Long.toString(outers.size()) + ", inners=" + Long.toString(inners.size()));
 
         if (outers.isEmpty() && inners.isEmpty()) {
             if (canSilentlyDiscard(subject_way, clipper.discardedPercent())) {
@@ -132,7 +143,15 @@ public class ClipAreas {
             way.connectNonIncludedTouchingNodes(m_settings.connectSubjectToClipTolerance(), clip_way);
         }
 
-        System.out.println("Computing difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_relation=" + Long.toString(subject_mp.getUniqueId()));
+        if (!overlapsOuterWays(clip_way, subject_mp)) {
+            if (TracerLog.isDebug())
+                TracerLog.debug("Skipping difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_relation=" + Long.toString(subject_mp.getUniqueId()) + " don't overlap");
+            TracerLog.count("clipAreas.skipped");
+            return;
+        }
+
+        if (TracerLog.isDebug())
+            TracerLog.debug("Computing difference: clip_way=" + Long.toString(clip_way.getUniqueId()) + ", subject_relation=" + Long.toString(subject_mp.getUniqueId()));
 
         AngPolygonClipper clipper = new AngPolygonClipper(m_editor, m_settings.clipperWayCleanupsTolerance(), m_settings.discardCutoffsPercent());
         clipper.polygonDifference(clip_way, subject_mp);
@@ -144,7 +163,8 @@ public class ClipAreas {
         List<List<EdNode>> unmapped_new_outers = new ArrayList<>(clipper.outerPolygons());
         List<List<EdNode>> unmapped_new_inners = new ArrayList<>(clipper.innerPolygons());
 
-        System.out.println("- result: outers=" + Long.toString(unmapped_new_outers.size()) + ", inners=" + Long.toString(unmapped_new_inners.size()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("- result: outers=" + Long.toString(unmapped_new_outers.size()) + ", inners=" + Long.toString(unmapped_new_inners.size()));
 
         // Whole multipolygon disappeared
         if (unmapped_new_outers.isEmpty() && unmapped_new_inners.isEmpty()) {
@@ -161,12 +181,14 @@ public class ClipAreas {
 
         // All new ways were successfully mapped to old ways?
         if (unmapped_old_outers.isEmpty() && unmapped_old_inners.isEmpty() && unmapped_new_outers.isEmpty() && unmapped_new_inners.isEmpty()) {
-            System.out.println(" o subject unchanged");
+            TracerLog.debug(" o subject unchanged");
             return;
         }
 
-        System.out.println("- unmapped_outers: old=" + Long.toString(unmapped_old_outers.size()) + ", new=" + Long.toString(unmapped_new_outers.size()));
-        System.out.println("- unmapped_inners: old=" + Long.toString(unmapped_old_inners.size()) + ", new=" + Long.toString(unmapped_new_inners.size()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("- unmapped_outers: old=" + Long.toString(unmapped_old_outers.size()) + ", new=" + Long.toString(unmapped_new_outers.size()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("- unmapped_inners: old=" + Long.toString(unmapped_old_inners.size()) + ", new=" + Long.toString(unmapped_new_inners.size()));
 
         // Handle the easiest and most common case, only one outer way of a multipolygon was clipped
         // (Maybe, I should test that the old and new outer ways have non-empty intersection. Otherwise,
@@ -211,13 +233,28 @@ public class ClipAreas {
         return true;
     }
 
+    private static boolean overlapsOuterWays(EdWay clip_way, EdMultipolygon subject_mp) {
+        for (EdWay way : subject_mp.outerWays()) {
+            if (PolygonOverlap.interiorsMayOverlap(clip_way, way))
+                return true;
+        }
+        return false;
+    }
+
     private static void mapIdenticalWays(List<EdWay> unmapped_old, List<List<EdNode>> unmapped_new) {
+        List<Long> new_fingerprints = new ArrayList<>(unmapped_new.size());
+        for (List<EdNode> way: unmapped_new)
+            new_fingerprints.add(EdWay.geometryFingerprint(way));
+
         int iold = 0;
         while (iold < unmapped_old.size()) {
             EdWay old_way = unmapped_old.get(iold);
+            long old_fingerprint = old_way.getGeometryFingerprint();
             List<EdNode> new_way = null;
             int inew = 0;
             for (; inew < unmapped_new.size(); inew++) {
+                if (new_fingerprints.get(inew) != old_fingerprint)
+                    continue;
                 List<EdNode> test_way = unmapped_new.get(inew);
                 if (old_way.hasIdenticalEdNodeGeometry(test_way, true)) {
                     new_way = test_way;
@@ -229,6 +266,7 @@ public class ClipAreas {
                 //mapped_new_old.put(new_way, old_way);
                 unmapped_old.remove(iold);
                 unmapped_new.remove(inew);
+                new_fingerprints.remove(inew);
             }
             else {
                 iold++;
@@ -236,26 +274,6 @@ public class ClipAreas {
         }
     }
 
-    class SimilarWaysPair implements Comparable<SimilarWaysPair> {
-        public final EdWay src;
-        public final List<EdNode> dst;
-        public final double similarity;
-
-        public SimilarWaysPair(EdWay s, List<EdNode> d, double sim) {
-            src = s;
-            dst = d;
-            similarity = sim;
-        }
-
-        @Override
-        public int compareTo(SimilarWaysPair t) {
-            int x = -Double.compare(this.similarity, t.similarity);
-            if (x != 0)
-                return x;
-            return -Integer.compare(this.src.getNodesCount(), t.src.getNodesCount());
-        }
-    }
-
     /**
      * For every source EdWay, it tries to find the most similar dest way;
      * for every dest way, it tries to find the most similar source EdWay.
@@ -269,54 +287,25 @@ public class ClipAreas {
      * dest ways, second element is a map of dest ways to most similar source EdWay
      */
     private Pair<Map<EdWay, List<EdNode>>, Map<List<EdNode>, EdWay>> pairSimilarWays (List<EdWay> srcs, List<List<EdNode>> dsts) {
-        // Create Cartesian product of ways and sort pairs according to their similarity
         // (For simplicity, we estimate similarity from percentage of shared nodes.
-        // It would be better to base the similarity on areas of polygon intersections.)
-        PriorityQueue<SimilarWaysPair> queue = new PriorityQueue<>();
-        for(EdWay w: srcs) {
-            for (List<EdNode> nw: dsts) {
-                int shared_nodes = w.getSharedNodesCount(nw);
-                if (shared_nodes > 0) {
-                    double similarity = (double)shared_nodes / w.getNodesCount();
-                    queue.add(new SimilarWaysPair(w, nw, similarity));
-                }
-            }
-        }
-
-        // Map ways...
-        Map<EdWay, List<EdNode>> res1 = new HashMap<>();
-        Map<List<EdNode>, EdWay> res2 = new HashMap<>();
-        Set<List<EdNode>> res1used = new HashSet<>();
-        SimilarWaysPair swp;
-        while ((swp = queue.poll()) != null) {
-
-            // forward mapping
-            if (!res1.containsKey(swp.src) && !res1used.contains(swp.dst)) {
-                res1.put(swp.src, swp.dst);
-                res1used.add(swp.dst);
-            }
-
-            // reverse mapping
-            if (!res2.containsKey(swp.dst)) {
-                res2.put(swp.dst, swp.src);
-            }
-        }
-
-        return new Pair<>(res1, res2);
+        // WayPairing can base the similarity on areas of polygon intersections, too.)
+        WayPairing pairing = new WayPairing(srcs, dsts, WayPairing.Similarity.sharedNodes);
+        return new Pair<>(pairing.forwardMap(), pairing.reverseMap());
     }
 
     private void handleSimpleSimpleSimple(EdWay clip_way, EdWay subject_way, List<EdNode> result) {
         // ** Easiest case - simple way clipped by a simple way produced a single polygon **
 
-        System.out.println("Clip result: simple");
+        TracerLog.debug("Clip result: simple");
 
         // Subject way unchanged?
         if (subject_way.hasIdenticalEdNodeGeometry(result, true)) {
-            System.out.println(" o subject unchanged");
+            TracerLog.debug(" o subject unchanged");
             return;
         }
 
-        System.out.println(" ! CLIPPING subject " + Long.toString(subject_way.getUniqueId()));
+        if (TracerLog.isDebug())
+            TracerLog.debug(" ! CLIPPING subject " + Long.toString(subject_way.getUniqueId()));
 
         // Subject way changed, change its geometry
         subject_way.setNodes(result);
@@ -329,7 +318,8 @@ public class ClipAreas {
     private void handleSimpleMultiOneOuterModified (EdWay clip_way, EdMultipolygon subject_mp, EdWay old_outer_way, List<EdNode> result) {
         // ** Easy case - clip of a multipolygon modified exactly one outer way and nothing else **
 
-        System.out.println(" ! CLIPPING subject " + Long.toString(subject_mp.getUniqueId()) + ", outer way modified: " + Long.toString(old_outer_way.getUniqueId()));
+        if (TracerLog.isDebug())
+            TracerLog.debug(" ! CLIPPING subject " + Long.toString(subject_mp.getUniqueId()) + ", outer way modified: " + Long.toString(old_outer_way.getUniqueId()));
 
         // Change geometry of the changed outer way
         old_outer_way.setNodes(result);
@@ -343,11 +333,11 @@ public class ClipAreas {
         // ** Simple way clipped by a simple way produced multiple polygons **
 
         if (inners.isEmpty()) {
-            System.out.println("Clip result: multi outers");
+            TracerLog.debug("Clip result: multi outers");
             handleSimpleSimpleMultiOuters(clip_way, subject_way, outers);
         }
         else {
-            System.out.println("Clip result: multi mixed");
+            TracerLog.debug("Clip result: multi mixed");
             // #### not completed
             addPostTraceNotification(tr("Clipping changes simple way {0} to multipolygon, not supported yet.", subject_way.getUniqueId()));
         }
@@ -363,7 +353,8 @@ public class ClipAreas {
             return;
         }
 
-        System.out.println(" ! CLIPPING subject " + Long.toString(subject_way.getUniqueId()) + " to multiple simple ways");
+        if (TracerLog.isDebug())
+            TracerLog.debug(" ! CLIPPING subject " + Long.toString(subject_way.getUniqueId()) + " to multiple simple ways");
 
         // #### Generally, it's better to create multiple simple ways than combine them to a new multipolygon.
         // But in some cases, maybe it would make sense to create a multipolygon... E.g. named landuse areas??
@@ -409,7 +400,8 @@ public class ClipAreas {
                 clip_way.connectNonIncludedTouchingNodes(m_settings.reconnectIntersectionNodesTolerance(), old_way);
                 unmapped_old_outers.remove(old_way);
                 unmapped_new_outers.remove(new_nodes);
-                System.out.println("Changing outer geometry " + Long.toString(old_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Changing outer geometry " + Long.toString(old_way.getUniqueId()));
             }
 
             // Create new outer ways with tagging based on reverse similarity mapping
@@ -421,7 +413,8 @@ public class ClipAreas {
                     new_way.setKeys(old_way.getKeys());
                 clip_way.connectNonIncludedTouchingNodes(m_settings.reconnectIntersectionNodesTolerance(), new_way);
                 subject_mp.addOuterWay(new_way);
-                System.out.println("Adding outer way " + Long.toString(new_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Adding outer way " + Long.toString(new_way.getUniqueId()));
             }
 
             // Remove old outer ways that weren't mapped to new ways
@@ -429,7 +422,8 @@ public class ClipAreas {
             // and will be automatically deleted by WayEditor.)
             for (EdWay old_way: unmapped_old_outers) {
                 subject_mp.removeOuterWay(old_way);
-                System.out.println("Removing outer way " + Long.toString(old_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Removing outer way " + Long.toString(old_way.getUniqueId()));
             }
         }
 
@@ -446,7 +440,8 @@ public class ClipAreas {
                 clip_way.connectNonIncludedTouchingNodes(m_settings.reconnectIntersectionNodesTolerance(), old_way);
                 unmapped_old_inners.remove(old_way);
                 unmapped_new_inners.remove(new_nodes);
-                System.out.println("Changing inner geometry " + Long.toString(old_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Changing inner geometry " + Long.toString(old_way.getUniqueId()));
             }
 
             // Create new inner ways
@@ -458,7 +453,8 @@ public class ClipAreas {
                     new_way.setKeys(old_way.getKeys());
                 clip_way.connectNonIncludedTouchingNodes(m_settings.reconnectIntersectionNodesTolerance(), new_way);
                 subject_mp.addInnerWay(new_way);
-                System.out.println("Adding inner way " + Long.toString(new_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Adding inner way " + Long.toString(new_way.getUniqueId()));
             }
 
             // Remove old inner ways that weren't mapped to new ways
@@ -466,7 +462,8 @@ public class ClipAreas {
             // and will be automatically deleted by WayEditor.)
             for (EdWay old_way: unmapped_old_inners) {
                 subject_mp.removeInnerWay(old_way);
-                System.out.println("Removing inner way " + Long.toString(old_way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Removing inner way " + Long.toString(old_way.getUniqueId()));
             }
         }
     }
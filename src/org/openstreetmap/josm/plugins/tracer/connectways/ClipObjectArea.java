@@ -25,6 +25,7 @@ import java.util.Set;
 import org.openstreetmap.josm.data.coor.LatLon;
 import static org.openstreetmap.josm.gui.mappaint.mapcss.ExpressionFactory.Functions.tr;
 import org.openstreetmap.josm.plugins.tracer.PostTraceNotifications;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 public class ClipObjectArea {
@@ -88,7 +89,8 @@ public class ClipObjectArea {
 
     private EdObject clipSubject (EdObject clip, EdObject subject, LatLon anchor) {
 
-        System.out.println ("Clipping subject id=" + Long.toString (subject.getUniqueId()) + " by clip id=" + Long.toString (clip.getUniqueId()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("Clipping subject id=" + Long.toString (subject.getUniqueId()) + " by clip id=" + Long.toString (clip.getUniqueId()));
 
         AngPolygonClipper clipper = new AngPolygonClipper(m_editor, m_settings.clipperWayCleanupsTolerance(), m_settings.discardCutoffsPercent());
         clipper.polygonDifference(clip, subject);
@@ -102,7 +104,7 @@ public class ClipObjectArea {
 
         if (outers.isEmpty() && inners.isEmpty()) {
             // Never completely discard whole subject
-            System.out.println ("Subject would be removed...");
+            TracerLog.debug("Subject would be removed...");
             return subject;
         }
 
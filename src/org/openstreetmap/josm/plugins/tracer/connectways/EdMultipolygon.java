@@ -32,6 +32,7 @@ import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 
@@ -201,6 +202,12 @@ public class EdMultipolygon extends EdObject {
         return m_relation;
     }
 
+    @Override
+    protected void setModified() {
+        super.setModified();
+        getEditor().areaModified();
+    }
+
     @Override
     protected void updateModifiedFlag() {
         checkEditable();
@@ -301,7 +308,8 @@ public class EdMultipolygon extends EdObject {
             m_outerWays.set(i, dst);
             dst.addRef(this);
             setModified();
-            System.out.println("Replacing EdWay " + Long.toString(src.getUniqueId()) + " with " + Long.toString(dst.getUniqueId()) + " in relation " + Long.toString(this.getUniqueId()));
+            if (TracerLog.isDebug())
+                TracerLog.debug("Replacing EdWay " + Long.toString(src.getUniqueId()) + " with " + Long.toString(dst.getUniqueId()) + " in relation " + Long.toString(this.getUniqueId()));
             return true;
         }
 
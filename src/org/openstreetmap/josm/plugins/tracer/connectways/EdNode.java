@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
@@ -30,6 +31,7 @@ import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projection;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 
@@ -37,6 +39,11 @@ public class EdNode extends EdObject {
 
     private Node m_node;
 
+    // cached projected coordinates of m_node, valid for m_enProjection only
+    private double m_east;
+    private double m_north;
+    private Projection m_enProjection;
+
     EdNode (WayEditor editor, LatLon latlon) {
         super(editor, null);
         m_node = new Node(latlon);
@@ -59,6 +66,7 @@ public class EdNode extends EdObject {
         n.setKeys(m_node.getKeys());
         n.setCoor(m_node.getCoor());
         m_node = n;
+        invalidateEastNorth();
         setModified();
     }
 
@@ -107,6 +115,7 @@ public class EdNode extends EdObject {
         if (ll.equals(m_node.getCoor()))
                 return;
         m_node.setCoor(ll);
+        invalidateEastNorth();
         setModified();
     }
 
@@ -116,7 +125,40 @@ public class EdNode extends EdObject {
     }
 
     public EastNorth getEastNorth() {
-        return m_node.getEastNorth();
+        updateEastNorth();
+        return new EastNorth(m_east, m_north);
+    }
+
+    /**
+     * Returns cached projected east coordinate.
+     * @return east coordinate in current projection
+     */
+    double east() {
+        updateEastNorth();
+        return m_east;
+    }
+
+    /**
+     * Returns cached projected north coordinate.
+     * @return north coordinate in current projection
+     */
+    double north() {
+        updateEastNorth();
+        return m_north;
+    }
+
+    private void updateEastNorth() {
+        Projection proj = Main.getProjection();
+        if (m_enProjection == proj && m_enProjection != null)
+            return;
+        EastNorth en = m_node.getEastNorth();
+        m_east = en.getX();
+        m_north = en.getY();
+        m_enProjection = proj;
+    }
+
+    private void invalidateEastNorth() {
+        m_enProjection = null;
     }
 
     Node currentNodeUnsafe() {
@@ -86,6 +86,7 @@ public abstract class EdObject {
             throw new IllegalStateException("Cannot delete referenced EdObject");
         this.deleteContentsShallow();
         m_deleted = true;
+        m_editor.areaModified();
     }
 
     protected abstract void deleteContentsShallow();
@@ -379,7 +380,7 @@ public abstract class EdObject {
     }
 
     public final boolean isInsideDataSourceBounds(LatLonSize oversize) {
-        return isInsideBounds(m_editor.getDataSet().getDataSourceBounds(), oversize);
+        return isInsideBounds(m_editor.getDataSourceBounds(), oversize);
     }
 
     public abstract Set<EdNode> getAllNodes();
@@ -20,21 +20,24 @@
 package org.openstreetmap.josm.plugins.tracer.connectways;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 import static org.openstreetmap.josm.tools.I18n.tr;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.tools.Pair;
 
 
@@ -42,6 +45,10 @@ public class EdWay extends EdObject {
     private Way m_way;
     private List<EdNode> m_nodes;
 
+    // cached geometry fingerprint, see getGeometryFingerprint()
+    private long m_fingerprint;
+    private boolean m_fingerprintValid;
+
     // Note: m_way has the following properties:
     // (a) before finalization:
     // - if this.hasOriginal(), m_way is a clone of originalNode();
@@ -88,6 +95,7 @@ public class EdWay extends EdObject {
             en.removeRef(this);
 
         m_nodes = new ArrayList<>();
+        m_fingerprintValid = false;
         setModified();
     }
 
@@ -107,6 +115,7 @@ public class EdWay extends EdObject {
             en.removeRef(this);
 
         m_nodes = new ArrayList<>(ednodes);
+        m_fingerprintValid = false;
 
         for (EdNode en: m_nodes)
             en.addRef(this);
@@ -123,6 +132,7 @@ public class EdWay extends EdObject {
             throw new IllegalArgumentException(tr("EdNode(s) from a different WayEditor"));
 
         m_nodes.add(offs, ednode); // throws exception if offs is out of range
+        m_fingerprintValid = false;
 
         setModified();
         ednode.addRef(this);
@@ -138,6 +148,7 @@ public class EdWay extends EdObject {
             return;
 
         m_nodes.set(offs, ednode); // throws exception if offs is out of range
+        m_fingerprintValid = false;
 
         setModified();
 
@@ -156,7 +167,16 @@ public class EdWay extends EdObject {
     public boolean isClosed() {
         if (isFinalized())
             return m_way.isClosed();
-        return (m_nodes.size() >= 3) && (m_nodes.get(0) == m_nodes.get(m_nodes.size() - 1));
+        return isClosed(m_nodes);
+    }
+
+    /**
+     * Returns whether the list of nodes forms a closed way, same rule as {@link #isClosed()}.
+     * @param list list of nodes
+     * @return true if closed
+     */
+    static boolean isClosed(List<EdNode> list) {
+        return (list.size() >= 3) && (list.get(0) == list.get(list.size() - 1));
     }
 
     @Override
@@ -190,6 +210,12 @@ public class EdWay extends EdObject {
         return m_way;
     }
 
+    @Override
+    protected void setModified() {
+        super.setModified();
+        getEditor().areaModified();
+    }
+
     @Override
     protected void updateModifiedFlag() {
         checkEditable();
@@ -297,25 +323,6 @@ public class EdWay extends EdObject {
         return true;
     }
 
-    class NearNodesPair implements Comparable<NearNodesPair> {
-        public final int src_index;
-        public final EdNode dst;
-        public final double distance;
-        public final ReuseNearNodeMethod method;
-
-        public NearNodesPair(int si, EdNode d, ReuseNearNodeMethod m, double dist) {
-            src_index = si;
-            dst = d;
-            method = m;
-            distance = dist;
-        }
-
-        @Override
-        public int compareTo(NearNodesPair t) {
-            return Double.compare(this.distance, t.distance);
-        }
-    }
-
     @Override
     public boolean reuseNearNodes(IReuseNearNodePredicate reuse, IEdNodePredicate filter) {
         checkEditable();
@@ -330,42 +337,60 @@ public class EdWay extends EdObject {
         if (closed)
             --mynodes;
 
+        // approximate meters per degree for cheap radius pre-check of candidate pairs
+        LatLon center = way_box.getCenter();
+        double mpd_lat = GeomUtils.getMetersPerDegreeOfLatitude(center);
+        double mpd_lon = GeomUtils.getMetersPerDegreeOfLongitude(center);
+        double lookup_radius = reuse.lookupDistanceMeters() * 1.1;
+        double lookup_radius_sq = lookup_radius * lookup_radius;
+
         // get and sort candidate pairs according to their relative distances
-        PriorityQueue<NearNodesPair> queue = new PriorityQueue<>();
+        long search_time = TracerLog.start();
+        EdNode[][] near_nodes = getEditor().findExistingNodesNearNodes(m_nodes, mynodes, oversize, filter);
+        TracerLog.stop("connectways.reuseNearNodes.search", search_time);
+        List<EdNode> dst_nodes = new ArrayList<>();
+        NearPairHeap heap = new NearPairHeap(mynodes);
+        ReuseNearNodeMethod[] methods = ReuseNearNodeMethod.values();
         for (int i = 0; i < mynodes; i++) {
             final EdNode x = m_nodes.get(i);
-            BBox box = x.getBBox(oversize);
-            Set<EdNode> tn = getEditor().findExistingNodesInBBox(box, filter);
-            for(EdNode node: tn) {
+            final LatLon xll = x.getCoor();
+            for (EdNode node: near_nodes[i]) {
                 if (x == node)
                     continue;
+                LatLon nll = node.getCoor();
+                double dlat = (nll.lat() - xll.lat()) * mpd_lat;
+                double dlon = (nll.lon() - xll.lon()) * mpd_lon;
+                if (dlat * dlat + dlon * dlon > lookup_radius_sq)
+                    continue;
                 double distance = GeomUtils.distanceOfNodesMeters(x, node);
                 ReuseNearNodeMethod method = reuse.reuseNearNode(x, node, distance);
                 if (method == ReuseNearNodeMethod.dontReuseNode)
                     continue;
-                queue.add(new NearNodesPair(i, node, method, distance));
+                dst_nodes.add(node);
+                heap.add(distance, i, dst_nodes.size() - 1, method.ordinal());
             }
         }
 
-        if (queue.size() <= 0)
+        if (heap.isEmpty())
             return false;
 
-        Set<Integer> used_src = new HashSet<>();
-        Set<EdNode> used_dst = new HashSet<>();
-        NearNodesPair nnp;
-        while ((nnp = queue.poll()) != null) {
-            if (used_src.contains(nnp.src_index) || used_dst.contains(nnp.dst))
+        boolean[] used_src = new boolean[mynodes];
+        Set<EdNode> used_dst = Collections.newSetFromMap(new IdentityHashMap<EdNode, Boolean>());
+        while (heap.poll()) {
+            int src_index = heap.src();
+            EdNode dst = dst_nodes.get(heap.dst());
+            if (used_src[src_index] || used_dst.contains(dst))
                 continue;
 
             // move dst node to src position?
-            if (nnp.method == ReuseNearNodeMethod.moveAndReuseNode)
-                nnp.dst.setCoor(m_nodes.get(nnp.src_index).getCoor());
+            if (methods[heap.payload()] == ReuseNearNodeMethod.moveAndReuseNode)
+                dst.setCoor(m_nodes.get(src_index).getCoor());
 
             // reuse dst node
-            this.setNode(nnp.src_index, nnp.dst);
+            this.setNode(src_index, dst);
 
-            used_src.add(nnp.src_index);
-            used_dst.add(nnp.dst);
+            used_src[src_index] = true;
+            used_dst.add(dst);
         }
 
         // fix closing node, if necessary
@@ -392,23 +417,12 @@ public class EdWay extends EdObject {
         if (filter == null)
             throw new IllegalArgumentException(tr("No filter specified"));
 
-        Map<EdNode, Pair<Double, Integer>> nodes_map = new HashMap<>();
-
         final LatLonSize oversize = LatLonSize.get (this.getBBox(), tolerance.distanceMeters() * 1.1);
 
-        // get every node touching the way, assign it to closest way segment
-        for (int i = 0; i < m_nodes.size() - 1; i++) {
-            final EdNode x = m_nodes.get(i);
-            final EdNode y = m_nodes.get(i+1);
-            Set<EdNode> tn = getEditor().findExistingNodesTouchingWaySegment(tolerance, oversize, x, y, filter);
-            for (EdNode node: tn) {
-                Pair<Double, Integer> best_segment = nodes_map.get(node);
-                double dist = GeomUtils.distanceToSegmentMeters(node, x, y);
-                if (best_segment == null || best_segment.a > dist) {
-                    nodes_map.put(node, new Pair<> (dist, i));
-                }
-            }
-        }
+        // get every node touching the way, assigned to closest way segment
+        long search_time = TracerLog.start();
+        Map<EdNode, Pair<Double, Integer>> nodes_map = getEditor().findExistingNodesTouchingWay(tolerance, oversize, m_nodes, filter);
+        TracerLog.stop("connectways.connectTouchingNodes.search", search_time);
 
         if (nodes_map.size() <= 0)
             return false;
@@ -455,28 +469,13 @@ public class EdWay extends EdObject {
             return false;
 
         Map<EdNode, Pair<Double, Integer>> nodes_map = new HashMap<>();
+        WaySegmentGrid grid = new WaySegmentGrid(m_nodes, oversize);
 
         // get every node touching the way, assign it to closest way segment
-        for (int i = 0; i < m_nodes.size() - 1; i++) {
-            final EdNode x = m_nodes.get(i);
-            final EdNode y = m_nodes.get(i+1);
-
-            BBox seg_bbox = new BBox(x.currentNodeUnsafe());
-            seg_bbox.add(y.getCoor());
-            BBoxUtils.extendBBox(seg_bbox, oversize);
-
-            for (EdNode node: other_nodes) {
-                if (!seg_bbox.bounds(node.getCoor()))
-                    continue;
-                GeomDeviation deviation = GeomUtils.pointDeviationFromSegment(node, x, y);
-                if (!deviation.inTolerance(tolerance))
-                    continue;
-                Pair<Double, Integer> best_segment = nodes_map.get(node);
-                double dist = deviation.distanceMeters();
-                if (best_segment == null || best_segment.a > dist) {
-                    nodes_map.put(node, new Pair<> (dist, i));
-                }
-            }
+        for (EdNode node: other_nodes) {
+            Pair<Double, Integer> best_segment = WayEditor.closestTouchingSegment(grid, tolerance, node.currentNodeUnsafe());
+            if (best_segment != null)
+                nodes_map.put(node, best_segment);
         }
 
         if (nodes_map.size() <= 0)
@@ -515,7 +514,8 @@ public class EdWay extends EdObject {
                 }
             });
             for (EdNode n: add_nodes) {
-                System.out.println("Connecting node " + Long.toString(n.getUniqueId()) + " into way " + Long.toString(this.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("Connecting node " + Long.toString(n.getUniqueId()) + " into way " + Long.toString(this.getUniqueId()));
                 new_nodes.add(n);
             }
         }
@@ -578,16 +578,118 @@ public class EdWay extends EdObject {
 
         int n = list.size() - 1;
 
+        // it's enough to align the first node of this way with all its occurrences in the list
+        EdNode first = m_nodes.get(0);
+        for (int j = 0; j < n; j++) {
+            if (list.get(j) != first)
+                continue;
+            if (identicalEdNodeGeometryFromOffsets(m_nodes, list, n, 0, j, false))
+                return true;
+            if (allow_inverted_orientation &&
+                identicalEdNodeGeometryFromOffsets(m_nodes, list, n, 0, j, true))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fast variant of {@link #hasIdenticalEdNodeGeometry(List, boolean)} for
+     * two EdWays, compares cached geometry fingerprints first.
+     * @param other way to compare with
+     * @param allow_inverted_orientation true if ways with opposite orientation are identical
+     * @return true if both ways consist of identical EdNodes
+     */
+    public boolean hasIdenticalEdNodeGeometry(EdWay other, boolean allow_inverted_orientation) {
+        if (this.getGeometryFingerprint() != other.getGeometryFingerprint())
+            return false;
+        return hasIdenticalEdNodeGeometry(other.m_nodes, allow_inverted_orientation);
+    }
+
+    /**
+     * Returns a hash of the way's EdNode sequence invariant to rotation (for closed
+     * ways) and orientation. Ways with identical EdNode geometry always have equal
+     * fingerprints, the opposite doesn't hold.
+     * @return geometry fingerprint
+     */
+    public long getGeometryFingerprint() {
+        checkEditable();
+        if (!m_fingerprintValid) {
+            m_fingerprint = geometryFingerprint(m_nodes);
+            m_fingerprintValid = true;
+        }
+        return m_fingerprint;
+    }
+
+    /**
+     * Calculates geometry fingerprint of a list of nodes, see {@link #getGeometryFingerprint()}.
+     * @param list list of nodes
+     * @return geometry fingerprint
+     */
+    public static long geometryFingerprint(List<EdNode> list) {
+        boolean closed = isClosed(list);
+        int n = closed ? list.size() - 1 : list.size();
+
+        int[] fwd = new int[n];
+        int[] inv = new int[n];
         for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                if (identicalEdNodeGeometryFromOffsets(m_nodes, list, n, i, j, false))
-                    return true;
-                if (allow_inverted_orientation &&
-                    identicalEdNodeGeometryFromOffsets(m_nodes, list, n, i, j, true))
-                    return true;
+            fwd[i] = System.identityHashCode(list.get(i));
+            inv[n - 1 - i] = fwd[i];
+        }
+
+        int ofwd = closed ? leastRotation(fwd) : 0;
+        int oinv = closed ? leastRotation(inv) : 0;
+
+        // choose lexicographically smaller of both orientations
+        int[] seq = fwd;
+        int offs = ofwd;
+        for (int k = 0; k < n; k++) {
+            int a = fwd[(ofwd + k) % n];
+            int b = inv[(oinv + k) % n];
+            if (a != b) {
+                if (b < a) {
+                    seq = inv;
+                    offs = oinv;
+                }
+                break;
             }
         }
-        return false;
+
+        long h = closed ? 0x9E3779B97F4A7C15L : 0xC2B2AE3D27D4EB4FL;
+        h = h * 31 + n;
+        for (int k = 0; k < n; k++)
+            h = h * 0x100000001B3L + seq[(offs + k) % n];
+        return h;
+    }
+
+    /**
+     * Returns the start offset of lexicographically minimal rotation
+     * of the sequence (Booth's algorithm).
+     */
+    private static int leastRotation(int[] s) {
+        int n = s.length;
+        if (n == 0)
+            return 0;
+        int[] f = new int[2 * n];
+        Arrays.fill(f, -1);
+        int k = 0;
+        for (int j = 1; j < 2 * n; j++) {
+            int sj = s[j % n];
+            int i = f[j - k - 1];
+            while (i != -1 && sj != s[(k + i + 1) % n]) {
+                if (sj < s[(k + i + 1) % n])
+                    k = j - i - 1;
+                i = f[i];
+            }
+            if (sj != s[(k + i + 1) % n]) { // i == -1
+                if (sj < s[k % n])
+                    k = j;
+                f[j - k] = -1;
+            }
+            else {
+                f[j - k] = i + 1;
+            }
+        }
+        return k % n;
     }
 
     private static boolean identicalEdNodeGeometryFromOffsets(List<EdNode> l1, List<EdNode> l2, int n, int i, int j, boolean inv) {
@@ -603,29 +705,6 @@ public class EdWay extends EdObject {
         return true;
     }
 
-    /**
-     * Returns the number of unique nodes that occur both in this way
-     * and in the given list of nodes.
-     * @param list the list of nodes to compare with
-     * @return the number of shared nodes
-     */
-    public int getSharedNodesCount(List<EdNode> list) {
-        checkEditable();
-        Set<EdNode> s1 = new HashSet<>(m_nodes);
-        Set<EdNode> s2 = new HashSet<>(list);
-        if (s1.size() > s2.size()) {
-            Set<EdNode> aux = s1;
-            s1 = s2;
-            s2 = aux;
-        }
-        int count = 0;
-        for (EdNode n: s1) {
-            if (s2.contains(n))
-                count++;
-        }
-        return count;
-    }
-
     /**
      * Returns true if EdWay has at least one referrer that matches
      * given area predicate. Both editor and external referrers are tested.
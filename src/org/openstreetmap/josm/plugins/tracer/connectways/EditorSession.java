@@ -0,0 +1,214 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+
+/**
+ * Editing session shared by consecutive traces on the same DataSet.
+ *
+ * Keeps area predicate results of DataSet ways and relations across traces,
+ * so neighbouring areas don't have to be re-evaluated by every trace in the
+ * same area. Results are invalidated by DataSet change events, which covers
+ * finalized traces, undo/redo and any other edits.
+ *
+ * Sessions are opt-in, enabled by "tracer.editor_session" preference.
+ */
+public final class EditorSession implements DataSetListener {
+
+    private static volatile boolean m_enabled = false;
+    private static final Map<DataSet, EditorSession> m_sessions = new WeakHashMap<>();
+
+    // area predicate results, keyed by Match identity
+    private final Map<Match, Map<OsmPrimitive, Boolean>> m_areaResults = new IdentityHashMap<>();
+
+    private EditorSession () {
+    }
+
+    /**
+     * Reloads "tracer.editor_session" preference. Disabling sessions drops
+     * all existing ones.
+     */
+    public static void reloadPreferences () {
+        boolean enabled = Main.pref.getBoolean("tracer.editor_session", false);
+        synchronized (m_sessions) {
+            m_enabled = enabled;
+            if (!enabled) {
+                for (Map.Entry<DataSet, EditorSession> entry: m_sessions.entrySet())
+                    entry.getKey().removeDataSetListener(entry.getValue());
+                m_sessions.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns session of the given DataSet, creates a new one if necessary.
+     * @param ds data set
+     * @return session, null if sessions are disabled or primitive isn't in a DataSet
+     */
+    public static EditorSession get (DataSet ds) {
+        if (!m_enabled || ds == null)
+            return null;
+        synchronized (m_sessions) {
+            if (!m_enabled)
+                return null;
+            EditorSession session = m_sessions.get(ds);
+            if (session == null) {
+                session = new EditorSession();
+                ds.addDataSetListener(session);
+                m_sessions.put(ds, session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Returns memoized area predicate result.
+     * @return result, null if not known
+     */
+    synchronized Boolean getAreaResult (Match filter, OsmPrimitive prim) {
+        Map<OsmPrimitive, Boolean> results = m_areaResults.get(filter);
+        Boolean result = results == null ? null : results.get(prim);
+        TracerLog.count(result != null ? "editorSession.hit" : "editorSession.miss");
+        return result;
+    }
+
+    synchronized void putAreaResult (Match filter, OsmPrimitive prim, boolean result) {
+        Map<OsmPrimitive, Boolean> results = m_areaResults.get(filter);
+        if (results == null) {
+            results = new IdentityHashMap<>();
+            m_areaResults.put(filter, results);
+        }
+        results.put(prim, result);
+    }
+
+    private synchronized void invalidateAll () {
+        m_areaResults.clear();
+    }
+
+    private synchronized void invalidate (OsmPrimitive prim) {
+        for (Map<OsmPrimitive, Boolean> results: m_areaResults.values())
+            results.remove(prim);
+    }
+
+    /**
+     * Invalidates the relation and all its member ways, result of a boundary
+     * way depends on the relation and on tags of sibling outer ways.
+     */
+    private synchronized void invalidateRelation (Relation rel) {
+        invalidate (rel);
+        for (RelationMember member: rel.getMembers()) {
+            if (member.isWay())
+                invalidate (member.getWay());
+        }
+    }
+
+    private void invalidateWithReferrers (OsmPrimitive prim) {
+        if (prim instanceof Relation) {
+            invalidateRelation ((Relation)prim);
+            return;
+        }
+        invalidate (prim);
+        if (prim instanceof Way) {
+            for (OsmPrimitive ref: prim.getReferrers()) {
+                if (ref instanceof Relation)
+                    invalidateRelation ((Relation)ref);
+            }
+        }
+    }
+
+    private static boolean containsRelation (AbstractDatasetChangedEvent event) {
+        for (OsmPrimitive prim: event.getPrimitives()) {
+            if (prim instanceof Relation)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void primitivesAdded (PrimitivesAddedEvent event) {
+        // new relations change results of their (existing) member ways
+        if (containsRelation (event))
+            invalidateAll ();
+    }
+
+    @Override
+    public void primitivesRemoved (PrimitivesRemovedEvent event) {
+        if (containsRelation (event)) {
+            invalidateAll ();
+            return;
+        }
+        for (OsmPrimitive prim: event.getPrimitives())
+            invalidate (prim);
+    }
+
+    @Override
+    public void tagsChanged (TagsChangedEvent event) {
+        for (OsmPrimitive prim: event.getPrimitives())
+            invalidateWithReferrers (prim);
+    }
+
+    @Override
+    public void nodeMoved (NodeMovedEvent event) {
+        // node positions don't affect area predicates
+    }
+
+    @Override
+    public void wayNodesChanged (WayNodesChangedEvent event) {
+        // way may have become closed or unclosed
+        for (OsmPrimitive prim: event.getPrimitives())
+            invalidate (prim);
+    }
+
+    @Override
+    public void relationMembersChanged (RelationMembersChangedEvent event) {
+        // former members are not known anymore
+        invalidateAll ();
+    }
+
+    @Override
+    public void otherDatasetChange (AbstractDatasetChangedEvent event) {
+        invalidateAll ();
+    }
+
+    @Override
+    public void dataChanged (DataChangedEvent event) {
+        invalidateAll ();
+    }
+}
@@ -54,11 +54,14 @@ public abstract class GeomUtils {
         }
 
         double area = 0;
-        EastNorth ej = nodes.get(count - 1).getEastNorth();
+        EdNode nj = nodes.get(count - 1);
+        double xj = nj.east(), yj = nj.north();
         for (int i = 0; i < count; ++i) {
-            EastNorth ei = nodes.get(i).getEastNorth();
-            area += (ej.getX() + ei.getX()) * (ej.getY() - ei.getY());
-            ej = ei;
+            EdNode ni = nodes.get(i);
+            double xi = ni.east(), yi = ni.north();
+            area += (xj + xi) * (yj - yi);
+            xj = xi;
+            yj = yi;
         }
         return Math.abs(area / 2);
     }
@@ -72,7 +75,7 @@ public abstract class GeomUtils {
      * @return Angle in radians
      */
     public static double unorientedAngleBetween (EdNode p0, EdNode p1, EdNode p2) {
-        return unorientedAngleBetween(p0.currentNodeUnsafe(), p1.currentNodeUnsafe(), p2.currentNodeUnsafe());
+        return unorientedAngleBetween(p0.getCoor(), p1.getCoor(), p2.getCoor());
     }
 
     /**
@@ -84,14 +87,20 @@ public abstract class GeomUtils {
      * @return Angle in radians
      */
     public static double unorientedAngleBetween(Node p0, Node p1, Node p2) {
-        double a1 = p1.getCoor().bearing(p0.getCoor());
-        double a2 = p1.getCoor().bearing(p2.getCoor());
-        double angle = Math.abs(a2 - a1) % (2 * Math.PI);
-        if (angle < 0)
-            angle += 2 * Math.PI;
-        if (angle > Math.PI)
-            angle = (2 * Math.PI) - angle;
-        return angle;
+        return unorientedAngleBetween(p0.getCoor(), p1.getCoor(), p2.getCoor());
+    }
+
+    /**
+     * Calculates unoriented angle between two line segments, in radians.
+     * The angle is in range 0 .. PI. It doesn't depend on the current projection,
+     * see {@link #unorientedAngleBetweenLatLon}.
+     * @param p0 First point of the first segment
+     * @param p1 Vertex point, shared by both segments
+     * @param p2 Second point of the second segment
+     * @return Angle in radians
+     */
+    public static double unorientedAngleBetween(LatLon p0, LatLon p1, LatLon p2) {
+        return unorientedAngleBetweenLatLon(p0.lat(), p0.lon(), p1.lat(), p1.lon(), p2.lat(), p2.lon());
     }
 
     /**
@@ -105,7 +114,8 @@ public abstract class GeomUtils {
      * @return Distance in meters
      */
     public static double distanceToSegmentMeters(EdNode point, EdNode segp1, EdNode segp2) {
-        return distanceToSegmentMeters(point.currentNodeUnsafe(), segp1.currentNodeUnsafe(), segp2.currentNodeUnsafe());
+        double t = closestPointOnSegment(point.east(), point.north(), segp1.east(), segp1.north(), segp2.east(), segp2.north());
+        return distanceToSegmentPointMeters(point.getCoor(), segp1.getCoor(), segp2.getCoor(), t);
     }
 
     /**
@@ -135,7 +145,33 @@ public abstract class GeomUtils {
      * @return Calculated GeomDeviation
      */
     public static GeomDeviation pointDeviationFromSegment(EdNode point, EdNode segp1, EdNode segp2) {
-        return pointDeviationFromSegment(point.currentNodeUnsafe(), segp1.currentNodeUnsafe(), segp2.currentNodeUnsafe());
+        return pointDeviationFromSegment(point.east(), point.north(), point.getCoor(), segp1, segp2);
+    }
+
+    /**
+     * Returns distance and angle deviations of a point from a line segment,
+     * see {@link #pointDeviationFromSegment(EdNode, EdNode, EdNode)}.
+     * @param point_east Projected east coordinate of the point
+     * @param point_north Projected north coordinate of the point
+     * @param point Coordinates of the point
+     * @param segp1 First point determining the line segment
+     * @param segp2 Second point determining the line segment
+     * @return Calculated GeomDeviation
+     */
+    static GeomDeviation pointDeviationFromSegment(double point_east, double point_north, LatLon point, EdNode segp1, EdNode segp2) {
+        double x1 = segp1.east(), y1 = segp1.north();
+        double x2 = segp2.east(), y2 = segp2.north();
+
+        double t = closestPointOnSegment(point_east, point_north, x1, y1, x2, y2);
+        double dev_distance_meters = distanceToSegmentPointMeters(point, segp1.getCoor(), segp2.getCoor(), t);
+
+        LatLon ll1 = segp1.getCoor();
+        LatLon ll2 = segp2.getCoor();
+        double a1 = unorientedAngleBetween(ll1, ll2, point);
+        double a2 = unorientedAngleBetween(ll2, ll1, point);
+        double dev_angle = Math.max(a1, a2);
+
+        return new GeomDeviation (dev_distance_meters, dev_angle);
     }
 
     /**
@@ -156,13 +192,83 @@ public abstract class GeomUtils {
         EastNorth cp = Geometry.closestPointToSegment(ex, ey, ep);
         double dev_distance_meters = point.getCoor().greatCircleDistance(Projections.inverseProject(cp));
 
-        double a1 = GeomUtils.unorientedAngleBetween(segp1, segp2, point);
-        double a2 = GeomUtils.unorientedAngleBetween(segp2, segp1, point);
+        double a1 = unorientedAngleBetween(segp1.getCoor(), segp2.getCoor(), point.getCoor());
+        double a2 = unorientedAngleBetween(segp2.getCoor(), segp1.getCoor(), point.getCoor());
         double dev_angle = Math.max(a1, a2);
 
         return new GeomDeviation (dev_distance_meters, dev_angle);
     }
 
+    /**
+     * Calculates unoriented angle between two line segments given by
+     * projected coordinates, in radians. The angle is in range 0 .. PI.
+     * Degenerated segments have zero angle.
+     * @param x0 East of the first point of the first segment
+     * @param y0 North of the first point of the first segment
+     * @param x1 East of the vertex point
+     * @param y1 North of the vertex point
+     * @param x2 East of the second point of the second segment
+     * @param y2 North of the second point of the second segment
+     * @return Angle in radians
+     */
+    public static double unorientedAngleBetween(double x0, double y0, double x1, double y1, double x2, double y2) {
+        double ax = x0 - x1, ay = y0 - y1;
+        double bx = x2 - x1, by = y2 - y1;
+        if ((ax == 0 && ay == 0) || (bx == 0 && by == 0))
+            return 0;
+        return Math.atan2(Math.abs(ax * by - ay * bx), ax * bx + ay * by);
+    }
+
+    /**
+     * Calculates unoriented angle between two line segments given by geographic
+     * coordinates, in radians. Longitude differences are scaled by cosine of the
+     * vertex latitude, so the angle doesn't depend on the current projection and
+     * matches angles of LatLon.bearing for short segments.
+     * @return Angle in radians, range 0 .. PI
+     */
+    public static double unorientedAngleBetweenLatLon(double lat0, double lon0, double lat1, double lon1, double lat2, double lon2) {
+        double k = Math.cos(Math.toRadians(lat1));
+        return unorientedAngleBetween(lon0 * k, lat0, lon1 * k, lat1, lon2 * k, lat2);
+    }
+
+    /**
+     * Returns position of the point of a line segment closest to the given point,
+     * all coordinates are projected.
+     * @return Parameter t in range 0 .. 1, the closest point is p1 + t * (p2 - p1)
+     */
+    public static double closestPointOnSegment(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0)
+            return 0;
+        double t = ((px - x1) * dx + (py - y1) * dy) / len2;
+        return t < 0 ? 0 : (t > 1 ? 1 : t);
+    }
+
+    /**
+     * Calculates distance in meters of a point to the point of a line segment
+     * given by parameter t. The segment point is interpolated in LatLon space,
+     * which is precise enough for short segments.
+     */
+    private static double distanceToSegmentPointMeters(LatLon point, LatLon segp1, LatLon segp2, double t) {
+        double lat = segp1.lat() + t * (segp2.lat() - segp1.lat());
+        double lon = segp1.lon() + t * (segp2.lon() - segp1.lon());
+        return distanceMeters(point.lat(), point.lon(), lat, lon);
+    }
+
+    /**
+     * Calculates approximate distance of two close points in meters, using equirectangular
+     * approximation of the great circle distance. Use it for distances up to a few kilometers.
+     * @return Distance in meters
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double phi = Math.toRadians((lat1 + lat2) / 2);
+        double dlat = Math.toRadians(lat2 - lat1);
+        double dlon = Math.toRadians(lon2 - lon1) * Math.cos(phi);
+        return Ellipsoid.WGS84.a * Math.sqrt(dlat * dlat + dlon * dlon);
+    }
+
     public static double distanceOfNodesMeters(EdNode x, EdNode y) {
         return x.getCoor().greatCircleDistance(y.getCoor());
     }
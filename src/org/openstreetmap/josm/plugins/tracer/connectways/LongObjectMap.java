@@ -0,0 +1,133 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map with primitive long keys, used for
+ * OSM primitive ID lookups without boxing the IDs.
+ * Doesn't support removal of keys and null values.
+ *
+ * @param <V> value type
+ */
+public final class LongObjectMap<V> {
+
+    private static final int minCapacity = 16;
+
+    private long[] m_keys;
+    private Object[] m_values;
+    private int m_size;
+    private int m_mask;
+
+    public LongObjectMap () {
+        this (minCapacity);
+    }
+
+    public LongObjectMap (int expected_size) {
+        int capacity = minCapacity;
+        while (capacity * 3 < expected_size * 4)
+            capacity <<= 1;
+        allocate (capacity);
+    }
+
+    private void allocate (int capacity) {
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+        m_mask = capacity - 1;
+        m_size = 0;
+    }
+
+    private static int hash (long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private int findSlot (long key) {
+        int i = hash(key) & m_mask;
+        while (m_values[i] != null) {
+            if (m_keys[i] == key)
+                return i;
+            i = (i + 1) & m_mask;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get (long key) {
+        return (V)m_values[findSlot(key)];
+    }
+
+    public boolean containsKey (long key) {
+        return m_values[findSlot(key)] != null;
+    }
+
+    /**
+     * Associates value with the key.
+     * @param key key
+     * @param value non-null value
+     * @return previous value associated with the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put (long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException();
+
+        int i = findSlot(key);
+        V old = (V)m_values[i];
+        if (old != null) {
+            m_values[i] = value;
+            return old;
+        }
+
+        m_keys[i] = key;
+        m_values[i] = value;
+        if (++m_size * 4 > m_keys.length * 3)
+            rehash (m_keys.length << 1);
+        return null;
+    }
+
+    public int size () {
+        return m_size;
+    }
+
+    public boolean isEmpty () {
+        return m_size == 0;
+    }
+
+    public void clear () {
+        Arrays.fill(m_values, null);
+        m_size = 0;
+    }
+
+    private void rehash (int capacity) {
+        long[] keys = m_keys;
+        Object[] values = m_values;
+        allocate (capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null)
+                continue;
+            int j = findSlot(keys[i]);
+            m_keys[j] = keys[i];
+            m_values[j] = values[i];
+            ++m_size;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.tools.Pair;
 
 public class MergeIdenticalWays {
@@ -41,6 +42,7 @@ public class MergeIdenticalWays {
     }
 
     public EdWay mergeWays(Set<EdWay> ways, boolean allow_inverted_orientation, EdWay watch_way) {
+        long start_time = TracerLog.start();
         Set<EdWay> inserted = new HashSet<>();
         List<List<EdWay>> bundles = new ArrayList<>(ways.size());
 
@@ -63,7 +65,7 @@ public class MergeIdenticalWays {
                 if (refway.hasMatchingReferrers(m_negatedFilter))
                     continue;
                 // ignore ways with non-identical geometry
-                if (!refway.hasIdenticalEdNodeGeometry(way.getNodes(), true))
+                if (!refway.hasIdenticalEdNodeGeometry(way, true))
                     continue;
                 bundle.add(refway);
                 inserted.add(refway);
@@ -99,6 +101,7 @@ public class MergeIdenticalWays {
             }
         }
 
+        TracerLog.stop("connectways.mergeWays", start_time);
         return watch_way;
     }
 
@@ -148,7 +151,8 @@ public class MergeIdenticalWays {
         }
         dst.setKeys(tags);
 
-        System.out.println("Merging identical ways: " + Long.toString(src.getUniqueId()) + " => " + Long.toString(dst.getUniqueId()));
+        if (TracerLog.isDebug())
+            TracerLog.debug("Merging identical ways: " + Long.toString(src.getUniqueId()) + " => " + Long.toString(dst.getUniqueId()));
 
         // load all external multipolygons, make sure that all are usable
         // (we've already checked that all referrers match the area filter)
@@ -180,7 +184,8 @@ public class MergeIdenticalWays {
         if (val1.equals(val2))
             return new Pair<>(true, val1);
         if (!OsmPrimitive.isUninterestingKey(key)) {
-            System.out.println("Cannot merge interesting tags: " + key + "=" + val1 + ", " + key + "=" + val2);
+            if (TracerLog.isDebug())
+                TracerLog.debug("Cannot merge interesting tags: " + key + "=" + val1 + ", " + key + "=" + val2);
             return new Pair<>(false, null);
         }
 
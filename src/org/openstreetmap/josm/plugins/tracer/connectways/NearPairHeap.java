@@ -0,0 +1,149 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+/**
+ * Binary min-heap of (distance, source, destination, payload) integer pairs
+ * stored in primitive arrays, ordered by distance.
+ */
+final class NearPairHeap {
+
+    private double[] m_distance;
+    private int[] m_src;
+    private int[] m_dst;
+    private int[] m_payload;
+    private int m_size;
+
+    // top element, valid after poll()
+    private double m_topDistance;
+    private int m_topSrc;
+    private int m_topDst;
+    private int m_topPayload;
+
+    NearPairHeap (int capacity) {
+        capacity = Math.max(capacity, 8);
+        m_distance = new double[capacity];
+        m_src = new int[capacity];
+        m_dst = new int[capacity];
+        m_payload = new int[capacity];
+    }
+
+    int size () {
+        return m_size;
+    }
+
+    boolean isEmpty () {
+        return m_size == 0;
+    }
+
+    void add (double distance, int src, int dst, int payload) {
+        if (m_size == m_distance.length)
+            grow ();
+        int i = m_size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (m_distance[parent] <= distance)
+                break;
+            move (parent, i);
+            i = parent;
+        }
+        set (i, distance, src, dst, payload);
+    }
+
+    /**
+     * Removes the pair with the smallest distance, its values are available
+     * through distance(), src(), dst() and payload() until the next poll.
+     * @return false if the heap is empty
+     */
+    boolean poll () {
+        if (m_size == 0)
+            return false;
+
+        m_topDistance = m_distance[0];
+        m_topSrc = m_src[0];
+        m_topDst = m_dst[0];
+        m_topPayload = m_payload[0];
+
+        int last = --m_size;
+        if (last > 0) {
+            double distance = m_distance[last];
+            int i = 0;
+            for (;;) {
+                int child = 2 * i + 1;
+                if (child >= last)
+                    break;
+                if (child + 1 < last && m_distance[child + 1] < m_distance[child])
+                    child++;
+                if (distance <= m_distance[child])
+                    break;
+                move (child, i);
+                i = child;
+            }
+            set (i, distance, m_src[last], m_dst[last], m_payload[last]);
+        }
+        return true;
+    }
+
+    double distance () {
+        return m_topDistance;
+    }
+
+    int src () {
+        return m_topSrc;
+    }
+
+    int dst () {
+        return m_topDst;
+    }
+
+    int payload () {
+        return m_topPayload;
+    }
+
+    private void move (int from, int to) {
+        m_distance[to] = m_distance[from];
+        m_src[to] = m_src[from];
+        m_dst[to] = m_dst[from];
+        m_payload[to] = m_payload[from];
+    }
+
+    private void set (int i, double distance, int src, int dst, int payload) {
+        m_distance[i] = distance;
+        m_src[i] = src;
+        m_dst[i] = dst;
+        m_payload[i] = payload;
+    }
+
+    private void grow () {
+        int capacity = m_distance.length * 2;
+        double[] distance = new double[capacity];
+        int[] src = new int[capacity];
+        int[] dst = new int[capacity];
+        int[] payload = new int[capacity];
+        System.arraycopy(m_distance, 0, distance, 0, m_size);
+        System.arraycopy(m_src, 0, src, 0, m_size);
+        System.arraycopy(m_dst, 0, dst, 0, m_size);
+        System.arraycopy(m_payload, 0, payload, 0, m_size);
+        m_distance = distance;
+        m_src = src;
+        m_dst = dst;
+        m_payload = payload;
+    }
+}
@@ -22,6 +22,10 @@ package org.openstreetmap.josm.plugins.tracer.connectways;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 
+/**
+ * Negation of another area predicate. Doesn't keep own results, memoization
+ * is left to the wrapped predicate, so both share the same cached results.
+ */
 public class NegatedAreaPredicate implements IEdAreaPredicate {
 
     private final IEdAreaPredicate m_filter;
@@ -0,0 +1,165 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Immutable copy of the DataSet neighbourhood of a traced object.
+ *
+ * Taken once per WayEditor transaction (the DataSet doesn't change until
+ * finalizeEdit), it answers bbox searches fully inside the snapshot area from
+ * flat arrays instead of the live DataSet. Nodes are already filtered to usable
+ * ones inside the download area, data source bounds are computed only once.
+ */
+final class NeighbourhoodSnapshot {
+
+    private final double m_minLat, m_maxLat, m_minLon, m_maxLon;
+
+    private final Node[] m_nodes;
+    private final double[] m_nodeLat;
+    private final double[] m_nodeLon;
+    private final PointGrid m_nodeGrid;
+
+    // bboxes are stored as (min lat, max lat, min lon, max lon) quadruples
+    private final Way[] m_ways;
+    private final double[] m_wayBBoxes;
+    private final Relation[] m_relations;
+    private final double[] m_relationBBoxes;
+
+    private final List<Bounds> m_dataSourceBounds;
+
+    NeighbourhoodSnapshot (DataSet ds, BBox bbox, LatLonSize cell_size) {
+        m_minLat = bbox.getBottomRightLat();
+        m_maxLat = bbox.getTopLeftLat();
+        m_minLon = bbox.getTopLeftLon();
+        m_maxLon = bbox.getBottomRightLon();
+
+        ds.getReadLock().lock();
+        try {
+            List<Node> nodes = new ArrayList<>();
+            for (Node nd: ds.searchNodes(bbox)) {
+                if (nd.isUsable() && !nd.isOutsideDownloadArea())
+                    nodes.add(nd);
+            }
+            m_nodes = nodes.toArray(new Node[nodes.size()]);
+
+            List<Way> ways = ds.searchWays(bbox);
+            m_ways = ways.toArray(new Way[ways.size()]);
+            m_wayBBoxes = bboxArray(m_ways);
+
+            List<Relation> relations = ds.searchRelations(bbox);
+            m_relations = relations.toArray(new Relation[relations.size()]);
+            m_relationBBoxes = bboxArray(m_relations);
+
+            m_dataSourceBounds = Collections.unmodifiableList(new ArrayList<>(ds.getDataSourceBounds()));
+        }
+        finally {
+            ds.getReadLock().unlock();
+        }
+
+        m_nodeLat = new double[m_nodes.length];
+        m_nodeLon = new double[m_nodes.length];
+        for (int i = 0; i < m_nodes.length; i++) {
+            LatLon ll = m_nodes[i].getCoor();
+            m_nodeLat[i] = ll.lat();
+            m_nodeLon[i] = ll.lon();
+        }
+        m_nodeGrid = new PointGrid(m_nodeLat, m_nodeLon, m_nodes.length, cell_size);
+    }
+
+    private static double[] bboxArray (OsmPrimitive[] prims) {
+        double[] result = new double[prims.length * 4];
+        for (int i = 0; i < prims.length; i++) {
+            BBox b = prims[i].getBBox();
+            result[4*i] = b.getBottomRightLat();
+            result[4*i+1] = b.getTopLeftLat();
+            result[4*i+2] = b.getTopLeftLon();
+            result[4*i+3] = b.getBottomRightLon();
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the snapshot can answer searches in the given bbox.
+     */
+    boolean covers (BBox bbox) {
+        return bbox.getBottomRightLat() >= m_minLat && bbox.getTopLeftLat() <= m_maxLat &&
+               bbox.getTopLeftLon() >= m_minLon && bbox.getBottomRightLon() <= m_maxLon;
+    }
+
+    /**
+     * Returns usable nodes inside the download area lying in the bbox.
+     */
+    List<Node> searchNodes (BBox bbox) {
+        int found = m_nodeGrid.query(bbox.getBottomRightLat(), bbox.getTopLeftLat(), bbox.getTopLeftLon(), bbox.getBottomRightLon());
+        List<Node> result = new ArrayList<>(found);
+        for (int j = 0; j < found; j++)
+            result.add(m_nodes[m_nodeGrid.result(j)]);
+        return result;
+    }
+
+    /**
+     * Returns ways whose bbox intersects the bbox.
+     */
+    List<Way> searchWays (BBox bbox) {
+        List<Way> result = new ArrayList<>();
+        for (int i = 0; i < m_ways.length; i++) {
+            if (intersects(m_wayBBoxes, i, bbox))
+                result.add(m_ways[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns relations whose bbox intersects the bbox.
+     */
+    List<Relation> searchRelations (BBox bbox) {
+        List<Relation> result = new ArrayList<>();
+        for (int i = 0; i < m_relations.length; i++) {
+            if (intersects(m_relationBBoxes, i, bbox))
+                result.add(m_relations[i]);
+        }
+        return result;
+    }
+
+    List<Bounds> getDataSourceBounds () {
+        return m_dataSourceBounds;
+    }
+
+    int nodesCount () {
+        return m_nodes.length;
+    }
+
+    private static boolean intersects (double[] bboxes, int i, BBox bbox) {
+        return bboxes[4*i] <= bbox.getTopLeftLat() && bboxes[4*i+1] >= bbox.getBottomRightLat() &&
+               bboxes[4*i+2] <= bbox.getBottomRightLon() && bboxes[4*i+3] >= bbox.getTopLeftLon();
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+/**
+ * Static uniform grid index of lat/lon points, answers bbox queries.
+ * Points are identified by their index in the input arrays.
+ */
+final class PointGrid {
+
+    private static final int maxGridDimension = 1024;
+
+    private final double[] m_lat;
+    private final double[] m_lon;
+
+    private final double m_lat0;
+    private final double m_lon0;
+    private final double m_cellLat;
+    private final double m_cellLon;
+    private final int m_rows;
+    private final int m_cols;
+
+    private final int[] m_cellStart;
+    private final int[] m_cellPoints;
+
+    private int[] m_result;
+    private int m_resultSize;
+
+    /**
+     * Builds the index.
+     * @param lat latitudes of points
+     * @param lon longitudes of points
+     * @param count number of points
+     * @param cell_size preferred cell size, usually the query box half-size
+     */
+    PointGrid (double[] lat, double[] lon, int count, LatLonSize cell_size) {
+        m_lat = lat;
+        m_lon = lon;
+        m_result = new int[16];
+
+        double min_lat = Double.POSITIVE_INFINITY;
+        double max_lat = Double.NEGATIVE_INFINITY;
+        double min_lon = Double.POSITIVE_INFINITY;
+        double max_lon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            min_lat = Math.min(min_lat, lat[i]);
+            max_lat = Math.max(max_lat, lat[i]);
+            min_lon = Math.min(min_lon, lon[i]);
+            max_lon = Math.max(max_lon, lon[i]);
+        }
+
+        if (count == 0) {
+            min_lat = max_lat = min_lon = max_lon = 0;
+        }
+
+        m_lat0 = min_lat;
+        m_lon0 = min_lon;
+        m_rows = dimension (max_lat - min_lat, cell_size.latSize());
+        m_cols = dimension (max_lon - min_lon, cell_size.lonSize());
+        m_cellLat = m_rows > 1 ? (max_lat - min_lat) / (m_rows - 1) : 1;
+        m_cellLon = m_cols > 1 ? (max_lon - min_lon) / (m_cols - 1) : 1;
+
+        int cells = m_rows * m_cols;
+        m_cellStart = new int[cells + 1];
+        m_cellPoints = new int[count];
+
+        int[] cell_of = new int[count];
+        for (int i = 0; i < count; i++) {
+            cell_of[i] = row(lat[i]) * m_cols + col(lon[i]);
+            m_cellStart[cell_of[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++)
+            m_cellStart[c+1] += m_cellStart[c];
+
+        int[] fill = new int[cells];
+        System.arraycopy(m_cellStart, 0, fill, 0, cells);
+        for (int i = 0; i < count; i++)
+            m_cellPoints[fill[cell_of[i]]++] = i;
+    }
+
+    private static int dimension (double span, double cell) {
+        if (span <= 0 || cell <= 0)
+            return 1;
+        double dim = Math.floor(span / cell) + 1;
+        return (int)Math.min(dim, maxGridDimension);
+    }
+
+    private int row (double lat) {
+        int r = (int)Math.floor((lat - m_lat0) / m_cellLat);
+        return Math.max(0, Math.min(r, m_rows - 1));
+    }
+
+    private int col (double lon) {
+        int c = (int)Math.floor((lon - m_lon0) / m_cellLon);
+        return Math.max(0, Math.min(c, m_cols - 1));
+    }
+
+    /**
+     * Searches points inside the given bbox (inclusive).
+     * Indices of found points are available through {@link #result(int)}
+     * until the next query.
+     * @return number of found points
+     */
+    int query (double min_lat, double max_lat, double min_lon, double max_lon) {
+        m_resultSize = 0;
+        int r1 = row(min_lat), r2 = row(max_lat);
+        int c1 = col(min_lon), c2 = col(max_lon);
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int cell = r * m_cols + c;
+                for (int k = m_cellStart[cell]; k < m_cellStart[cell + 1]; k++) {
+                    int i = m_cellPoints[k];
+                    if (m_lat[i] < min_lat || m_lat[i] > max_lat || m_lon[i] < min_lon || m_lon[i] > max_lon)
+                        continue;
+                    if (m_resultSize == m_result.length) {
+                        int[] result = new int[m_result.length * 2];
+                        System.arraycopy(m_result, 0, result, 0, m_resultSize);
+                        m_result = result;
+                    }
+                    m_result[m_resultSize++] = i;
+                }
+            }
+        }
+        return m_resultSize;
+    }
+
+    int result (int k) {
+        return m_result[k];
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+/**
+ * Open-addressing hash map from exact fixed point clipper coordinates to
+ * EdNodes, keys are stored in parallel long arrays without allocating
+ * Point2d or LatLon keys. Doesn't support removal of keys.
+ */
+final class PointNodeMap {
+
+    private static final int minCapacity = 16;
+
+    private long[] m_xs;
+    private long[] m_ys;
+    private EdNode[] m_nodes;
+    private int m_size;
+    private int m_mask;
+
+    PointNodeMap (int expected_size) {
+        int capacity = minCapacity;
+        while (capacity * 3 < expected_size * 4)
+            capacity <<= 1;
+        allocate (capacity);
+    }
+
+    private void allocate (int capacity) {
+        m_xs = new long[capacity];
+        m_ys = new long[capacity];
+        m_nodes = new EdNode[capacity];
+        m_mask = capacity - 1;
+        m_size = 0;
+    }
+
+    private static int hash (long x, long y) {
+        long h = (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL);
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private int findSlot (long x, long y) {
+        int i = hash(x, y) & m_mask;
+        while (m_nodes[i] != null) {
+            if (m_xs[i] == x && m_ys[i] == y)
+                return i;
+            i = (i + 1) & m_mask;
+        }
+        return i;
+    }
+
+    EdNode get (long x, long y) {
+        return m_nodes[findSlot(x, y)];
+    }
+
+    /**
+     * Associates node with the point, replaces previous node.
+     */
+    void put (long x, long y, EdNode node) {
+        if (node == null)
+            throw new IllegalArgumentException();
+
+        int i = findSlot(x, y);
+        if (m_nodes[i] != null) {
+            m_nodes[i] = node;
+            return;
+        }
+
+        m_xs[i] = x;
+        m_ys[i] = y;
+        m_nodes[i] = node;
+        if (++m_size * 4 > m_nodes.length * 3)
+            rehash (m_nodes.length << 1);
+    }
+
+    int size () {
+        return m_size;
+    }
+
+    /**
+     * Returns node stored in the given slot, null for empty slots.
+     * Slots are numbered from 0 to capacity() - 1.
+     */
+    EdNode slot (int i) {
+        return m_nodes[i];
+    }
+
+    int capacity () {
+        return m_nodes.length;
+    }
+
+    private void rehash (int capacity) {
+        long[] xs = m_xs;
+        long[] ys = m_ys;
+        EdNode[] nodes = m_nodes;
+        allocate (capacity);
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == null)
+                continue;
+            int j = findSlot(xs[i], ys[i]);
+            m_xs[j] = xs[i];
+            m_ys[j] = ys[i];
+            m_nodes[j] = nodes[i];
+            ++m_size;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.Arrays;
+
+/**
+ * Conservative test whether interiors of two closed ways overlap.
+ *
+ * Used to skip the Clipper for subjects which are disjoint with the clip way or
+ * only touch it (shared nodes or shared edges of neighbouring areas). Edges of
+ * both ways are split at all contact points, every resulting piece lies either
+ * on the boundary, inside or outside the other way, which is decided from its
+ * midpoint. Any uncertainty answers "may overlap".
+ *
+ * Works in projected coordinates, the same ones AngPolygonClipper uses.
+ */
+final class PolygonOverlap {
+
+    // distance treated as contact, below Clipper fixed point resolution
+    private static final double tolerance = 1e-9;
+
+    private static final int OUTSIDE = 0;
+    private static final int INSIDE = 1;
+    private static final int BOUNDARY = 2;
+
+    private static final class Ring {
+        final int n;
+        final double[] x;
+        final double[] y;
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+        Ring (EdWay way) {
+            // closed way, the last node repeats the first one
+            n = way.getNodesCount() - 1;
+            x = new double[n + 1];
+            y = new double[n + 1];
+            for (int i = 0; i <= n; i++) {
+                EdNode node = way.getNode(i);
+                x[i] = node.east();
+                y[i] = node.north();
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+        }
+
+        boolean bboxIntersects (double min_x, double max_x, double min_y, double max_y) {
+            return min_x <= maxX + tolerance && max_x >= minX - tolerance &&
+                   min_y <= maxY + tolerance && max_y >= minY - tolerance;
+        }
+    }
+
+    private PolygonOverlap () {
+    }
+
+    /**
+     * Returns false if interiors of the closed ways certainly don't overlap,
+     * i.e. the ways are disjoint or only touch.
+     * @param a closed way
+     * @param b closed way
+     * @return true if interiors may overlap
+     */
+    static boolean interiorsMayOverlap (EdWay a, EdWay b) {
+        if (!a.isClosed() || !b.isClosed())
+            return true;
+        Ring ra = new Ring(a);
+        Ring rb = new Ring(b);
+        if (ra.n < 3 || rb.n < 3)
+            return true;
+        if (!ra.bboxIntersects(rb.minX, rb.maxX, rb.minY, rb.maxY))
+            return false;
+
+        // Both rings must have a piece outside the other one, identical rings
+        // have their boundaries completely shared.
+        return !hasPiecesOnlyOutside(ra, rb) || !hasPiecesOnlyOutside(rb, ra);
+    }
+
+    /**
+     * Returns true if no edge of ring a crosses ring b, no piece of ring a lies
+     * inside ring b and at least one piece lies outside.
+     */
+    private static boolean hasPiecesOnlyOutside (Ring a, Ring b) {
+        boolean outside = false;
+        double[] splits = new double[8];
+
+        for (int i = 0; i < a.n; i++) {
+            double ax0 = a.x[i], ay0 = a.y[i], ax1 = a.x[i+1], ay1 = a.y[i+1];
+            double adx = ax1 - ax0, ady = ay1 - ay0;
+            double alen = Math.hypot(adx, ady);
+            if (alen <= tolerance)
+                continue;
+
+            double a_min_x = Math.min(ax0, ax1), a_max_x = Math.max(ax0, ax1);
+            double a_min_y = Math.min(ay0, ay1), a_max_y = Math.max(ay0, ay1);
+            if (!b.bboxIntersects(a_min_x, a_max_x, a_min_y, a_max_y)) {
+                outside = true;
+                continue;
+            }
+
+            int nsplits = 0;
+            for (int j = 0; j < b.n; j++) {
+                double bx0 = b.x[j], by0 = b.y[j], bx1 = b.x[j+1], by1 = b.y[j+1];
+                if (Math.max(bx0, bx1) < a_min_x - tolerance || Math.min(bx0, bx1) > a_max_x + tolerance ||
+                    Math.max(by0, by1) < a_min_y - tolerance || Math.min(by0, by1) > a_max_y + tolerance)
+                    continue;
+
+                // signed distances of b's end points from line a and vice versa
+                double d0 = (adx * (by0 - ay0) - ady * (bx0 - ax0)) / alen;
+                double d1 = (adx * (by1 - ay1) - ady * (bx1 - ax1)) / alen;
+                double bdx = bx1 - bx0, bdy = by1 - by0;
+                double blen = Math.hypot(bdx, bdy);
+                if (blen > tolerance) {
+                    double e0 = (bdx * (ay0 - by0) - bdy * (ax0 - bx0)) / blen;
+                    double e1 = (bdx * (ay1 - by0) - bdy * (ax1 - bx0)) / blen;
+                    if (strictlyOpposite(d0, d1) && strictlyOpposite(e0, e1))
+                        return false;
+                }
+
+                // b's vertex touching edge a splits it, the other end point is
+                // handled by the next edge of b
+                if (Math.abs(d0) <= tolerance) {
+                    double t = (adx * (bx0 - ax0) + ady * (by0 - ay0)) / (alen * alen);
+                    if (t * alen > tolerance && (1 - t) * alen > tolerance) {
+                        if (nsplits == splits.length)
+                            splits = Arrays.copyOf(splits, 2 * nsplits);
+                        splits[nsplits++] = t;
+                    }
+                }
+            }
+
+            Arrays.sort(splits, 0, nsplits);
+            double t0 = 0;
+            for (int k = 0; k <= nsplits; k++) {
+                double t1 = k < nsplits ? splits[k] : 1;
+                if ((t1 - t0) * alen > tolerance) {
+                    double t = (t0 + t1) / 2;
+                    int where = classifyPoint(b, ax0 + t * adx, ay0 + t * ady);
+                    if (where == INSIDE)
+                        return false;
+                    if (where == OUTSIDE)
+                        outside = true;
+                }
+                t0 = t1;
+            }
+        }
+        return outside;
+    }
+
+    private static boolean strictlyOpposite (double d0, double d1) {
+        return (d0 > tolerance && d1 < -tolerance) || (d0 < -tolerance && d1 > tolerance);
+    }
+
+    /**
+     * Classifies point against ring (even-odd rule, the same as nonzero one
+     * for simple rings).
+     */
+    private static int classifyPoint (Ring r, double px, double py) {
+        boolean inside = false;
+        for (int j = 0; j < r.n; j++) {
+            double x0 = r.x[j], y0 = r.y[j], x1 = r.x[j+1], y1 = r.y[j+1];
+            if (pointSegmentDistance(px, py, x0, y0, x1, y1) <= tolerance)
+                return BOUNDARY;
+            if ((y0 > py) != (y1 > py)) {
+                double xc = x0 + (py - y0) * (x1 - x0) / (y1 - y0);
+                if (px < xc)
+                    inside = !inside;
+            }
+        }
+        return inside ? INSIDE : OUTSIDE;
+    }
+
+    private static double pointSegmentDistance (double px, double py, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 > 0 ? ((px - x0) * dx + (py - y0) * dy) / len2 : 0;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (x0 + t * dx), py - (y0 + t * dy));
+    }
+}
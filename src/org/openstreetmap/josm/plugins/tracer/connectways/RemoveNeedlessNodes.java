@@ -20,11 +20,16 @@
 package org.openstreetmap.josm.plugins.tracer.connectways;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 
 public class RemoveNeedlessNodes {
     private final IEdAreaPredicate m_filter;
@@ -39,12 +44,15 @@ public class RemoveNeedlessNodes {
     private final double m_MinimalVertexAngle;
     private final BBox m_removeBBox; // can be null
 
+    private final boolean m_debug;
+
     public RemoveNeedlessNodes (IEdAreaPredicate filter, GeomDeviation xte_deviation, double minimal_vertex_angle, BBox remove_bbox) {
         m_filter = filter;
         m_negatedFilter = new NegatedAreaPredicate(filter);
         m_XteDeviation = xte_deviation;
         m_MinimalVertexAngle = minimal_vertex_angle;
         m_removeBBox = remove_bbox;
+        m_debug = TracerLog.isTrace();
     }
 
     public RemoveNeedlessNodes (IEdAreaPredicate filter, GeomDeviation xte_deviation, double minimal_vertex_angle) {
@@ -52,14 +60,20 @@ public class RemoveNeedlessNodes {
     }
 
 
+    // Ed* objects have identity semantics, IdentityHashMap avoids per-entry allocations of HashSet
+    private static <T> Set<T> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+    }
+
     public void removeNeedlessNodes(Set<EdWay> input_ways) {
 
-        System.out.println("Removing needless nodes");
+        TracerLog.debug("Removing needless nodes");
+        long start_time = TracerLog.start();
 
-        m_requiredNodes = new HashSet<>();
-        m_validBindingsCache = new HashSet<>();
-        m_nodesToRemove = new HashSet<>();
-        m_removeInWays = new HashSet<>();
+        m_requiredNodes = newIdentitySet();
+        m_validBindingsCache = newIdentitySet();
+        m_nodesToRemove = newIdentitySet();
+        m_removeInWays = newIdentitySet();
 
         Set<EdWay> ways = new HashSet<>();
         for (EdWay way: input_ways) {
@@ -80,6 +94,7 @@ public class RemoveNeedlessNodes {
         for (EdWay way: m_removeInWays) {
             removeNeedlessNodesInWay(way);
         }
+        TracerLog.stop("connectways.removeNeedlessNodes", start_time);
     }
 
     private void removeNeedlessNodesInWay(EdWay way) {
@@ -99,7 +114,8 @@ public class RemoveNeedlessNodes {
                 result.add(n);
             }
             else {
-                System.out.println(" + Removing needless node " + Long.toString(n.getUniqueId()) + " from way " + Long.toString(way.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug(" + Removing needless node " + Long.toString(n.getUniqueId()) + " from way " + Long.toString(way.getUniqueId()));
                 modified = true;
             }
         }
@@ -134,6 +150,20 @@ public class RemoveNeedlessNodes {
         if (first < 0)
             first = 0;
 
+        // projected and geographic coordinates of all nodes, computed once per way
+        double[] east = new double[ncount];
+        double[] north = new double[ncount];
+        double[] lat = new double[ncount];
+        double[] lon = new double[ncount];
+        for (int i = 0; i < ncount; i++) {
+            EdNode node = nodes.get(i);
+            east[i] = node.east();
+            north[i] = node.north();
+            LatLon ll = node.getCoor();
+            lat[i] = ll.lat();
+            lon[i] = ll.lon();
+        }
+
         int last = closed ? first : ncount - 1;
         int start = first;
         do {
@@ -144,54 +174,85 @@ public class RemoveNeedlessNodes {
                     break;
             }
 
-            selectNeedlessNodesInSegment(nodes, start, i, ncount);
+            selectNeedlessNodesInSegment(nodes, east, north, lat, lon, start, i, ncount);
             start = i;
 
         } while (start != last);
     }
 
-    private void selectNeedlessNodesInSegment(List<EdNode> nodes, int first, int last, int ncount) {
+    private void selectNeedlessNodesInSegment(List<EdNode> nodes, double[] east, double[] north, double[] lat, double[] lon,
+            int first_segment, int last_segment, int ncount) {
 
-        if (first == last)
-            return;
-        int i = (first + 1) % ncount;
-        if (i == last)
-            return;
+        double tol_distance = m_XteDeviation.distanceMeters();
+        double tol_angle = m_XteDeviation.angleRad();
 
-        EdNode n1 = nodes.get(first);
-        EdNode n2 = nodes.get(last);
-
-        int imaxd = -1;
-        double maxd = -1;
-        int imaxa = -1;
-        double maxa = -1;
-
-        for (; i != last; i = (i + 1) % ncount) {
-            EdNode p = nodes.get(i);
-            GeomDeviation dev = GeomUtils.pointDeviationFromSegment(p, n1, n2);
-            System.out.println(" - Xte distance: " + Double.toString(dev.distanceMeters()) + ", angle: " + Double.toString(Math.toDegrees(dev.angleRad())) + ", p: " + Long.toString(p.getUniqueId()) + ", n1: " + Long.toString(n1.getUniqueId()) + ", n2: " + Long.toString(n2.getUniqueId()));
-            if (!dev.inTolerance(m_XteDeviation)) {
-                if (imaxd < 0 || dev.distanceMeters() > maxd) {
-                    imaxd = i;
-                    maxd = dev.distanceMeters();
-                }
-                if (imaxa < 0 || dev.angleRad() > maxa) {
-                    imaxa = i;
-                    maxa = dev.angleRad();
+        // explicit stack of (first, last) segments, processed in the same order
+        // as the former recursive implementation
+        int[] stack = new int[32];
+        int sp = 0;
+        stack[sp++] = first_segment;
+        stack[sp++] = last_segment;
+
+        while (sp > 0) {
+            int last = stack[--sp];
+            int first = stack[--sp];
+
+            if (first == last)
+                continue;
+            int i = (first + 1) % ncount;
+            if (i == last)
+                continue;
+
+            double x1 = east[first], y1 = north[first];
+            double x2 = east[last], y2 = north[last];
+
+            int imaxd = -1;
+            double maxd = -1;
+            int imaxa = -1;
+            double maxa = -1;
+
+            for (; i != last; i = (i + 1) % ncount) {
+                double px = east[i], py = north[i];
+
+                double t = GeomUtils.closestPointOnSegment(px, py, x1, y1, x2, y2);
+                double dist = GeomUtils.distanceMeters(lat[i], lon[i],
+                    lat[first] + t * (lat[last] - lat[first]),
+                    lon[first] + t * (lon[last] - lon[first]));
+                double a1 = GeomUtils.unorientedAngleBetweenLatLon(lat[first], lon[first], lat[last], lon[last], lat[i], lon[i]);
+                double a2 = GeomUtils.unorientedAngleBetweenLatLon(lat[last], lon[last], lat[first], lon[first], lat[i], lon[i]);
+                double angle = Math.max(a1, a2);
+
+                if (m_debug)
+                    TracerLog.trace(" - Xte distance: " + Double.toString(dist) + ", angle: " + Double.toString(Math.toDegrees(angle)) + ", p: " + Long.toString(nodes.get(i).getUniqueId()) + ", n1: " + Long.toString(nodes.get(first).getUniqueId()) + ", n2: " + Long.toString(nodes.get(last).getUniqueId()));
+
+                if (dist > tol_distance || angle > tol_angle) {
+                    if (imaxd < 0 || dist > maxd) {
+                        imaxd = i;
+                        maxd = dist;
+                    }
+                    if (imaxa < 0 || angle > maxa) {
+                        imaxa = i;
+                        maxa = angle;
+                    }
                 }
             }
-        }
 
-        if (imaxd >= 0 || imaxa >= 0) {
-            int imax = (imaxd >= 0) ? imaxd : imaxa;
-            m_requiredNodes.add(nodes.get(imax));
-            selectNeedlessNodesInSegment(nodes, first, imax, ncount);
-            selectNeedlessNodesInSegment(nodes, imax, last, ncount);
-            return;
-        }
+            if (imaxd >= 0 || imaxa >= 0) {
+                int imax = (imaxd >= 0) ? imaxd : imaxa;
+                m_requiredNodes.add(nodes.get(imax));
+                if (sp + 4 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                // push right part first, left part is processed first
+                stack[sp++] = imax;
+                stack[sp++] = last;
+                stack[sp++] = first;
+                stack[sp++] = imax;
+                continue;
+            }
 
-        for (i = (first + 1) % ncount; i != last; i = (i + 1) % ncount) {
-            m_nodesToRemove.add(nodes.get(i));
+            for (i = (first + 1) % ncount; i != last; i = (i + 1) % ncount) {
+                m_nodesToRemove.add(nodes.get(i));
+            }
         }
     }
 
@@ -209,8 +270,8 @@ public class RemoveNeedlessNodes {
             return;
         }
 
-        List<Bounds> bounds = way.getEditor().getDataSet().getDataSourceBounds();
-        Set<EdNode> seen_nodes = new HashSet<>();
+        List<Bounds> bounds = way.getEditor().getDataSourceBounds();
+        Set<EdNode> seen_nodes = newIdentitySet();
 
         for (int i = 0; i < ncount; i++) {
             EdNode cur_node = nodes.get(i);
@@ -242,7 +303,8 @@ public class RemoveNeedlessNodes {
                 // filter out nodes outside downloaded area
                 if (!cur_node.isInsideBounds(bounds, LatLonSize.Zero)) {
                     m_requiredNodes.add(cur_node);
-                    System.out.println(" - Outside-bounds node " + Long.toString(cur_node.getUniqueId()));
+                    if (m_debug)
+                        TracerLog.trace(" - Outside-bounds node " + Long.toString(cur_node.getUniqueId()));
                     continue;
                 }
 
@@ -266,7 +328,8 @@ public class RemoveNeedlessNodes {
                 EdNode next_node = nodes.get((i + 1) % ncount);
                 if (!nodeHasSameNeighborsInAllWays(cur_node, way, referrers, prev_node, next_node)) {
                     m_requiredNodes.add(cur_node);
-                    System.out.println(" - Junction node " + Long.toString(cur_node.getUniqueId()));
+                    if (m_debug)
+                        TracerLog.trace(" - Junction node " + Long.toString(cur_node.getUniqueId()));
                     continue;
                 }
 
@@ -275,7 +338,8 @@ public class RemoveNeedlessNodes {
                     double angle = GeomUtils.unorientedAngleBetween(prev_node, cur_node, next_node);
                     if (angle < m_MinimalVertexAngle) {
                         m_requiredNodes.add(cur_node);
-                        System.out.println(" - Angle node " + Long.toString(cur_node.getUniqueId()));
+                        if (m_debug)
+                            TracerLog.trace(" - Angle node " + Long.toString(cur_node.getUniqueId()));
                         continue;
                     }
                 }
@@ -283,7 +347,8 @@ public class RemoveNeedlessNodes {
                 m_removeInWays.addAll(referrers);
                 m_validBindingsCache.add(cur_node);
 
-                System.out.println(" - Needless candidate " + Long.toString(cur_node.getUniqueId()));
+                if (m_debug)
+                    TracerLog.trace(" - Needless candidate " + Long.toString(cur_node.getUniqueId()));
             }
         }
     }
@@ -19,6 +19,8 @@
 
 package org.openstreetmap.josm.plugins.tracer.connectways;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import org.openstreetmap.josm.Main;
@@ -113,18 +115,45 @@ public class RetraceUpdater {
     }
 
     private void updateRetracedMultipolygonWaysAgressive(EdMultipolygon retrace_multipolygon, EdMultipolygon new_multipolygon, boolean out) {
-        // #### use pairing based on way area intersection?
-
         List<EdWay> retraces = out ? retrace_multipolygon.outerWays() : retrace_multipolygon.innerWays();
         List<EdWay> news = out ? new_multipolygon.outerWays() : new_multipolygon.innerWays();
-        int ridx = 0;
 
-        for (EdWay new_way : news) {
-            // update geometry of existing way
+        // pair existing ways with new ways based on area of their intersection
+        List<List<EdNode>> new_nodes = new ArrayList<>(news.size());
+        for (EdWay new_way: news)
+            new_nodes.add(new_way.getNodes());
+        WayPairing pairing = new WayPairing(retraces, new_nodes, WayPairing.Similarity.intersectionArea);
+
+        int[] retrace_for_new = new int[news.size()];
+        boolean[] retrace_used = new boolean[retraces.size()];
+        Arrays.fill(retrace_for_new, -1);
+        for (int r = 0; r < retraces.size(); r++) {
+            int n = pairing.pairedDst(r);
+            if (n >= 0) {
+                retrace_for_new[n] = r;
+                retrace_used[r] = true;
+            }
+        }
+
+        // pair the remaining ways in the original order, so that existing ways are reused
+        // whenever possible
+        int ridx = 0;
+        for (int n = 0; n < news.size(); n++) {
+            if (retrace_for_new[n] >= 0)
+                continue;
+            while (ridx < retraces.size() && retrace_used[ridx])
+                ridx++;
             if (ridx < retraces.size()) {
-                EdWay retrace_way = retraces.get(ridx++);
-                retrace_way.setNodes(new_way.getNodes());
+                retrace_for_new[n] = ridx;
+                retrace_used[ridx] = true;
             }
+        }
+
+        for (int n = 0; n < news.size(); n++) {
+            EdWay new_way = news.get(n);
+            // update geometry of existing way
+            if (retrace_for_new[n] >= 0)
+                retraces.get(retrace_for_new[n]).setNodes(new_way.getNodes());
             // no more existing ways available, add new way
             else if (out)
                 retrace_multipolygon.addOuterWay(new_way);
@@ -133,11 +162,13 @@ public class RetraceUpdater {
         }
 
         // remove unused old ways if the new multipolygon has less ways than the old one
-        for (int i = ridx; i < retraces.size(); i++) {
+        for (int r = 0; r < retraces.size(); r++) {
+            if (retrace_used[r])
+                continue;
             if (out)
-                retrace_multipolygon.removeOuterWay(retraces.get(i));
+                retrace_multipolygon.removeOuterWay(retraces.get(r));
             else
-                retrace_multipolygon.removeInnerWay(retraces.get(i));
+                retrace_multipolygon.removeInnerWay(retraces.get(r));
         }
     }
 
@@ -0,0 +1,122 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.swing.Icon;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.tools.ImageProvider;
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * Adds new nodes and moves original nodes of a trace result in one command.
+ *
+ * Replaces one AddCommand per new node and one ChangeCommand per moved node,
+ * which keep a full copy of every changed node in the undo stack. Moves are
+ * stored as coordinate arrays and applied/reverted in one pass. Nodes with
+ * changed tags are not handled here, they need a ChangeCommand.
+ */
+public final class TraceNodesCommand extends Command {
+
+    private final Node[] m_addNodes;
+
+    private final Node[] m_moveNodes;
+    // (old lat, old lon, new lat, new lon) quadruples
+    private final double[] m_moveCoors;
+    private final boolean[] m_moveModified;
+
+    TraceNodesCommand (List<Node> add_nodes, List<Node> move_nodes, List<LatLon> move_coors) {
+        m_addNodes = add_nodes.toArray(new Node[add_nodes.size()]);
+        m_moveNodes = move_nodes.toArray(new Node[move_nodes.size()]);
+        m_moveCoors = new double[m_moveNodes.length * 4];
+        m_moveModified = new boolean[m_moveNodes.length];
+        for (int i = 0; i < m_moveNodes.length; i++) {
+            LatLon old_coor = m_moveNodes[i].getCoor();
+            LatLon new_coor = move_coors.get(i);
+            m_moveCoors[4*i] = old_coor.lat();
+            m_moveCoors[4*i+1] = old_coor.lon();
+            m_moveCoors[4*i+2] = new_coor.lat();
+            m_moveCoors[4*i+3] = new_coor.lon();
+        }
+    }
+
+    boolean isEmpty () {
+        return m_addNodes.length == 0 && m_moveNodes.length == 0;
+    }
+
+    @Override
+    public boolean executeCommand() {
+        DataSet ds = getLayer().data;
+        for (Node n: m_addNodes) {
+            ds.addPrimitive(n);
+            n.setModified(true);
+        }
+        for (int i = 0; i < m_moveNodes.length; i++) {
+            Node n = m_moveNodes[i];
+            m_moveModified[i] = n.isModified();
+            n.setCoor(new LatLon(m_moveCoors[4*i+2], m_moveCoors[4*i+3]));
+            n.setModified(true);
+        }
+        return true;
+    }
+
+    @Override
+    public void undoCommand() {
+        DataSet ds = getLayer().data;
+        for (int i = m_moveNodes.length - 1; i >= 0; i--) {
+            Node n = m_moveNodes[i];
+            n.setCoor(new LatLon(m_moveCoors[4*i], m_moveCoors[4*i+1]));
+            n.setModified(m_moveModified[i]);
+        }
+        for (int i = m_addNodes.length - 1; i >= 0; i--)
+            ds.removePrimitive(m_addNodes[i]);
+    }
+
+    @Override
+    public void fillModifiedData(Collection<OsmPrimitive> modified, Collection<OsmPrimitive> deleted, Collection<OsmPrimitive> added) {
+        modified.addAll(Arrays.asList(m_moveNodes));
+        added.addAll(Arrays.asList(m_addNodes));
+    }
+
+    @Override
+    public Collection<? extends OsmPrimitive> getParticipatingPrimitives() {
+        List<OsmPrimitive> result = new ArrayList<>(m_addNodes.length + m_moveNodes.length);
+        result.addAll(Arrays.asList(m_addNodes));
+        result.addAll(Arrays.asList(m_moveNodes));
+        return result;
+    }
+
+    @Override
+    public String getDescriptionText() {
+        return tr("Add {0} nodes, move {1} nodes", m_addNodes.length, m_moveNodes.length);
+    }
+
+    @Override
+    public Icon getDescriptionIcon() {
+        return ImageProvider.get("data", "node");
+    }
+}
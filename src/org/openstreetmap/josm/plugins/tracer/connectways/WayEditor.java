@@ -22,15 +22,19 @@ package org.openstreetmap.josm.plugins.tracer.connectways;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
 import org.openstreetmap.josm.command.AddCommand;
 import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
@@ -38,13 +42,16 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.tools.Geometry;
+import org.openstreetmap.josm.tools.Pair;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 
 public class WayEditor {
 
     private final LatLonSize minimalOversize = new LatLonSize(0.0000005, 0.0000005);
+    private static final double snapshotCellMeters = 10.0;
 
     private final double m_duplicateNodesPrecision;
 
@@ -54,9 +61,15 @@ public class WayEditor {
     private final Set<EdNode> m_nodes;
     private final Set<EdWay> m_ways;
     private final Set<EdMultipolygon> m_multipolygons;
-    private final HashMap<Long, EdNode> m_originalNodes;
-    private final HashMap<Long, EdWay> m_originalWays;
-    private final HashMap<Long, EdMultipolygon> m_originalMultipolygons;
+    private final LongObjectMap<EdNode> m_originalNodes;
+    private final LongObjectMap<EdWay> m_originalWays;
+    private final LongObjectMap<EdMultipolygon> m_originalMultipolygons;
+
+    // memoized area predicate results, keyed by Match identity,
+    // cleared whenever an edited way or multipolygon changes
+    private final Map<Match, Map<EdObject, Boolean>> m_areaPredicateCache;
+
+    private NeighbourhoodSnapshot m_snapshot;
 
     public WayEditor(DataSet dataset) {
         this (dataset, 0.0);
@@ -69,9 +82,10 @@ public class WayEditor {
         m_nodes = new HashSet<> ();
         m_ways = new HashSet<> ();
         m_multipolygons = new HashSet<> ();
-        m_originalNodes = new HashMap<> ();
-        m_originalWays = new HashMap<> ();
-        m_originalMultipolygons = new HashMap<> ();
+        m_originalNodes = new LongObjectMap<> (1024);
+        m_originalWays = new LongObjectMap<> (256);
+        m_originalMultipolygons = new LongObjectMap<> ();
+        m_areaPredicateCache = new IdentityHashMap<> ();
         m_duplicateNodesPrecision = GeomUtils.duplicateNodesPrecision();
     }
 
@@ -79,6 +93,57 @@ public class WayEditor {
         return m_dataSet;
     }
 
+    /**
+     * Takes a snapshot of the DataSet around the traced object, DataSet searches
+     * inside the given bbox are then answered from the snapshot. Must be called
+     * before any editing, can be disabled by "tracer.neighbourhood_snapshot" preference.
+     * @param bbox area to snapshot
+     */
+    public void snapshotNeighbourhood(BBox bbox) {
+        if (!Main.pref.getBoolean("tracer.neighbourhood_snapshot", true))
+            return;
+        long start_time = TracerLog.start();
+        m_snapshot = new NeighbourhoodSnapshot(m_dataSet, bbox, LatLonSize.get(bbox, snapshotCellMeters));
+        TracerLog.stop("connectways.snapshotNeighbourhood", start_time);
+        if (TracerLog.isDebug())
+            TracerLog.debug("WayEditor: snapshot of " + Integer.toString(m_snapshot.nodesCount()) + " nodes, bbox: " + bbox.toString());
+    }
+
+    /**
+     * Returns data source bounds of the DataSet.
+     */
+    public List<Bounds> getDataSourceBounds() {
+        if (m_snapshot != null)
+            return m_snapshot.getDataSourceBounds();
+        return m_dataSet.getDataSourceBounds();
+    }
+
+    /**
+     * Returns usable DataSet nodes inside the download area lying in the bbox.
+     */
+    private List<Node> searchUsableNodes(BBox bbox) {
+        if (m_snapshot != null && m_snapshot.covers(bbox))
+            return m_snapshot.searchNodes(bbox);
+        List<Node> result = new ArrayList<>();
+        for (Node nd : m_dataSet.searchNodes(bbox)) {
+            if (nd.isUsable() && !nd.isOutsideDownloadArea())
+                result.add(nd);
+        }
+        return result;
+    }
+
+    private List<Way> searchDataSetWays(BBox bbox) {
+        if (m_snapshot != null && m_snapshot.covers(bbox))
+            return m_snapshot.searchWays(bbox);
+        return m_dataSet.searchWays(bbox);
+    }
+
+    private List<Relation> searchDataSetRelations(BBox bbox) {
+        if (m_snapshot != null && m_snapshot.covers(bbox))
+            return m_snapshot.searchRelations(bbox);
+        return m_dataSet.searchRelations(bbox);
+    }
+
     public EdNode newNode(LatLon latlon) {
         EdNode node = new EdNode(this, latlon);
         m_nodes.add(node);
@@ -168,6 +233,28 @@ public class WayEditor {
         return emp;
     }
 
+    /**
+     * Returns cache of area predicate results for the given filter. The cache
+     * is valid until the next modification of an edited way or multipolygon.
+     */
+    Map<EdObject, Boolean> areaPredicateCache(Match filter) {
+        Map<EdObject, Boolean> cache = m_areaPredicateCache.get(filter);
+        if (cache == null) {
+            cache = new IdentityHashMap<> ();
+            m_areaPredicateCache.put(filter, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Invalidates memoized area predicate results, called on tag and membership
+     * changes of edited ways and multipolygons.
+     */
+    void areaModified() {
+        if (!m_areaPredicateCache.isEmpty())
+            m_areaPredicateCache.clear();
+    }
+
     boolean isEdited(OsmPrimitive prim) {
         if (prim instanceof Node) {
             EdNode en = m_originalNodes.get(prim.getUniqueId());
@@ -199,64 +286,143 @@ public class WayEditor {
         return obj.getEditor() == this;
     }
 
-    Set<EdNode> findExistingNodesTouchingWaySegment(GeomDeviation tolerance, LatLonSize oversize, EdNode x, EdNode y, IEdNodePredicate filter) {
-        Node nx = new Node(x.currentNodeUnsafe());
-        Node ny = new Node(y.currentNodeUnsafe());
-        BBox bbox = new BBox (nx);
-        bbox.addPrimitive (ny, 0);
-        BBoxUtils.extendBBox(bbox, oversize);
-
-        Set<EdNode> result = new HashSet<>();
+    /**
+     * Finds all existing nodes touching segments of the given way and assigns
+     * every node to the closest touching segment. Candidate nodes are fetched
+     * once for the whole way and tested only against segments in their grid cell.
+     *
+     * @param tolerance maximal deviation tolerances of touching nodes
+     * @param oversize extension of segment bboxes used to fetch candidate nodes
+     * @param way_nodes nodes of the way
+     * @param filter predicate to rule out unwanted nodes
+     * @return map of touching nodes to (distance, segment index) pairs
+     */
+    Map<EdNode, Pair<Double, Integer>> findExistingNodesTouchingWay(GeomDeviation tolerance, LatLonSize oversize, List<EdNode> way_nodes, IEdNodePredicate filter) {
+        Map<EdNode, Pair<Double, Integer>> result = new HashMap<>();
+
+        WaySegmentGrid grid = new WaySegmentGrid(way_nodes, oversize);
+        BBox bbox = grid.getBBox();
+        if (bbox == null)
+            return result;
 
         // (1) edited nodes
         for (EdNode ednd: searchEdNodes(bbox)) {
-            if (ednd.isDeleted())
-                continue;
             if (!filter.evaluate(ednd))
                 continue;
-            if (!GeomUtils.pointDeviationFromSegment(ednd.currentNodeUnsafe(), nx, ny).inTolerance(tolerance))
-                continue;
-            result.add(ednd);
+            Pair<Double, Integer> best_segment = closestTouchingSegment(grid, tolerance, ednd.currentNodeUnsafe());
+            if (best_segment != null)
+                result.put(ednd, best_segment);
         }
 
         // (2) original nodes that are not tracked yet
-        for (Node nd : getDataSet().searchNodes(bbox)) {
-            if (!nd.isUsable() || nd.isOutsideDownloadArea())
-                continue;
+        for (Node nd : searchUsableNodes(bbox)) {
             if (isEdited(nd))
                 continue;
             if (!filter.evaluate(nd))
                 continue;
-            if (!GeomUtils.pointDeviationFromSegment(nd, nx, ny).inTolerance(tolerance))
-                continue;
-            result.add(useNode(nd));
+            Pair<Double, Integer> best_segment = closestTouchingSegment(grid, tolerance, nd);
+            if (best_segment != null)
+                result.put(useNode(nd), best_segment);
         }
 
         return result;
     }
 
-    Set<EdNode> findExistingNodesInBBox(BBox bbox, IEdNodePredicate filter) {
-
-        Set<EdNode> result = new HashSet<>();
+    /**
+     * Returns the closest segment of the grid touched by the node,
+     * lower segment index wins for equal distances.
+     */
+    static Pair<Double, Integer> closestTouchingSegment(WaySegmentGrid grid, GeomDeviation tolerance, Node node) {
+        LatLon ll = node.getCoor();
+        int cell = grid.cellOf(ll);
+        if (cell < 0)
+            return null;
+        EastNorth en = node.getEastNorth();
 
-        // (1) original nodes that are not tracked yet
-        for (Node nd : getDataSet().searchNodes(bbox)) {
-            if (!nd.isUsable() || nd.isOutsideDownloadArea())
+        Pair<Double, Integer> best_segment = null;
+        for (int k = grid.cellBegin(cell); k < grid.cellEnd(cell); k++) {
+            int seg = grid.cellSegment(k);
+            if (!grid.segmentBounds(seg, ll))
                 continue;
+            GeomDeviation deviation = GeomUtils.pointDeviationFromSegment(en.getX(), en.getY(), ll,
+                grid.segmentFirstNode(seg), grid.segmentSecondNode(seg));
+            if (!deviation.inTolerance(tolerance))
+                continue;
+            double dist = deviation.distanceMeters();
+            if (best_segment == null || best_segment.a > dist)
+                best_segment = new Pair<> (dist, seg);
+        }
+        return best_segment;
+    }
+
+    /**
+     * Finds existing nodes near the first <code>count</code> nodes. For every node returns
+     * usable DataSet nodes inside the download area and edited EdNodes lying in the node
+     * bbox extended by <code>oversize</code>; an original node that is already edited is
+     * returned as its EdNode. DataSet is searched only once for the whole area and the
+     * bbox queries are answered from a point index.
+     *
+     * @param nodes nodes to search near nodes for
+     * @param count number of nodes to process
+     * @param oversize extension of node bboxes
+     * @param filter predicate to rule out unwanted nodes
+     * @return array of near nodes, result[i] contains nodes found for nodes.get(i)
+     */
+    EdNode[][] findExistingNodesNearNodes(List<EdNode> nodes, int count, LatLonSize oversize, IEdNodePredicate filter) {
+        EdNode[][] result = new EdNode[count][];
+        if (count <= 0)
+            return result;
+
+        BBox bbox = nodes.get(0).getBBox();
+        for (int i = 1; i < count; i++)
+            bbox.add(nodes.get(i).getCoor());
+        BBoxUtils.extendBBox(bbox, oversize);
+
+        // (1) collect candidates, original nodes are converted to EdNodes only when they
+        //     fall into any node bbox
+        List<Node> cand_nodes = new ArrayList<>();
+        List<EdNode> cand_ednodes = new ArrayList<>();
+        for (Node nd : searchUsableNodes(bbox)) {
             if (isEdited(nd))
                 continue;
             if (!filter.evaluate(nd))
                 continue;
-            result.add(useNode(nd));
+            cand_nodes.add(nd);
+            cand_ednodes.add(null);
         }
-
-        // (2) edited nodes
         for (EdNode ednd: searchEdNodes(bbox)) {
-            if (ednd.isDeleted())
-                continue;
             if (!filter.evaluate(ednd))
                 continue;
-            result.add(ednd);
+            cand_nodes.add(null);
+            cand_ednodes.add(ednd);
+        }
+
+        int ncand = cand_nodes.size();
+        double[] lat = new double[ncand];
+        double[] lon = new double[ncand];
+        for (int k = 0; k < ncand; k++) {
+            LatLon ll = cand_ednodes.get(k) != null ? cand_ednodes.get(k).getCoor() : cand_nodes.get(k).getCoor();
+            lat[k] = ll.lat();
+            lon[k] = ll.lon();
+        }
+
+        // (2) answer bbox queries from point index
+        PointGrid grid = new PointGrid(lat, lon, ncand, oversize);
+        for (int i = 0; i < count; i++) {
+            LatLon ll = nodes.get(i).getCoor();
+            int found = grid.query(ll.lat() - oversize.latSize(), ll.lat() + oversize.latSize(),
+                ll.lon() - oversize.lonSize(), ll.lon() + oversize.lonSize());
+            EdNode[] near = new EdNode[found];
+            for (int j = 0; j < found; j++) {
+                int k = grid.result(j);
+                EdNode ednd = cand_ednodes.get(k);
+                if (ednd == null) {
+                    ednd = useNode(cand_nodes.get(k));
+                    cand_ednodes.set(k, ednd);
+                }
+                near[j] = ednd;
+            }
+            result[i] = near;
         }
 
         return result;
@@ -272,9 +438,7 @@ public class WayEditor {
         //     prefer edited EdNodes, use a matching one with the highest ID
         Node node1 = null;
         EdNode ednode1 = null;
-        for (Node nd : getDataSet().searchNodes(bbox)) {
-            if (!nd.isUsable() || nd.isOutsideDownloadArea())
-                continue;
+        for (Node nd : searchUsableNodes(bbox)) {
             EdNode ednd = m_originalNodes.get(nd.getUniqueId());
             if (ednd != null) {
                 if (ednd.isDeleted())
@@ -349,7 +513,7 @@ public class WayEditor {
 
     public List<Command> finalizeEdit (EdObject required_object, double resurrect_dist) {
 
-        System.out.println("WayEditor.finalizeEdit(): ");
+        TracerLog.debug("WayEditor.finalizeEdit(): ");
 
         // reset modified flags, if possible
         updateModifiedFlags();
@@ -441,54 +605,79 @@ public class WayEditor {
             delete_ways.add(w);
         }
 
-        List<Command> cmds = new LinkedList<>();
+        List<Command> cmds = new ArrayList<>();
 
-        // commands to add new nodes
+        // new nodes and moves of original nodes are stored in one compact command,
+        // only original nodes with changed tags need a full ChangeCommand
+        List<Node> add_final_nodes = new ArrayList<>(add_nodes.size());
         for (EdNode n: add_nodes)
-            cmds.add(new AddCommand(n.finalNode()));
+            add_final_nodes.add(n.finalNode());
+        List<Node> move_nodes = new ArrayList<>(change_nodes.size());
+        List<LatLon> move_coors = new ArrayList<>(change_nodes.size());
+        List<EdNode> retag_nodes = new ArrayList<>();
+        for (EdNode n: change_nodes) {
+            Node orig = n.originalNode();
+            Node fin = n.finalNode();
+            if (orig.getKeys().equals(fin.getKeys())) {
+                move_nodes.add(orig);
+                move_coors.add(fin.getCoor());
+            }
+            else
+                retag_nodes.add(n);
+        }
+        TraceNodesCommand nodes_cmd = new TraceNodesCommand(add_final_nodes, move_nodes, move_coors);
+        if (!nodes_cmd.isEmpty())
+            cmds.add(nodes_cmd);
 
-        // commands to change original nodes
-        for (EdNode n: change_nodes)
+        // commands to change tags of original nodes
+        for (EdNode n: retag_nodes)
             cmds.add(new ChangeCommand(n.originalNode(), n.finalNode()));
 
         // commands to add new ways
         for (EdWay w: add_ways) {
             cmds.add(new AddCommand(w.finalWay()));
-            System.out.println(" - add way: " + Long.toString(w.getUniqueId()));
+            if (TracerLog.isDebug())
+                TracerLog.debug(" - add way: " + Long.toString(w.getUniqueId()));
         }
 
         // commands to change original ways
         for (EdWay w: change_ways) {
             cmds.add(new ChangeCommand(w.originalWay(), w.finalWay()));
-            System.out.println(" - change way: " + Long.toString(w.getUniqueId()));
+            if (TracerLog.isDebug())
+                TracerLog.debug(" - change way: " + Long.toString(w.getUniqueId()));
         }
 
         // multipolygon commands
         for (EdMultipolygon emp: m_multipolygons) {
             if (!emp.hasOriginal() && !emp.isDeleted()) {
                 cmds.add(new AddCommand(emp.finalMultipolygon()));
-                System.out.println(" - add multipolygon: " + Long.toString(emp.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug(" - add multipolygon: " + Long.toString(emp.getUniqueId()));
             }
             else if (emp.hasOriginal() && !emp.isDeleted() && emp.isModified()) {
                 cmds.add(new ChangeCommand(emp.originalMultipolygon(), emp.finalMultipolygon()));
-                System.out.println(" - change multipolygon: " + Long.toString(emp.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug(" - change multipolygon: " + Long.toString(emp.getUniqueId()));
             }
             else if (emp.hasOriginal() && emp.isDeleted()) {
                 cmds.add(new DeleteCommand(emp.finalMultipolygon()));
-                System.out.println(" - delete multipolygon: " + Long.toString(emp.getUniqueId()));
+                if (TracerLog.isDebug())
+                    TracerLog.debug(" - delete multipolygon: " + Long.toString(emp.getUniqueId()));
             }
         }
 
         // commands to delete original ways
         for (EdWay w: delete_ways) {
             cmds.add(new DeleteCommand(w.originalWay()));
-            System.out.println(" - delete way: " + Long.toString(w.getUniqueId()));
+            if (TracerLog.isDebug())
+                TracerLog.debug(" - delete way: " + Long.toString(w.getUniqueId()));
         }
 
         // commands to delete original nodes
         for (EdNode n: delete_nodes)
             cmds.add(new DeleteCommand(n.originalNode()));
 
+        TracerLog.count("connectways.commands", cmds.size());
         return cmds;
     }
 
@@ -526,7 +715,7 @@ public class WayEditor {
     }
 
     public boolean insideDataSourceBounds(EdNode node) {
-        List<Bounds> bounds = getDataSet().getDataSourceBounds();
+        List<Bounds> bounds = getDataSourceBounds();
         for (Bounds b: bounds) {
             if (b.contains(node.getCoor()))
                 return true;
@@ -549,7 +738,7 @@ public class WayEditor {
         Node posnode = new Node (pos);
 
         // look for non-edited multipolygons
-        for (Relation rel: getDataSet().searchRelations(bbox)) {
+        for (Relation rel: searchDataSetRelations(bbox)) {
             if (isEdited(rel))
                 continue;
             if (!EdMultipolygon.isUsableRelation(rel))
@@ -562,7 +751,7 @@ public class WayEditor {
         }
 
         // look for non-edited ways
-        for (Way w : getDataSet().searchWays(bbox)) {
+        for (Way w : searchDataSetWays(bbox)) {
             if (!w.isUsable() || isEdited(w) || w.hasIncompleteNodes())
                 continue;
             if (!filter.evaluate(w))
@@ -580,7 +769,7 @@ public class WayEditor {
         Set<EdObject> areas = new HashSet<>();
 
         // look for non-edited multipolygons
-        for (Relation rel: getDataSet().searchRelations(bbox)) {
+        for (Relation rel: searchDataSetRelations(bbox)) {
             if (isEdited(rel))
                 continue;
             if (!EdMultipolygon.isUsableRelation(rel))
@@ -613,7 +802,7 @@ public class WayEditor {
         }
 
         // look for non-edited ways
-        for (Way w : getDataSet().searchWays(bbox)) {
+        for (Way w : searchDataSetWays(bbox)) {
             if (!w.isUsable())
                 continue;
             if (isEdited(w))
@@ -684,7 +873,8 @@ public class WayEditor {
         while ((rnp = queue.poll()) != null) {
             if (!delete_nodes.contains(rnp.delete_node) || !add_nodes.contains(rnp.add_node))
                 continue;
-            System.out.println("Resurrecting node " + Long.toString(rnp.delete_node.getUniqueId()) + " <- " + Long.toString(rnp.add_node.getUniqueId()) + ", dist: " + Double.toString(rnp.distance));
+            if (TracerLog.isDebug())
+                TracerLog.debug("Resurrecting node " + Long.toString(rnp.delete_node.getUniqueId()) + " <- " + Long.toString(rnp.add_node.getUniqueId()) + ", dist: " + Double.toString(rnp.distance));
             add_nodes.remove(rnp.add_node);
             delete_nodes.remove(rnp.delete_node);
             change_nodes.add(rnp.add_node);
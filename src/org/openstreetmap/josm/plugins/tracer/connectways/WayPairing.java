@@ -0,0 +1,328 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+import org.openstreetmap.josm.plugins.tracer.clipper.ClipType;
+import org.openstreetmap.josm.plugins.tracer.clipper.Clipper;
+import org.openstreetmap.josm.plugins.tracer.clipper.ClipperException;
+import org.openstreetmap.josm.plugins.tracer.clipper.Path;
+import org.openstreetmap.josm.plugins.tracer.clipper.Paths;
+import org.openstreetmap.josm.plugins.tracer.clipper.Point2d;
+import org.openstreetmap.josm.plugins.tracer.clipper.PolyType;
+
+/**
+ * Pairs source EdWays with the most similar destination ways.
+ *
+ * Only ways with overlapping bounding boxes are compared (bbox sweep).
+ * Similarity is either the fraction of source nodes shared with the destination
+ * way, or the fraction of source area covered by the destination polygon.
+ * Pairs whose intersection can't be calculated are scored by shared nodes.
+ *
+ * Forward mapping (source -&gt; destination) is a bijection suitable for way
+ * updates, reverse mapping (destination -&gt; source) can map several destination
+ * ways to the same source way. Ways without any similar way are left unpaired.
+ */
+public final class WayPairing {
+
+    public enum Similarity {
+        sharedNodes,
+        intersectionArea
+    }
+
+    // coordinates passed to Clipper are scaled to this range
+    private static final double clipperRange = 1.0e9;
+
+    private final List<EdWay> m_srcs;
+    private final List<List<EdNode>> m_dsts;
+    private final int[] m_srcToDst;
+    private final int[] m_dstToSrc;
+
+    public WayPairing (List<EdWay> srcs, List<List<EdNode>> dsts, Similarity similarity) {
+        m_srcs = srcs;
+        m_dsts = dsts;
+        m_srcToDst = new int[srcs.size()];
+        m_dstToSrc = new int[dsts.size()];
+        Arrays.fill(m_srcToDst, -1);
+        Arrays.fill(m_dstToSrc, -1);
+
+        List<Candidate> candidates = scoreCandidates (findOverlappingPairs(), similarity);
+
+        // most similar pairs first, prefer larger source ways for equal similarities
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate c1, Candidate c2) {
+                int x = -Double.compare(c1.similarity, c2.similarity);
+                if (x != 0)
+                    return x;
+                return -Integer.compare(m_srcs.get(c1.src).getNodesCount(), m_srcs.get(c2.src).getNodesCount());
+            }
+        });
+
+        boolean[] dst_used = new boolean[dsts.size()];
+        for (Candidate c: candidates) {
+            // forward mapping
+            if (m_srcToDst[c.src] < 0 && !dst_used[c.dst]) {
+                m_srcToDst[c.src] = c.dst;
+                dst_used[c.dst] = true;
+            }
+            // reverse mapping
+            if (m_dstToSrc[c.dst] < 0)
+                m_dstToSrc[c.dst] = c.src;
+        }
+    }
+
+    /**
+     * Returns index of the destination way paired with the source way.
+     * @param src source way index
+     * @return destination way index, or -1 if unpaired
+     */
+    public int pairedDst (int src) {
+        return m_srcToDst[src];
+    }
+
+    /**
+     * Returns index of the most similar source way of the destination way.
+     * @param dst destination way index
+     * @return source way index, or -1 if there's no similar source way
+     */
+    public int similarSrc (int dst) {
+        return m_dstToSrc[dst];
+    }
+
+    public Map<EdWay, List<EdNode>> forwardMap () {
+        Map<EdWay, List<EdNode>> result = new IdentityHashMap<>();
+        for (int i = 0; i < m_srcToDst.length; i++)
+            if (m_srcToDst[i] >= 0)
+                result.put(m_srcs.get(i), m_dsts.get(m_srcToDst[i]));
+        return result;
+    }
+
+    public Map<List<EdNode>, EdWay> reverseMap () {
+        Map<List<EdNode>, EdWay> result = new IdentityHashMap<>();
+        for (int i = 0; i < m_dstToSrc.length; i++)
+            if (m_dstToSrc[i] >= 0)
+                result.put(m_dsts.get(i), m_srcs.get(m_dstToSrc[i]));
+        return result;
+    }
+
+    private static final class Candidate {
+        final int src;
+        final int dst;
+        double similarity;
+
+        Candidate (int s, int d) {
+            src = s;
+            dst = d;
+        }
+    }
+
+    private static final class Box {
+        final double minLat, maxLat, minLon, maxLon;
+        final int index;
+        final boolean isSrc;
+
+        Box (List<EdNode> nodes, int idx, boolean src) {
+            double lat1 = Double.POSITIVE_INFINITY, lat2 = Double.NEGATIVE_INFINITY;
+            double lon1 = Double.POSITIVE_INFINITY, lon2 = Double.NEGATIVE_INFINITY;
+            for (EdNode node: nodes) {
+                LatLon ll = node.getCoor();
+                lat1 = Math.min(lat1, ll.lat());
+                lat2 = Math.max(lat2, ll.lat());
+                lon1 = Math.min(lon1, ll.lon());
+                lon2 = Math.max(lon2, ll.lon());
+            }
+            minLat = lat1;
+            maxLat = lat2;
+            minLon = lon1;
+            maxLon = lon2;
+            index = idx;
+            isSrc = src;
+        }
+    }
+
+    /**
+     * Sweeps bounding boxes in longitude order and returns all
+     * source/destination pairs with overlapping (touching) bboxes.
+     */
+    private List<Candidate> findOverlappingPairs () {
+        List<Box> boxes = new ArrayList<>(m_srcs.size() + m_dsts.size());
+        for (int i = 0; i < m_srcs.size(); i++)
+            if (m_srcs.get(i).getNodesCount() > 0)
+                boxes.add(new Box(m_srcs.get(i).getNodes(), i, true));
+        for (int i = 0; i < m_dsts.size(); i++)
+            if (!m_dsts.get(i).isEmpty())
+                boxes.add(new Box(m_dsts.get(i), i, false));
+
+        Collections.sort(boxes, new Comparator<Box>() {
+            @Override
+            public int compare(Box b1, Box b2) {
+                return Double.compare(b1.minLon, b2.minLon);
+            }
+        });
+
+        List<Candidate> result = new ArrayList<>();
+        List<Box> active_srcs = new ArrayList<>();
+        List<Box> active_dsts = new ArrayList<>();
+        for (Box box: boxes) {
+            List<Box> others = box.isSrc ? active_dsts : active_srcs;
+            int k = 0;
+            while (k < others.size()) {
+                Box other = others.get(k);
+                // other box is entirely left of the sweep line, drop it
+                if (other.maxLon < box.minLon) {
+                    others.set(k, others.get(others.size() - 1));
+                    others.remove(others.size() - 1);
+                    continue;
+                }
+                if (other.maxLat >= box.minLat && other.minLat <= box.maxLat) {
+                    if (box.isSrc)
+                        result.add(new Candidate(box.index, other.index));
+                    else
+                        result.add(new Candidate(other.index, box.index));
+                }
+                k++;
+            }
+            (box.isSrc ? active_srcs : active_dsts).add(box);
+        }
+        return result;
+    }
+
+    private List<Candidate> scoreCandidates (List<Candidate> candidates, Similarity similarity) {
+        List<Candidate> result = new ArrayList<>(candidates.size());
+
+        // unique node sets are built lazily, only for ways in candidate pairs
+        List<Set<EdNode>> src_sets = new ArrayList<>(Collections.<Set<EdNode>>nCopies(m_srcs.size(), null));
+        List<EdNode[]> dst_uniques = new ArrayList<>(Collections.<EdNode[]>nCopies(m_dsts.size(), null));
+        double[] src_areas = new double[m_srcs.size()];
+        Arrays.fill(src_areas, Double.NaN);
+
+        for (Candidate c: candidates) {
+            EdWay src = m_srcs.get(c.src);
+            if (similarity == Similarity.intersectionArea) {
+                if (Double.isNaN(src_areas[c.src]))
+                    src_areas[c.src] = src.getEastNorthArea();
+                try {
+                    double area = intersectionArea(src.getNodes(), m_dsts.get(c.dst));
+                    if (src_areas[c.src] > 0 && area > 0) {
+                        c.similarity = area / src_areas[c.src];
+                        result.add(c);
+                    }
+                    continue;
+                }
+                catch (ClipperException e) {
+                    TracerLog.info("WayPairing: intersection of way " + Long.toString(src.getUniqueId()) +
+                        " failed, scoring by shared nodes: " + e.getMessage());
+                }
+            }
+
+            int shared_nodes = sharedNodesCount(c, src_sets, dst_uniques);
+            if (shared_nodes > 0) {
+                c.similarity = (double)shared_nodes / src.getNodesCount();
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns number of unique nodes shared by the candidate ways.
+     */
+    private int sharedNodesCount (Candidate c, List<Set<EdNode>> src_sets, List<EdNode[]> dst_uniques) {
+        Set<EdNode> src_set = src_sets.get(c.src);
+        if (src_set == null) {
+            src_set = Collections.newSetFromMap(new IdentityHashMap<EdNode, Boolean>());
+            src_set.addAll(m_srcs.get(c.src).getNodes());
+            src_sets.set(c.src, src_set);
+        }
+        EdNode[] dst_unique = dst_uniques.get(c.dst);
+        if (dst_unique == null) {
+            Set<EdNode> dst_set = Collections.newSetFromMap(new IdentityHashMap<EdNode, Boolean>());
+            dst_set.addAll(m_dsts.get(c.dst));
+            dst_unique = dst_set.toArray(new EdNode[dst_set.size()]);
+            dst_uniques.set(c.dst, dst_unique);
+        }
+
+        int shared_nodes = 0;
+        for (EdNode node: dst_unique)
+            if (src_set.contains(node))
+                shared_nodes++;
+        return shared_nodes;
+    }
+
+    /**
+     * Calculates area of intersection of two closed polygons, in the same
+     * units as {@link GeomUtils#getEastNorthArea(java.util.List)}.
+     * @param p1 first polygon
+     * @param p2 second polygon
+     * @return intersection area
+     * @throws ClipperException if the intersection can't be calculated
+     */
+    static double intersectionArea (List<EdNode> p1, List<EdNode> p2) throws ClipperException {
+        if (p1.size() < 3 || p2.size() < 3)
+            return 0;
+
+        double min_x = Double.POSITIVE_INFINITY, max_x = Double.NEGATIVE_INFINITY;
+        double min_y = Double.POSITIVE_INFINITY, max_y = Double.NEGATIVE_INFINITY;
+        List<EdNode> all = new ArrayList<>(p1.size() + p2.size());
+        all.addAll(p1);
+        all.addAll(p2);
+        for (EdNode node: all) {
+            min_x = Math.min(min_x, node.east());
+            max_x = Math.max(max_x, node.east());
+            min_y = Math.min(min_y, node.north());
+            max_y = Math.max(max_y, node.north());
+        }
+        double extent = Math.max(max_x - min_x, max_y - min_y);
+        if (extent <= 0)
+            return 0;
+        double scale = clipperRange / extent;
+
+        Clipper clipper = new Clipper(0);
+        clipper.addPath(toPath(p1, min_x, min_y, scale), PolyType.ptSubject, true);
+        clipper.addPath(toPath(p2, min_x, min_y, scale), PolyType.ptClip, true);
+        Paths solution = new Paths();
+        clipper.execute(ClipType.ctIntersection, solution);
+
+        double area = 0;
+        for (Path path: solution)
+            area += Clipper.area(path);
+        return Math.abs(area) / (scale * scale);
+    }
+
+    private static Path toPath (List<EdNode> nodes, double origin_x, double origin_y, double scale) {
+        Path path = new Path();
+        for (EdNode node: nodes) {
+            long x = Math.round((node.east() - origin_x) * scale);
+            long y = Math.round((node.north() - origin_y) * scale);
+            path.add(new Point2d(x, y));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.connectways;
+
+import java.util.List;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+
+/**
+ * Uniform grid over segments of a way. Every segment is registered in all
+ * cells intersecting its bounding box extended by the given oversize, so
+ * a point lookup returns only segments whose extended bbox may contain the point.
+ * Segments are stored in ascending order within each cell.
+ */
+final class WaySegmentGrid {
+
+    private static final int maxGridDimension = 256;
+
+    private final List<EdNode> m_nodes;
+    private final int m_segmentCount;
+
+    // extended bounding boxes of segments
+    private final double[] m_minLat;
+    private final double[] m_maxLat;
+    private final double[] m_minLon;
+    private final double[] m_maxLon;
+
+    private final BBox m_bbox;
+    private final double m_lat0;
+    private final double m_lon0;
+    private final double m_lat1;
+    private final double m_lon1;
+    private final double m_cellLat;
+    private final double m_cellLon;
+    private final int m_rows;
+    private final int m_cols;
+
+    // cell contents in compressed form, segments of cell c are
+    // m_cellSegments[m_cellStart[c]] .. m_cellSegments[m_cellStart[c+1]-1]
+    private final int[] m_cellStart;
+    private final int[] m_cellSegments;
+
+    WaySegmentGrid (List<EdNode> nodes, LatLonSize oversize) {
+        m_nodes = nodes;
+        m_segmentCount = Math.max(0, nodes.size() - 1);
+
+        m_minLat = new double[m_segmentCount];
+        m_maxLat = new double[m_segmentCount];
+        m_minLon = new double[m_segmentCount];
+        m_maxLon = new double[m_segmentCount];
+
+        double min_lat = Double.POSITIVE_INFINITY;
+        double max_lat = Double.NEGATIVE_INFINITY;
+        double min_lon = Double.POSITIVE_INFINITY;
+        double max_lon = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < m_segmentCount; i++) {
+            LatLon x = nodes.get(i).getCoor();
+            LatLon y = nodes.get(i+1).getCoor();
+            m_minLat[i] = Math.min(x.lat(), y.lat()) - oversize.latSize();
+            m_maxLat[i] = Math.max(x.lat(), y.lat()) + oversize.latSize();
+            m_minLon[i] = Math.min(x.lon(), y.lon()) - oversize.lonSize();
+            m_maxLon[i] = Math.max(x.lon(), y.lon()) + oversize.lonSize();
+            min_lat = Math.min(min_lat, m_minLat[i]);
+            max_lat = Math.max(max_lat, m_maxLat[i]);
+            min_lon = Math.min(min_lon, m_minLon[i]);
+            max_lon = Math.max(max_lon, m_maxLon[i]);
+        }
+
+        if (m_segmentCount == 0) {
+            m_bbox = null;
+            m_lat0 = m_lon0 = 0;
+            m_lat1 = m_lon1 = 0;
+            m_cellLat = m_cellLon = 1;
+            m_rows = m_cols = 0;
+            m_cellStart = new int[1];
+            m_cellSegments = new int[0];
+            return;
+        }
+
+        m_bbox = new BBox(min_lon, min_lat, max_lon, max_lat);
+
+        // roughly one cell per segment
+        int dim = (int)Math.ceil(Math.sqrt(m_segmentCount));
+        dim = Math.max(1, Math.min(dim, maxGridDimension));
+        m_lat0 = min_lat;
+        m_lon0 = min_lon;
+        m_lat1 = max_lat;
+        m_lon1 = max_lon;
+        m_rows = max_lat > min_lat ? dim : 1;
+        m_cols = max_lon > min_lon ? dim : 1;
+        m_cellLat = max_lat > min_lat ? (max_lat - min_lat) / m_rows : 1;
+        m_cellLon = max_lon > min_lon ? (max_lon - min_lon) / m_cols : 1;
+
+        // (1) count segments in cells
+        int[] counts = new int[m_rows * m_cols + 1];
+        for (int i = 0; i < m_segmentCount; i++) {
+            int r1 = row(m_minLat[i]), r2 = row(m_maxLat[i]);
+            int c1 = col(m_minLon[i]), c2 = col(m_maxLon[i]);
+            for (int r = r1; r <= r2; r++)
+                for (int c = c1; c <= c2; c++)
+                    counts[r * m_cols + c]++;
+        }
+
+        m_cellStart = new int[m_rows * m_cols + 1];
+        for (int c = 0; c < m_rows * m_cols; c++)
+            m_cellStart[c+1] = m_cellStart[c] + counts[c];
+
+        // (2) fill cells, segments are processed in ascending order
+        m_cellSegments = new int[m_cellStart[m_rows * m_cols]];
+        int[] fill = new int[m_rows * m_cols];
+        System.arraycopy(m_cellStart, 0, fill, 0, fill.length);
+        for (int i = 0; i < m_segmentCount; i++) {
+            int r1 = row(m_minLat[i]), r2 = row(m_maxLat[i]);
+            int c1 = col(m_minLon[i]), c2 = col(m_maxLon[i]);
+            for (int r = r1; r <= r2; r++)
+                for (int c = c1; c <= c2; c++)
+                    m_cellSegments[fill[r * m_cols + c]++] = i;
+        }
+    }
+
+    private int row (double lat) {
+        int r = (int)Math.floor((lat - m_lat0) / m_cellLat);
+        return Math.max(0, Math.min(r, m_rows - 1));
+    }
+
+    private int col (double lon) {
+        int c = (int)Math.floor((lon - m_lon0) / m_cellLon);
+        return Math.max(0, Math.min(c, m_cols - 1));
+    }
+
+    /**
+     * Returns union of extended bounding boxes of all segments.
+     * @return bbox, or null for ways with less than two nodes
+     */
+    BBox getBBox () {
+        return m_bbox == null ? null : new BBox(m_bbox);
+    }
+
+    int segmentCount () {
+        return m_segmentCount;
+    }
+
+    EdNode segmentFirstNode (int segment) {
+        return m_nodes.get(segment);
+    }
+
+    EdNode segmentSecondNode (int segment) {
+        return m_nodes.get(segment + 1);
+    }
+
+    /**
+     * Returns grid cell containing the given point.
+     * @param ll point
+     * @return cell index, or -1 if the point is outside of the grid
+     */
+    int cellOf (LatLon ll) {
+        if (m_bbox == null)
+            return -1;
+        double lat = ll.lat();
+        double lon = ll.lon();
+        if (lat < m_lat0 || lon < m_lon0 || lat > m_lat1 || lon > m_lon1)
+            return -1;
+        return row(lat) * m_cols + col(lon);
+    }
+
+    int cellBegin (int cell) {
+        return m_cellStart[cell];
+    }
+
+    int cellEnd (int cell) {
+        return m_cellStart[cell + 1];
+    }
+
+    int cellSegment (int index) {
+        return m_cellSegments[index];
+    }
+
+    /**
+     * Tests whether the point lies in extended bounding box of the segment.
+     * @param segment segment index
+     * @param ll point
+     * @return true if the point is inside extended segment bbox
+     */
+    boolean segmentBounds (int segment, LatLon ll) {
+        double lat = ll.lat();
+        double lon = ll.lon();
+        return lat >= m_minLat[segment] && lat <= m_maxLat[segment] &&
+            lon >= m_minLon[segment] && lon <= m_maxLon[segment];
+    }
+}
@@ -24,7 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import org.openstreetmap.josm.actions.search.SearchCompiler;
 import org.openstreetmap.josm.data.coor.LatLon;
-import org.openstreetmap.josm.plugins.tracer.CombineTagsResolver;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerModule;
 import org.openstreetmap.josm.plugins.tracer.connectways.AreaBoundaryWayNodePredicate;
 import org.openstreetmap.josm.plugins.tracer.connectways.AreaPredicate;
@@ -137,20 +137,23 @@ public abstract class BuildingTracerModule extends TracerModule {
 
             // be more tolerant for nodes occurring in retraced building
             if (retraced && !ruian) {
-                System.out.println("RNN: retraced, dist=" + Double.toString(distance_meters));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("RNN: retraced, dist=" + Double.toString(distance_meters));
                 if (distance_meters <= m_reuseNearNodesToleranceRetracedNodes)
                     return m_reuseMethod;
             }
 
             // be more tolerant for non-ruian buildings
             if (!ruian) {
-                System.out.println("RNN: non-ruian, dist=" + Double.toString(distance_meters));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("RNN: non-ruian, dist=" + Double.toString(distance_meters));
                 if (distance_meters <= m_reuseNearNodesToleranceNonRuian)
                     return m_reuseMethod;
             }
 
             // use default tolerance for others
-            System.out.println("RNN: default, dist=" + Double.toString(distance_meters));
+            if (TracerLog.isDebug())
+                TracerLog.debug("RNN: default, dist=" + Double.toString(distance_meters));
             if (distance_meters <= m_reuseNearNodesToleranceDefault)
                 return m_reuseMethod;
 
@@ -177,7 +180,7 @@ public abstract class BuildingTracerModule extends TracerModule {
         @Override
         protected EdObject createTracedPolygonImpl(WayEditor editor) {
 
-            System.out.println("  " + getName() + " keys: " + getRecord().getKeys(m_alt));
+            TracerLog.info("  " + getName() + " keys: " + getRecord().getKeys(m_alt));
 
             // Look for object to retrace
             EdObject retrace_object = null;
@@ -367,7 +370,7 @@ public abstract class BuildingTracerModule extends TracerModule {
             }
 
             // combine and resolve conflicting keys
-            Map<String, String> result = CombineTagsResolver.launchIfNecessary(old_keys, new_keys);
+            Map<String, String> result = resolveTagConflicts(old_keys, new_keys);
             if (result == null)
                 return false;
 
@@ -388,10 +391,12 @@ public abstract class BuildingTracerModule extends TracerModule {
             boolean multiple_areas = false;
             EdObject building_area = null;
             for (EdObject area: areas) {
-                if (area.isWay())
-                    System.out.println("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
-                else if (area.isMultipolygon())
-                    System.out.println("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                if (TracerLog.isDebug()) {
+                    if (area.isWay())
+                        TracerLog.debug("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
+                    else if (area.isMultipolygon())
+                        TracerLog.debug("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                }
 
                 String ref = area.get("ref:ruian:building");
                 if (ref != null && ref.equals(ruianref)) // exact match ;)
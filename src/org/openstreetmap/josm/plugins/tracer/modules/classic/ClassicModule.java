@@ -19,7 +19,11 @@
 package org.openstreetmap.josm.plugins.tracer.modules.classic;
 
 import java.awt.Cursor;
+import java.io.IOException;
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.modules.building.BuildingTracerModule;
 import org.openstreetmap.josm.plugins.tracer.TracerPreferences;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
@@ -94,6 +98,12 @@ public final class ClassicModule extends BuildingTracerModule {
         @Override
         protected TracerRecord downloadRecord(LatLon pos) throws Exception {
             TracerPreferences pref = TracerPreferences.getInstance();
+
+            // trace visible imagery in-process, the tracer server is used only
+            // when configured explicitly or without map view (headless replay)
+            if (!pref.isCustomTracerUrlEnabled() && Main.map != null)
+                return traceImagery(pos);
+
             String sUrl = classicUrl;
             if (pref.isCustomTracerUrlEnabled()) {
                 sUrl = pref.getCustomTracerUrl();
@@ -109,5 +119,32 @@ public final class ClassicModule extends BuildingTracerModule {
             ClassicServer server = new ClassicServer();
             return server.trace(pos, sUrl, adjlat, adjlon);
         }
+
+        private TracerRecord traceImagery(final LatLon pos) throws IOException {
+            final int radius = Math.max(16, Main.pref.getInteger("tracer.classic.radius", 400));
+            final ClassicRaster[] raster = new ClassicRaster[1];
+            long start_time = TracerLog.start();
+            GuiHelper.runInEDTAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    raster[0] = ClassicRaster.capture(pos, radius);
+                }
+            });
+            TracerLog.stop("classic.capture", start_time);
+            if (raster[0] == null)
+                throw new IOException(tr("No visible imagery layer at the position."));
+
+            // imagery is already aligned by the layer offset, position adjustments
+            // of the tracer server don't apply
+            ClassicRecord record = new ClassicRecord(0, 0);
+            start_time = TracerLog.start();
+            try {
+                record.setOutline(new RasterTracer().trace(raster[0]));
+            }
+            finally {
+                TracerLog.stop("classic.trace", start_time);
+            }
+            return record;
+        }
     }
 }
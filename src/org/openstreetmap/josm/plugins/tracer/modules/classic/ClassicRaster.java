@@ -0,0 +1,145 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.modules.classic;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.ImageryLayer;
+import org.openstreetmap.josm.gui.layer.Layer;
+
+/**
+ * Snapshot of visible imagery around a traced position.
+ *
+ * Visible imagery layers are painted into an offscreen image the same way
+ * the map view shows them, so only tiles already in the layers' tile caches
+ * are used and nothing is downloaded. Pixel corners map linearly to east/north
+ * of the current projection.
+ */
+final class ClassicRaster {
+
+    private final int m_width;
+    private final int m_height;
+    private final int[] m_pixels; // RGB, row by row
+    private final int m_seedX;
+    private final int m_seedY;
+
+    // east/north of the top left corner, east/north units per pixel
+    private final double m_east;
+    private final double m_north;
+    private final double m_scale;
+
+    private ClassicRaster (int width, int height, int[] pixels, int seed_x, int seed_y, double east, double north, double scale) {
+        m_width = width;
+        m_height = height;
+        m_pixels = pixels;
+        m_seedX = seed_x;
+        m_seedY = seed_y;
+        m_east = east;
+        m_north = north;
+        m_scale = scale;
+    }
+
+    /**
+     * Paints visible imagery layers in a square window around the position,
+     * clipped to the map view. Must be called in EDT.
+     * @param pos traced position, seed pixel of the raster
+     * @param radius window radius in pixels
+     * @return raster, null if there's no visible imagery layer or the position is outside the map view
+     */
+    static ClassicRaster capture (LatLon pos, int radius) {
+        if (Main.map == null || Main.map.mapView == null)
+            return null;
+        MapView mv = Main.map.mapView;
+
+        // layers are ordered top first, paint bottom first
+        List<Layer> all_layers = Main.main.getLayerManager().getLayers();
+        List<Layer> layers = new ArrayList<>();
+        for (int i = all_layers.size() - 1; i >= 0; i--) {
+            Layer layer = all_layers.get(i);
+            if (layer instanceof ImageryLayer && layer.isVisible())
+                layers.add(layer);
+        }
+        if (layers.isEmpty())
+            return null;
+
+        Point p = mv.getPoint(pos);
+        int x0 = Math.max(0, p.x - radius);
+        int y0 = Math.max(0, p.y - radius);
+        int x1 = Math.min(mv.getWidth(), p.x + radius + 1);
+        int y1 = Math.min(mv.getHeight(), p.y + radius + 1);
+        if (p.x < x0 || p.y < y0 || p.x >= x1 || p.y >= y1)
+            return null;
+
+        BufferedImage image = new BufferedImage(x1 - x0, y1 - y0, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.translate(-x0, -y0);
+            for (Layer layer: layers)
+                layer.paint(g, mv, mv.getRealBounds());
+        }
+        finally {
+            g.dispose();
+        }
+
+        int[] pixels = image.getRGB(0, 0, x1 - x0, y1 - y0, null, 0, x1 - x0);
+        EastNorth en = mv.getEastNorth(x0, y0);
+        return new ClassicRaster(x1 - x0, y1 - y0, pixels, p.x - x0, p.y - y0, en.east(), en.north(), mv.getScale());
+    }
+
+    int width () {
+        return m_width;
+    }
+
+    int height () {
+        return m_height;
+    }
+
+    /**
+     * Returns RGB pixels, row by row.
+     */
+    int[] pixels () {
+        return m_pixels;
+    }
+
+    int seedX () {
+        return m_seedX;
+    }
+
+    int seedY () {
+        return m_seedY;
+    }
+
+    /**
+     * Returns position of a point given in pixel coordinates, (0, 0) is the top
+     * left corner of the raster.
+     */
+    LatLon toLatLon (double x, double y) {
+        LatLon ll = Projections.inverseProject(new EastNorth(m_east + x * m_scale, m_north - y * m_scale));
+        return new LatLon(LatLon.roundToOsmPrecision(ll.lat()), LatLon.roundToOsmPrecision(ll.lon()));
+    }
+}
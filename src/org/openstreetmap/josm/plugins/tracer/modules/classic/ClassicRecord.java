@@ -19,8 +19,12 @@
 
 package org.openstreetmap.josm.plugins.tracer.modules.classic;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
@@ -33,21 +37,78 @@ public final class ClassicRecord extends TracerRecord {
         super(adjlat, adjlon);
     }
 
-    void parseOutput (String content) {
-        ArrayList<LatLon> nodelist = new ArrayList<>();
-        String[] lines = content.split("\\|");
-        for (String line : lines) {
-            String[] items = line.split(";");
-            double x = Double.parseDouble(items[0]);
-            double y = Double.parseDouble(items[1]);
-            nodelist.add(new LatLon(x, y));
+    /**
+     * Parse tracer server reply of the form "lat;lon|lat;lon|..." directly from
+     * the reply stream. Line breaks are ignored, coordinates are collected in
+     * a primitive buffer.
+     * @param reader reply stream
+     * @throws IOException if reading fails or the reply is malformed
+     */
+    void parseOutput (Reader reader) throws IOException {
+        double[] coors = new double[64];
+        int n = 0;
+        int field = 0;
+        StringBuilder token = new StringBuilder(24);
+
+        while (true) {
+            int c = reader.read();
+            if (c == '\r' || c == '\n')
+                continue;
+            if (c != ';' && c != '|' && c >= 0) {
+                token.append((char)c);
+                continue;
+            }
+
+            // end of field, only the first two fields of a node are used
+            boolean empty_node = field == 0 && token.length() == 0 && c != ';';
+            if (field < 2 && !empty_node) {
+                if (n + 2 > coors.length)
+                    coors = Arrays.copyOf(coors, 2 * coors.length);
+                try {
+                    coors[n + field] = Double.parseDouble(token.toString());
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Invalid tracer server reply: " + e.getMessage());
+                }
+            }
+            token.setLength(0);
+            field++;
+            if (c == ';')
+                continue;
+
+            // end of node, tolerate empty reply and trailing separator
+            if (!empty_node) {
+                if (field < 2)
+                    throw new IOException("Invalid tracer server reply: incomplete node");
+                n += 2;
+            }
+            field = 0;
+            if (c < 0)
+                break;
         }
+
+        ArrayList<LatLon> nodelist = new ArrayList<>(n / 2 + 1);
+        for (int i = 0; i < n; i += 2)
+            nodelist.add(new LatLon(coors[i], coors[i + 1]));
         if (nodelist.size() > 0) {
             nodelist.add(nodelist.get(0));
             super.setOuter(nodelist);
         }
     }
 
+    /**
+     * Set outline traced by the embedded raster tracer.
+     * @param outline outline nodes, not closed
+     */
+    void setOutline (List<LatLon> outline) {
+        if (outline.size() < 3)
+            return;
+        ArrayList<LatLon> nodelist = new ArrayList<>(outline.size() + 1);
+        nodelist.addAll(outline);
+        nodelist.add(outline.get(0));
+        super.setOuter(nodelist);
+    }
+
     @Override
     public boolean hasData() {
         return super.hasOuter();
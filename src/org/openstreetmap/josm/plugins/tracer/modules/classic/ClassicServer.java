@@ -22,30 +22,46 @@ package org.openstreetmap.josm.plugins.tracer.modules.classic;
 import java.io.BufferedReader;
 import java.io.IOException;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.SingleFlight;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 
 public final class ClassicServer {
 
+    // a trace clicked again at the same position while the first one downloads shares its request
+    private static final SingleFlight<String, ClassicRecord> m_requests = new SingleFlight<> ();
+
     public ClassicServer() {
     }
 
     private final static int classicServerTimeout = 60000;
 
-    private String callServer(String urlString) throws IOException {
-        try (BufferedReader reader = TracerUtils.openUrlStream (urlString, classicServerTimeout)) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
+    private ClassicRecord callServer(final String urlString, final double adjlat, final double adjlon) throws IOException {
+        // records are immutable once parsed, concurrent identical requests can share them
+        String key = urlString + "|" + adjlat + "|" + adjlon;
+        return m_requests.execute(key, new SingleFlight.Task<ClassicRecord>() {
+            @Override
+            public ClassicRecord run() throws IOException {
+                long start_time = TracerLog.start();
+                try {
+                    return downloadRecord(urlString, adjlat, adjlon);
+                }
+                finally {
+                    TracerLog.stop("http.classic", start_time);
+                }
             }
-            return sb.toString();
+        });
+    }
+
+    private ClassicRecord downloadRecord(String urlString, double adjlat, double adjlon) throws IOException {
+        try (BufferedReader reader = TracerUtils.openUrlStream (urlString, classicServerTimeout)) {
+            ClassicRecord record = new ClassicRecord(adjlat, adjlon);
+            record.parseOutput(reader);
+            return record;
         }
     }
 
     public ClassicRecord trace(LatLon pos, String url, double adjlat, double adjlon) throws IOException {
-        String content = callServer(url + "/trace/simple/" + pos.lat() + ";" + pos.lon());
-        ClassicRecord record = new ClassicRecord(adjlat, adjlon);
-        record.parseOutput(content);
-        return record;
+        return callServer(url + "/trace/simple/" + pos.lat() + ";" + pos.lon(), adjlat, adjlon);
     }
 }
@@ -0,0 +1,376 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.modules.classic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.CancellationToken;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+import org.openstreetmap.josm.plugins.tracer.TracerUtils;
+
+/**
+ * In-process tracer of closed areas in raster imagery, replaces the external
+ * classic tracer server.
+ *
+ * Pixels are converted to luminance and Sobel edge magnitude in parallel row
+ * bands. The area is grown from the seed pixel over pixels of similar luminance
+ * which aren't on an edge, similar pixels on the edge close the area so it
+ * reaches the boundary line. Its outer boundary is followed along pixel edges
+ * and simplified by Douglas-Peucker.
+ */
+final class RasterTracer {
+
+    private static final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService m_executor = TracerUtils.newIdleExecutor("tracer-raster", threads, 30);
+    private static final int minBandRows = 32;
+
+    // corner steps of east, south, west, north directions
+    private static final int[] stepX = { 1, 0, -1, 0 };
+    private static final int[] stepY = { 0, 1, 0, -1 };
+    // pixels ahead right and ahead left of a corner, per direction
+    private static final int[] rightX = { 0, -1, -1, 0 };
+    private static final int[] rightY = { 0, 0, -1, -1 };
+    private static final int[] leftX = { 0, 0, -1, -1 };
+    private static final int[] leftY = { -1, 0, 0, -1 };
+
+    private final int m_edgeThreshold;
+    private final int m_luminanceTolerance;
+    private final double m_simplifyPixels;
+    private final int m_minAreaPixels;
+
+    RasterTracer () {
+        m_edgeThreshold = Math.max(1, Main.pref.getInteger("tracer.classic.edge_threshold", 160));
+        m_luminanceTolerance = Math.max(0, Main.pref.getInteger("tracer.classic.luminance_tolerance", 40));
+        m_simplifyPixels = Math.max(0.5, Main.pref.getDouble("tracer.classic.simplify_pixels", 1.2));
+        m_minAreaPixels = Math.max(1, Main.pref.getInteger("tracer.classic.min_area_pixels", 16));
+    }
+
+    private interface Band {
+        void run (int first_row, int last_row);
+    }
+
+    /**
+     * Traces outline of the area containing the seed pixel of the raster.
+     * @param raster imagery snapshot
+     * @return outline nodes, not closed; empty list if there's no enclosed area at the seed
+     * @throws IOException if tracing was cancelled or interrupted
+     */
+    List<LatLon> trace (ClassicRaster raster) throws IOException {
+        final int w = raster.width();
+        final int h = raster.height();
+        final int[] rgb = raster.pixels();
+        final int[] luminance = new int[w * h];
+        final int[] edge = new int[w * h];
+        CancellationToken token = CancellationToken.current();
+
+        runBands(h, new Band() {
+            @Override
+            public void run(int first_row, int last_row) {
+                for (int i = first_row * w; i < last_row * w; i++) {
+                    int c = rgb[i];
+                    luminance[i] = (((c >> 16) & 0xff) * 299 + ((c >> 8) & 0xff) * 587 + (c & 0xff) * 114) / 1000;
+                }
+            }
+        });
+        runBands(h, new Band() {
+            @Override
+            public void run(int first_row, int last_row) {
+                for (int y = Math.max(1, first_row); y < Math.min(h - 1, last_row); y++) {
+                    for (int x = 1; x < w - 1; x++) {
+                        int i = y * w + x;
+                        int gx = luminance[i - w + 1] + 2 * luminance[i + 1] + luminance[i + w + 1]
+                               - luminance[i - w - 1] - 2 * luminance[i - 1] - luminance[i + w - 1];
+                        int gy = luminance[i + w - 1] + 2 * luminance[i + w] + luminance[i + w + 1]
+                               - luminance[i - w - 1] - 2 * luminance[i - w] - luminance[i - w + 1];
+                        edge[i] = Math.abs(gx) + Math.abs(gy);
+                    }
+                }
+            }
+        });
+        if (token != null)
+            token.checkCancelled();
+
+        byte[] mask = growArea(raster, luminance, edge, token);
+        if (mask == null)
+            return new ArrayList<>();
+
+        int[] outline = followOutline(mask, w, h);
+        if (outline == null || Math.abs(area(outline)) < m_minAreaPixels) {
+            TracerLog.info("RasterTracer: area at the position is too small");
+            return new ArrayList<>();
+        }
+
+        int[] simplified = simplify(outline, m_simplifyPixels);
+        List<LatLon> result = new ArrayList<>(simplified.length / 2);
+        for (int i = 0; i < simplified.length; i += 2)
+            result.add(raster.toLatLon(simplified[i], simplified[i + 1]));
+        if (TracerLog.isDebug())
+            TracerLog.debug("RasterTracer: outline vertices: " + Integer.toString(outline.length / 2) + ", simplified: " + Integer.toString(result.size()));
+        return result;
+    }
+
+    /**
+     * Runs the band in parallel on row ranges covering all rows.
+     */
+    private static void runBands (int rows, final Band band) throws IOException {
+        int band_rows = Math.max(minBandRows, (rows + threads - 1) / threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int first = 0; first < rows; first += band_rows) {
+            final int first_row = first;
+            final int last_row = Math.min(rows, first + band_rows);
+            futures.add(m_executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    band.run(first_row, last_row);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future: futures)
+                future.get();
+        }
+        catch (InterruptedException e) {
+            for (Future<?> future: futures)
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Raster tracing interrupted");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Raster tracing failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Grows 4-connected area of pixels similar to the seed pixel, including
+     * similar edge pixels at its boundary.
+     * @return area mask, null if the seed is on an edge or the area isn't enclosed
+     */
+    private byte[] growArea (ClassicRaster raster, int[] luminance, int[] edge, CancellationToken token) throws IOException {
+        int w = raster.width();
+        int h = raster.height();
+        int seed = raster.seedY() * w + raster.seedX();
+        if (edge[seed] >= m_edgeThreshold) {
+            TracerLog.info("RasterTracer: position is on an edge");
+            return null;
+        }
+
+        int seed_luminance = luminance[seed];
+        byte[] mask = new byte[w * h];
+        int[] queue = new int[w * h];
+        int head = 0;
+        int tail = 0;
+        mask[seed] = 1;
+        queue[tail++] = seed;
+
+        while (head < tail) {
+            int i = queue[head++];
+            int x = i % w;
+            int y = i / w;
+            if (x == 0 || y == 0 || x == w - 1 || y == h - 1) {
+                TracerLog.info("RasterTracer: area at the position isn't enclosed in the visible imagery");
+                return null;
+            }
+            if ((head & 0xffff) == 0 && token != null)
+                token.checkCancelled();
+
+            int[] neighbours = { i - 1, i + 1, i - w, i + w };
+            for (int n: neighbours) {
+                if (mask[n] != 0 || Math.abs(luminance[n] - seed_luminance) > m_luminanceTolerance)
+                    continue;
+                if (edge[n] < m_edgeThreshold) {
+                    mask[n] = 1;
+                    queue[tail++] = n;
+                }
+                else if (mask[n] == 0) {
+                    // similar pixel next to the boundary line, the area ends here
+                    int nx = n % w;
+                    int ny = n / w;
+                    if (nx == 0 || ny == 0 || nx == w - 1 || ny == h - 1) {
+                        TracerLog.info("RasterTracer: area at the position isn't enclosed in the visible imagery");
+                        return null;
+                    }
+                    mask[n] = 1;
+                }
+            }
+        }
+
+        // fill similar pixels in concave corners of the boundary, reachable only diagonally
+        // queue is free now, collect them there
+        int corners = 0;
+        for (int y = 1; y < h - 1; y++) {
+            for (int x = 1; x < w - 1; x++) {
+                int i = y * w + x;
+                if (mask[i] != 0 || Math.abs(luminance[i] - seed_luminance) > m_luminanceTolerance)
+                    continue;
+                if (mask[i - 1] + mask[i + 1] + mask[i - w] + mask[i + w] >= 2)
+                    queue[corners++] = i;
+            }
+        }
+        for (int k = 0; k < corners; k++)
+            mask[queue[k]] = 1;
+        return mask;
+    }
+
+    /**
+     * Follows outer boundary of the area along pixel edges, keeping the area
+     * on the right. The start corner is the top left corner of the first area
+     * pixel, which is touched by the boundary only once.
+     * @return corners where the boundary turns, as (x, y) pairs
+     */
+    private static int[] followOutline (byte[] mask, int w, int h) {
+        int start = 0;
+        while (mask[start] == 0)
+            ++start;
+        int sx = start % w;
+        int sy = start / w;
+
+        int[] corners = new int[64];
+        int n = 0;
+        corners[n++] = sx;
+        corners[n++] = sy;
+
+        int dir = 0;
+        int cx = sx + 1;
+        int cy = sy;
+        long max_steps = 4L * w * h;
+        for (long steps = 1; cx != sx || cy != sy; steps++) {
+            if (steps > max_steps)
+                return null;
+            boolean right = inside(mask, w, h, cx + rightX[dir], cy + rightY[dir]);
+            boolean left = inside(mask, w, h, cx + leftX[dir], cy + leftY[dir]);
+            int new_dir = !right ? (dir + 1) % 4 : (left ? (dir + 3) % 4 : dir);
+            if (new_dir != dir) {
+                if (n + 2 > corners.length)
+                    corners = Arrays.copyOf(corners, 2 * corners.length);
+                corners[n++] = cx;
+                corners[n++] = cy;
+                dir = new_dir;
+            }
+            cx += stepX[dir];
+            cy += stepY[dir];
+        }
+        return Arrays.copyOf(corners, n);
+    }
+
+    private static boolean inside (byte[] mask, int w, int h, int x, int y) {
+        return x >= 0 && y >= 0 && x < w && y < h && mask[y * w + x] != 0;
+    }
+
+    private static double area (int[] polygon) {
+        int n = polygon.length / 2;
+        double area = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++)
+            area += (double)polygon[2*j] * polygon[2*i+1] - (double)polygon[2*i] * polygon[2*j+1];
+        return area / 2;
+    }
+
+    /**
+     * Simplifies closed polygon by Douglas-Peucker. The polygon is split
+     * at its first vertex and the vertex farthest from it.
+     * @return kept vertices as (x, y) pairs
+     */
+    private static int[] simplify (int[] polygon, double tolerance) {
+        int n = polygon.length / 2;
+        if (n <= 3)
+            return polygon;
+
+        int far = 0;
+        double far_dist = -1;
+        for (int i = 1; i < n; i++) {
+            double dx = polygon[2*i] - polygon[0];
+            double dy = polygon[2*i+1] - polygon[1];
+            double dist = dx * dx + dy * dy;
+            if (dist > far_dist) {
+                far = i;
+                far_dist = dist;
+            }
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[far] = true;
+        simplifyChain(polygon, 0, far, tolerance, keep);
+        simplifyChain(polygon, far, n, tolerance, keep);
+
+        int count = 0;
+        for (boolean k: keep) {
+            if (k)
+                ++count;
+        }
+        int[] result = new int[2 * count];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result[j++] = polygon[2*i];
+                result[j++] = polygon[2*i+1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Douglas-Peucker on vertices first .. last of the polygon, index n stands for vertex 0.
+     */
+    private static void simplifyChain (int[] polygon, int first, int last, double tolerance, boolean[] keep) {
+        int n = polygon.length / 2;
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = first;
+        stack[sp++] = last;
+        while (sp > 0) {
+            int b = stack[--sp];
+            int a = stack[--sp];
+            if (b - a < 2)
+                continue;
+            double ax = polygon[2*a], ay = polygon[2*a+1];
+            double bx = polygon[2*(b % n)], by = polygon[2*(b % n)+1];
+            double dx = bx - ax, dy = by - ay;
+            double len = Math.sqrt(dx * dx + dy * dy);
+
+            int imax = -1;
+            double dmax = tolerance;
+            for (int i = a + 1; i < b; i++) {
+                double px = polygon[2*i] - ax, py = polygon[2*i+1] - ay;
+                double d = len > 0 ? Math.abs(px * dy - py * dx) / len : Math.sqrt(px * px + py * py);
+                if (d > dmax) {
+                    imax = i;
+                    dmax = d;
+                }
+            }
+            if (imax < 0)
+                continue;
+            keep[imax] = true;
+            if (sp + 4 > stack.length)
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            stack[sp++] = a;
+            stack[sp++] = imax;
+            stack[sp++] = imax;
+            stack[sp++] = b;
+        }
+    }
+}
@@ -19,21 +19,21 @@
 
 package org.openstreetmap.josm.plugins.tracer.modules.lpis;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.plugins.tracer.QuadCache;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
+import org.openstreetmap.josm.plugins.tracer.connectways.LongObjectMap;
 
 public class LpisCache {
     private final Object m_lock;
-    private final Map<Long, LpisRecord> m_records;
+    private final LongObjectMap<LpisRecord> m_records;
     private final QuadCache<LpisRecord> m_cache;
 
     public LpisCache (LatLonSize llsize) {
         m_lock = new Object ();
-        m_records = new HashMap<> ();
+        m_records = new LongObjectMap<> ();
         m_cache = new QuadCache<> (llsize);
     }
 
@@ -56,20 +56,29 @@ public class LpisCache {
         }
     }
 
+    LpisRecord getByLpisID (long id) {
+        synchronized (m_lock) {
+            return m_records.get(id);
+        }
+    }
+
     public LpisRecord get (LatLon latlon) {
         synchronized (m_lock) {
             List<LpisRecord> list = m_cache.search(latlon);
             if (list == null) {
-                System.out.println ("LpisCache: miss");
+                TracerLog.count("lpisCache.miss");
+                TracerLog.debug("LpisCache: miss");
                 return null;
             }
             if (list.size() == 1) {
                 LpisRecord record = list.get(0);
-                System.out.println ("LpisCache: hit, id=" + Long.toString(record.getLpisID()));
+                TracerLog.count("lpisCache.hit");
+                if (TracerLog.isDebug())
+                    TracerLog.debug("LpisCache: hit, id=" + Long.toString(record.getLpisID()));
                 return record;
             }
             if (list.size() > 1)
-                System.out.println("LpisCache: OVERLAPPING OBJECTS IN CACHE!");
+                TracerLog.info("LpisCache: OVERLAPPING OBJECTS IN CACHE!");
             return null;
         }
     }
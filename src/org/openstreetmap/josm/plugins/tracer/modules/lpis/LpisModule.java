@@ -23,16 +23,17 @@ import java.awt.Cursor;
 import java.util.*;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.search.SearchCompiler;
 import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
 import org.openstreetmap.josm.actions.search.SearchCompiler.ParseError;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
-import org.openstreetmap.josm.plugins.tracer.CombineTagsResolver;
+import org.openstreetmap.josm.plugins.tracer.QuadCache;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerModule;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
+import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 import org.openstreetmap.josm.plugins.tracer.connectways.*;
 
 // import org.openstreetmap.josm.plugins.tracer.modules.lpis.LpisRecord;
@@ -45,26 +46,28 @@ public final class LpisModule extends TracerModule  {
 
     private boolean moduleEnabled;
     private static final ExecutorService m_downloadExecutor;
+    private static final long idleThreadSeconds = 30;
 
     static {
         int threads = Main.pref.getInteger("tracer.lpis.download_threads", 4);
         if (threads > 0) {
             if (threads > 20) // avoid stupid values
                 threads = 20;
-            m_downloadExecutor = Executors.newFixedThreadPool(threads);
+            m_downloadExecutor = TracerUtils.newIdleExecutor("tracer-lpis-download", threads, idleThreadSeconds);
         }
         else {
             m_downloadExecutor = null;
         }
     }
 
-    // calibrate cache tile's LatLonSize according to a point in the middle of the Czech Republic
-    private static final double cacheTileSizeMeters = 750.0;
+    // calibrate base cache tile's LatLonSize according to a point in the middle of the Czech Republic,
+    // tiles are downloaded in subtiles of the level adapted to the density of lands
+    private static final double cacheTileSizeMeters = 1500.0;
     private static final LatLon cacheTileCalibrationLatLon = new LatLon (49.79633635284708, 15.572776799999998);
     private static final LatLonSize cacheTileSize = LatLonSize.get(cacheTileCalibrationLatLon, cacheTileSizeMeters);
 
     private final LpisServer m_lpisServer = new LpisServer (lpisUrl, cacheTileSize);
-    private final LpisPrefetch m_lpisPrefetch = new LpisPrefetch (cacheTileSize, m_lpisServer);
+    private final LpisPrefetch m_lpisPrefetch = new LpisPrefetch (m_lpisServer);
 
     private static final double oversizeInDataBoundsMeters = 5.0;
     private static final double automaticOsmDownloadMeters = 900.0;
@@ -102,6 +105,11 @@ public final class LpisModule extends TracerModule  {
     public void init() {
     }
 
+    @Override
+    public void warmUp() {
+        m_lpisServer.warmUp();
+    }
+
     @Override
     public Cursor getCursor() {
         return ImageProvider.getCursor("crosshair", "tracer-lpis-sml");
@@ -138,6 +146,23 @@ public final class LpisModule extends TracerModule  {
         return new LpisTracerTask (pos, ctrl, alt, shift);
     }
 
+    @Override
+    public List<TracerRecord> downloadRecords(BBox bbox) throws Exception {
+        // download by cache tiles, avoids too large WFS replies and shares tiles with prefetch
+        Pair<QuadCache.QuadIndex, QuadCache.QuadIndex> qibox = QuadCache.bboxToQuadIndexBox(cacheTileSize, bbox);
+        Set<Long> ids = new HashSet<>();
+        List<TracerRecord> list = new ArrayList<>();
+        for (long ilat = qibox.a.iLat(); ilat <= qibox.b.iLat(); ilat++) {
+            for (long ilon = qibox.a.iLon(); ilon <= qibox.b.iLon(); ilon++) {
+                for (LpisRecord record: m_lpisServer.getTileRecords(new QuadCache.QuadIndex(ilat, ilon))) {
+                    if (record.getBBox().intersects(bbox) && ids.add(record.getLpisID()))
+                        list.add(record);
+                }
+            }
+        }
+        return list;
+    }
+
     class ReuseLanduseNearNodes implements IReuseNearNodePredicate {
 
         // distance tolerancies are in meters
@@ -160,14 +185,16 @@ public final class LpisModule extends TracerModule  {
 
             // be more tolerant for untagged nodes occurring in retraced ways, feel free to move them
             if (retraced) {
-                System.out.println("RNN: retraced, dist=" + Double.toString(distance_meters));
+                if (TracerLog.isDebug())
+                    TracerLog.debug("RNN: retraced, dist=" + Double.toString(distance_meters));
                 if (distance_meters <= m_reuseNearNodesToleranceRetracedNodes)
                     if (!near_node.isTagged())
                         return ReuseNearNodeMethod.moveAndReuseNode;
             }
 
             // use default tolerance for others, don't move them, just reuse
-            System.out.println("RNN: default, dist=" + Double.toString(distance_meters));
+            if (TracerLog.isDebug())
+                TracerLog.debug("RNN: default, dist=" + Double.toString(distance_meters));
             if (distance_meters <= m_reuseNearNodesToleranceDefault)
                 return ReuseNearNodeMethod.reuseNode;
 
@@ -206,8 +233,8 @@ public final class LpisModule extends TracerModule  {
         @Override
         protected EdObject createTracedPolygonImpl(WayEditor editor) {
 
-            System.out.println("  LPIS ID: " + record().getLpisID());
-            System.out.println("  LPIS usage: " + record().getUsage());
+            TracerLog.info("  LPIS ID: " + record().getLpisID());
+            TracerLog.info("  LPIS usage: " + record().getUsage());
 
             // Look for object to retrace
             EdObject retrace_object = null;
@@ -366,7 +393,7 @@ public final class LpisModule extends TracerModule  {
             }
 
             // combine and resolve conflicting keys
-            Map<String, String> result = CombineTagsResolver.launchIfNecessary(old_keys, new_keys);
+            Map<String, String> result = resolveTagConflicts(old_keys, new_keys);
             if (result == null)
                 return false;
 
@@ -388,10 +415,12 @@ public final class LpisModule extends TracerModule  {
 //                 if (source == null || !source.equals("lpis"))
 //                     continue;
 
-                if (area.isWay())
-                    System.out.println("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
-                else if (area.isMultipolygon())
-                    System.out.println("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                if (TracerLog.isDebug()) {
+                    if (area.isWay())
+                        TracerLog.debug("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
+                    else if (area.isMultipolygon())
+                        TracerLog.debug("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                }
 
                 String ref = area.get("ref");
                 if (ref != null && ref.equals(lpisref)) // exact match ;)
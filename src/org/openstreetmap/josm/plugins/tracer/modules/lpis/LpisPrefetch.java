@@ -20,63 +20,100 @@
 package org.openstreetmap.josm.plugins.tracer.modules.lpis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import org.openstreetmap.josm.data.coor.LatLon;
-import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.plugins.tracer.CancellationToken;
 import org.openstreetmap.josm.plugins.tracer.QuadCache;
-import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 
 public class LpisPrefetch {
 
-    private static final ExecutorService m_prefetchExecutor = Executors.newSingleThreadExecutor();
+    private static final ExecutorService m_prefetchExecutor = TracerUtils.newIdleExecutor("tracer-lpis-prefetch", 1, 30);
 
-    private final LatLonSize m_quadSize;
     private final LpisServer m_lpisServer;
+    private final LpisTiling m_tiling;
     private final Set<QuadCache.QuadIndex> m_prefetchedTiles = new HashSet<> ();
 
     private final Object m_lock = new Object ();
     private PrefetchQueue <QuadCache.QuadIndex> m_prefetchQueue = null;  // m_lock, null means prefetching task is not running
+    private QuadCache.QuadIndex m_currentTile = null;                    // m_lock, tile being downloaded
+    private CancellationToken m_currentToken = null;                     // m_lock
 
-    public LpisPrefetch (LatLonSize quad_size, LpisServer server) {
-        m_quadSize = quad_size;
+    public LpisPrefetch (LpisServer server) {
         m_lpisServer = server;
+        m_tiling = server.tiling();
     }
 
+    /**
+     * Schedules prefetch of tiles around the position. Tiles are of the level
+     * preferred by the tiling for the position, so the prefetched area is
+     * smaller in dense areas and larger in sparse ones.
+     */
     public void schedulePrefetch (LatLon pos) {
-        QuadCache.QuadIndex qi = QuadCache.QuadIndex.latLonToQuadIndex(m_quadSize, pos.lat(), pos.lon());
+        QuadCache.QuadIndex qi = m_tiling.tileAt(pos);
+        int level = qi.level();
         QuadCache.QuadIndex[] list = new QuadCache.QuadIndex[9];
         int index = 0;
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() - 1, qi.iLon() - 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() - 1, qi.iLon() + 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() + 1, qi.iLon() - 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() + 1, qi.iLon() + 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat(), qi.iLon() - 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat(), qi.iLon() + 1);
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() - 1, qi.iLon());
-        list[index++] = new QuadCache.QuadIndex (qi.iLat() + 1, qi.iLon());
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() - 1, qi.iLon() - 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() - 1, qi.iLon() + 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() + 1, qi.iLon() - 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() + 1, qi.iLon() + 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat(), qi.iLon() - 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat(), qi.iLon() + 1);
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() - 1, qi.iLon());
+        list[index++] = new QuadCache.QuadIndex (level, qi.iLat() + 1, qi.iLon());
         list[index++] = qi;
         schedulePrefetchTiles (list);
     }
 
+    /**
+     * Returns true if the tile or a tile containing it was already prefetched.
+     */
+    private boolean isPrefetched (QuadCache.QuadIndex qi) {
+        for (QuadCache.QuadIndex q = qi; q != null; q = q.parent()) {
+            if (m_prefetchedTiles.contains(q))
+                return true;
+        }
+        return false;
+    }
+
     private void schedulePrefetchTiles (QuadCache.QuadIndex[] list) {
         synchronized (m_lock) {
 
+            // user moved elsewhere, drop stale tiles of previous positions
+            if (m_prefetchQueue != null) {
+                List<QuadCache.QuadIndex> wanted = Arrays.asList(list);
+                int dropped = m_prefetchQueue.retainAll(wanted);
+                if (dropped > 0 && TracerLog.isDebug())
+                    TracerLog.debug("prefetch: dropped stale tiles: " + Integer.toString(dropped));
+                if (m_currentTile != null && !wanted.contains(m_currentTile)) {
+                    if (TracerLog.isDebug())
+                        TracerLog.debug("prefetch: cancelling stale tile: " + m_currentTile.toString());
+                    m_currentToken.cancel();
+                }
+            }
+
             PrefetchQueue <QuadCache.QuadIndex> new_queue = null;
 
             for (QuadCache.QuadIndex qi : list) {
 
                 // already prefetched?
-                if (m_prefetchedTiles.contains(qi)) {
-                    System.out.println ("prefetch: already prefetched: " + qi.toString());
+                if (isPrefetched(qi)) {
+                    if (TracerLog.isDebug())
+                        TracerLog.debug("prefetch: already prefetched: " + qi.toString());
                     continue;
                 }
 
                 // prefetch task is running, add to existing prefetch queue
                 if (m_prefetchQueue != null) {
-                    System.out.println ("prefetch: adding to running queue: " + qi.toString());
+                    if (TracerLog.isDebug())
+                        TracerLog.debug("prefetch: adding to running queue: " + qi.toString());
                     m_prefetchQueue.add (qi);
                     continue;
                 }
@@ -84,7 +121,8 @@ public class LpisPrefetch {
                 // no prefetch task running, prepare add to new queue
                 if (new_queue == null)
                     new_queue = new PrefetchQueue<> ();
-                System.out.println ("prefetch: scheduling for new prefetch batch: " + qi.toString());
+                if (TracerLog.isDebug())
+                    TracerLog.debug("prefetch: scheduling for new prefetch batch: " + qi.toString());
                 new_queue.add (qi);
             }
 
@@ -106,7 +144,7 @@ public class LpisPrefetch {
         QuadCache.QuadIndex qi = null;
         boolean succeeded = false;
 
-        System.out.println ("prefetch: starting prefetch task");
+        TracerLog.debug("prefetch: starting prefetch task");
 
         while (true) {
 
@@ -123,35 +161,47 @@ public class LpisPrefetch {
                 // get a non-prefetched tile from queue
                 while (true) {
                     if (m_prefetchQueue.isEmpty()) {
-                        System.out.println ("prefetch: queue drained, leaving prefetch task");
+                        TracerLog.debug("prefetch: queue drained, leaving prefetch task");
                         m_prefetchQueue = null;
                         return;
                     }
                     QuadCache.QuadIndex aqi = m_prefetchQueue.peek();
-                    if (m_prefetchedTiles.contains(aqi)) {
-                        System.out.println ("prefetch: queued tile already prefetched: " + aqi.toString());
+                    if (isPrefetched(aqi)) {
+                        if (TracerLog.isDebug())
+                            TracerLog.debug("prefetch: queued tile already prefetched: " + aqi.toString());
                         m_prefetchQueue.remove(aqi);
                         continue;
                     }
                     qi = aqi;
+                    m_currentTile = qi;
+                    m_currentToken = new CancellationToken();
                     break;
                 }
             }
 
-            succeeded = downloadLpisTile (qi);
+            succeeded = downloadLpisTile (qi, m_currentToken);
+
+            synchronized (m_lock) {
+                m_currentTile = null;
+                m_currentToken = null;
+            }
         }
     }
 
-    private boolean downloadLpisTile(QuadCache.QuadIndex qi) {
-        System.out.println ("prefetch: downloading tile: " + qi.toString());
+    private boolean downloadLpisTile(QuadCache.QuadIndex qi, CancellationToken token) {
+        if (TracerLog.isDebug())
+            TracerLog.debug("prefetch: downloading tile: " + qi.toString());
 
+        CancellationToken previous = CancellationToken.enter(token);
         try {
-            BBox box = QuadCache.QuadIndex.quadIndexToBBox(m_quadSize, qi);
-            m_lpisServer.prefetchRecords(box);
+            m_lpisServer.prefetchTile(qi);
         }
         catch (Exception e) {
             return false;
         }
+        finally {
+            CancellationToken.exit(previous);
+        }
 
         return true;
     }
@@ -176,6 +226,16 @@ public class LpisPrefetch {
             return true;
         }
 
+        /**
+         * Removes elements not contained in the given collection.
+         * @return number of removed elements
+         */
+        public int retainAll (Collection<Element> c) {
+            int size = m_Queue.size();
+            m_Queue.retainAll(c);
+            return size - m_Queue.size();
+        }
+
         public void add (Element e) {
             int index = m_Queue.indexOf (e);
             if (index < 0) {
@@ -29,6 +29,8 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TagPool;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 import static org.openstreetmap.josm.tools.I18n.tr;
@@ -66,10 +68,11 @@ public final class LpisRecord extends TracerRecord {
         super.init();
         m_lpis_id = -1;
         m_usage = "";
-        m_usageOsm = new HashMap <>();
+        m_usageOsm = Collections.emptyMap();
     }
 
     private void mapToOsm () {
+        m_usageOsm = new HashMap <>();
         switch (m_usage) {
             case "orná půda":
                 m_usageOsm.put("landuse", "farmland");
@@ -133,22 +136,37 @@ public final class LpisRecord extends TracerRecord {
                 m_usageOsm.put("landuse", "farmland");
                 break;
             default:
-                System.out.println("  Warning: unknown value: " + m_usage);
+                TracerLog.info("  Warning: unknown value: " + m_usage);
                 TracerUtils.showNotification(tr("Tracer: Not mapped value found: ") + m_usage + ".\n " + tr("Please report it to @talk-cz"), "error", 5000);
         }
+        m_usageOsm = TagPool.tags(m_usageOsm);
     }
 
-    private ArrayList<LatLon> parseGeometry (String geometry) {
+    /**
+     * Parse GML posList.
+     * @param geometry posList value
+     * @param srs SRS and axis order of the coordinates
+     * @return list of nodes
+     */
+    private static ArrayList<LatLon> parseGeometry (String geometry, LpisSrs srs) {
 
         ArrayList<LatLon> arrList = new ArrayList<>();
         LatLon prevCoor = null;
 
+        // Krovak CRS setup is expensive, share it by all nodes
+        krovak k = srs.isGeographic() ? null : new krovak();
+
         String[] coorVal = geometry.split(" ");
         for (int i = 0; i < coorVal.length; i = i + 2) {
             String x = coorVal[i];
             String y = coorVal[i+1];
-            krovak k = new krovak();
-            LatLon ll = k.krovak2LatLon(x, y);
+            LatLon ll;
+            if (!srs.isGeographic())
+                ll = k.krovak2LatLon(x, y);
+            else if (srs.isLatFirst())
+                ll = parseLatLon(x, y);
+            else
+                ll = parseLatLon(y, x);
 
             // Sometimes, after rouding, two nodes could have the same LatLon coordinates
             // Skip duplicated coordinate
@@ -160,6 +178,12 @@ public final class LpisRecord extends TracerRecord {
         return arrList;
     }
 
+    private static LatLon parseLatLon (String lat_str, String lon_str) {
+        double lat = Double.parseDouble(lat_str);
+        double lon = Double.parseDouble(lon_str);
+        return new LatLon(LatLon.roundToOsmPrecision(lat), LatLon.roundToOsmPrecision(lon));
+    }
+
     /**
     * Parse given XML string and fill variables with LPIS data
     * There are two modes:
@@ -167,16 +191,17 @@ public final class LpisRecord extends TracerRecord {
     *   - extra - get type (landuse) of the element
     *  @param action - basic or extra
     *  @param xmlStr - data for parsing
+    *  @param srs - SRS and axis order of the geometry
      * @throws javax.xml.parsers.ParserConfigurationException
      * @throws org.xml.sax.SAXException
      * @throws java.io.IOException
      * @throws javax.xml.xpath.XPathExpressionException
     *
     */
-    public void parseXML (String action, String xmlStr) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+    public void parseXML (String action, String xmlStr, LpisSrs srs) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
 
-        System.out.println("");
-        System.out.println("parseXML() - Start");
+        TracerLog.debug("");
+        TracerLog.debug("parseXML() - Start");
 
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
@@ -193,7 +218,8 @@ public final class LpisRecord extends TracerRecord {
 
             NodeList nodeList;
 
-            System.out.println("parseXML(basic) - expID: " + expID);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(basic) - expID: " + expID);
             nodeList = (NodeList) xPath.compile(expID).evaluate(doc, XPathConstants.NODESET);
             if (nodeList.getLength() > 0) {
                 m_lpis_id = Long.parseLong(nodeList.item(0).getFirstChild().getNodeValue());
@@ -201,41 +227,50 @@ public final class LpisRecord extends TracerRecord {
                 return;
             }
 
-            System.out.println("parseXML(basic) - m_lpis_id: " + m_lpis_id);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(basic) - m_lpis_id: " + m_lpis_id);
 
-            System.out.println("parseXML(basic) - expOuter: " + expOuter);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(basic) - expOuter: " + expOuter);
             nodeList = (NodeList) xPath.compile(expOuter).evaluate(doc, XPathConstants.NODESET);
             String outer = nodeList.item(0).getFirstChild().getNodeValue();
-            System.out.println("parseXML(basic) - outer: " + outer);
-            List<LatLon> way = parseGeometry(outer);
-            System.out.println("parseXML(basic) - outer list: " + way);
+            if (TracerLog.isTrace())
+                TracerLog.trace("parseXML(basic) - outer: " + outer);
+            List<LatLon> way = parseGeometry(outer, srs);
+            if (TracerLog.isTrace())
+                TracerLog.trace("parseXML(basic) - outer list: " + way);
             super.setOuter(way);
 
-            System.out.println("parseXML(basic) - expInner: " + expInner);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(basic) - expInner: " + expInner);
             nodeList = (NodeList) xPath.compile(expInner).evaluate(doc, XPathConstants.NODESET);
             for (int i = 0; i < nodeList.getLength(); i++) {
                 String inner = nodeList.item(i).getFirstChild().getNodeValue();
-                System.out.println("Inner("+i+": "+ inner);
-                super.addInner(parseGeometry(inner));
+                if (TracerLog.isTrace())
+                    TracerLog.trace("Inner("+i+": "+ inner);
+                super.addInner(parseGeometry(inner, srs));
             }
             List<List<LatLon>> inner_ways = super.getInners();
             for (int i = 0; i < inner_ways.size(); i++) {
-                System.out.println("parseXML(basic) - Inner("+i+"): " + inner_ways.get(i));
+                if (TracerLog.isTrace())
+                    TracerLog.trace("parseXML(basic) - Inner("+i+"): " + inner_ways.get(i));
             }
         } else {
             String expUsage = "//*[name()='ms:LPIS_DPB_UCINNE'][1]/*[name()='ms:kultura']";
             NodeList nodeList;
 
-            System.out.println("parseXML(extra) - expUsage: " + expUsage);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(extra) - expUsage: " + expUsage);
             nodeList = (NodeList) xPath.compile(expUsage).evaluate(doc, XPathConstants.NODESET);
             if (nodeList != null && nodeList.getLength() > 0 && nodeList.item(0).hasChildNodes()) {
-                m_usage = nodeList.item(0).getFirstChild().getNodeValue();
+                m_usage = TagPool.intern(nodeList.item(0).getFirstChild().getNodeValue());
                 mapToOsm();
             }
-            System.out.println("parseXML(extra) - m_usage: " + m_usage);
+            if (TracerLog.isDebug())
+                TracerLog.debug("parseXML(extra) - m_usage: " + m_usage);
         }
 
-        System.out.println("parseXML() - End");
+        TracerLog.debug("parseXML() - End");
     }
 
     /**
@@ -252,7 +287,8 @@ public final class LpisRecord extends TracerRecord {
      */
     @Override
     public Map<String, String> getKeys(boolean alt) {
-        Map <String, String> keys = new HashMap <> (m_usageOsm);
+        Map <String, String> keys = new HashMap <> (m_usageOsm.size() + 2);
+        keys.putAll(m_usageOsm);
 
         keys.put("source", "lpis");
         keys.put("ref", Long.toString(m_lpis_id));
@@ -272,7 +308,11 @@ public final class LpisRecord extends TracerRecord {
         return m_lpis_id > 0 && super.hasOuter();
     }
 
-    static List<LpisRecord> parseBasicXML(String content, double adjlat, double adjlon) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+    /**
+     * Parse all features of a GetFeature reply, including features without
+     * geometry, so the list size is the number of features in the reply.
+     */
+    static List<LpisRecord> parseBasicXML(String content, double adjlat, double adjlon, LpisSrs srs) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
         DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
         Document doc = docBuilder.parse (new ByteArrayInputStream(content.getBytes("utf-8")));
@@ -281,7 +321,8 @@ public final class LpisRecord extends TracerRecord {
         XPath xPath =  XPathFactory.newInstance().newXPath();
         String expID = "//*[name()='ms:LPIS_DPB_UCINNE_BBOX']/*[name()='ms:id']";
 
-        System.out.println("parseXML(basic) - expID: " + expID);
+        if (TracerLog.isDebug())
+            TracerLog.debug("parseXML(basic) - expID: " + expID);
         NodeList expids = (NodeList) xPath.compile(expID).evaluate(doc, XPathConstants.NODESET);
 
         List<LpisRecord> list = new ArrayList<> (expids.getLength());
@@ -296,9 +337,11 @@ public final class LpisRecord extends TracerRecord {
             NodeList outernl = (NodeList) xPath.compile(expOuter).evaluate(doc, XPathConstants.NODESET);
             if (outernl.getLength() > 0) {
                 String outer = outernl.item(0).getFirstChild().getNodeValue();
-                List<LatLon> way = lpis.parseGeometry(outer);
+                List<LatLon> way = parseGeometry(outer, srs);
                 lpis.setOuter(way);
             } else {
+                // counted, but ignored by callers
+                list.add (lpis);
                 continue;
             }
 
@@ -307,7 +350,7 @@ public final class LpisRecord extends TracerRecord {
 
             for (int j = 0; j < innersnl.getLength(); j++) {
                 String inner = innersnl.item(j).getFirstChild().getNodeValue();
-                lpis.addInner(lpis.parseGeometry(inner));
+                lpis.addInner(parseGeometry(inner, srs));
             }
 
             list.add (lpis);
@@ -20,30 +20,61 @@
 package org.openstreetmap.josm.plugins.tracer.modules.lpis;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.plugins.tracer.CancelledIOException;
+import org.openstreetmap.josm.plugins.tracer.QuadCache;
+import org.openstreetmap.josm.plugins.tracer.SingleFlight;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 public class LpisServer {
 
+    // traces and the tile prefetcher often ask for the same tile or land at the same time
+    private static final SingleFlight<String, String> m_requests = new SingleFlight<> ();
+
     private final String m_url;
     private final LpisCache m_lpisCache;
+    private final LpisTiling m_tiling;
 
     // LpisRecords have fixed constant coord adjustment
     private static final double adjustLat = 0.0;
     private static final double adjustLon = 0.0;
 
+    // corners of the Czech Republic, latitudes and longitudes inside don't overlap
+    private static final LatLon probeMin = new LatLon(48.5, 12.0);
+    private static final LatLon probeMax = new LatLon(51.1, 18.9);
+
+    // retry interval of capabilities requests that failed
+    private static final long srsRetryMillis = 60000;
+
+    // output SRS of the WFS, null until capabilities are known
+    private final Object m_srsLock = new Object();
+    private LpisSrs m_srs;
+    private long m_srsRetryTime;
+
     public LpisServer(String url, LatLonSize cache_tile_size) {
         m_url = url;
         m_lpisCache = new LpisCache (cache_tile_size);
+        m_tiling = new LpisTiling (cache_tile_size);
     }
 
     /**
@@ -51,7 +82,22 @@ public class LpisServer {
      * @param urlString Input parameters.
      * @return Result text.
      */
-    private String callServer(String urlString) throws MalformedURLException, UnsupportedEncodingException, IOException {
+    private String callServer(final String urlString) throws MalformedURLException, UnsupportedEncodingException, IOException {
+        return m_requests.execute(urlString, new SingleFlight.Task<String>() {
+            @Override
+            public String run() throws IOException {
+                long start_time = TracerLog.start();
+                try {
+                    return downloadUrl(urlString);
+                }
+                finally {
+                    TracerLog.stop("http.lpis", start_time);
+                }
+            }
+        });
+    }
+
+    private String downloadUrl(String urlString) throws IOException {
         try (BufferedReader reader = TracerUtils.openUrlStream (urlString, "UTF-8")) {
             StringBuilder sb = new StringBuilder();
             String line;
@@ -64,6 +110,137 @@ public class LpisServer {
         }
     }
 
+    /**
+     * Returns output SRS of requests, WGS84 if the WFS supports it, Krovak otherwise.
+     * Only a definitive answer of WFS capabilities is remembered, Krovak is
+     * used while they can't be downloaded and they are requested again later.
+     */
+    private LpisSrs outputSrs () {
+        synchronized (m_srsLock) {
+            if (m_srs != null)
+                return m_srs;
+            if (System.currentTimeMillis() < m_srsRetryTime)
+                return LpisSrs.KROVAK;
+        }
+
+        // don't block other requests while capabilities are downloaded,
+        // concurrent identical requests are shared by callServer anyway
+        LpisSrs srs = null;
+        boolean retry_later = false;
+        if (!Main.pref.getBoolean("tracer.lpis.wgs84", true)) {
+            srs = LpisSrs.KROVAK;
+        }
+        else {
+            try {
+                srs = supportsGeographic() ? probeAxisOrder() : LpisSrs.KROVAK;
+            }
+            catch (CancelledIOException e) {
+                // not an answer, the next request asks again
+            }
+            catch (IOException | ParserConfigurationException | SAXException | XPathExpressionException e) {
+                TracerLog.info("LPIS WFS GetCapabilities failed: " + e.getMessage());
+                retry_later = true;
+            }
+        }
+
+        synchronized (m_srsLock) {
+            if (m_srs != null)
+                return m_srs;
+            if (srs == null) {
+                if (retry_later)
+                    m_srsRetryTime = System.currentTimeMillis() + srsRetryMillis;
+                return LpisSrs.KROVAK;
+            }
+            m_srs = srs;
+            TracerLog.info("LPIS WFS output SRS: " + m_srs.srsName() + ", " + m_srs.toString());
+            return m_srs;
+        }
+    }
+
+    /**
+     * Negotiates output SRS and bootstraps Krovak conversion if it's needed,
+     * so the first trace doesn't pay for it.
+     */
+    void warmUp () {
+        if (!outputSrs().isGeographic())
+            krovak.warmUp();
+    }
+
+    private boolean supportsGeographic () throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+        String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetCapabilities";
+        if (TracerLog.isDebug())
+            TracerLog.debug("Request: " + request);
+        String content = callServer(request);
+        return featureTypeSupportsGeographic(content, "LPIS_DPB_UCINNE_BBOX") &&
+               featureTypeSupportsGeographic(content, "LPIS_DPB_UCINNE");
+    }
+
+    private static boolean featureTypeSupportsGeographic (String capabilities, String type_name) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(capabilities.getBytes("UTF-8")));
+
+        // type names may or may not have a namespace prefix
+        String exp = "//*[local-name()='FeatureType'][*[local-name()='Name' and (normalize-space()='" + type_name +
+            "' or substring-after(normalize-space(), ':')='" + type_name + "')]]" +
+            "/*[local-name()='DefaultSRS' or local-name()='OtherSRS' or local-name()='SRS']";
+        NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath().compile(exp).evaluate(doc, XPathConstants.NODESET);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            String srs = nodes.item(i).getTextContent().trim();
+            if (srs.equals("EPSG:4326") || srs.endsWith(":EPSG::4326") || srs.endsWith("/EPSG/0/4326"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines axis order of the WGS84 output. Requests a land inside the Czech
+     * Republic with bbox in each axis order, the order is accepted only if the
+     * server finds a land and returns its coordinates in the same order.
+     * Krovak is used if neither order works.
+     */
+    private LpisSrs probeAxisOrder () throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+        for (LpisSrs srs: new LpisSrs[] { LpisSrs.WGS84_LAT_LON, LpisSrs.WGS84_LON_LAT }) {
+            String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE_BBOX&bbox="+wfsBBox(probeMin, probeMax, srs)+"&SRSNAME="+srs.srsName() +
+                "&MAXFEATURES=1";
+            if (TracerLog.isDebug())
+                TracerLog.debug("Request: " + request);
+            String content = callServer(request);
+            for (LpisRecord lpis: LpisRecord.parseBasicXML (content, adjustLat, adjustLon, srs)) {
+                if (lpis.hasOuter() && insideProbe(lpis.getOuter().get(0)))
+                    return srs;
+            }
+        }
+        TracerLog.info("LPIS WFS axis order of " + LpisSrs.WGS84_LAT_LON.srsName() + " not recognized");
+        return LpisSrs.KROVAK;
+    }
+
+    private static boolean insideProbe (LatLon ll) {
+        return ll.lat() >= probeMin.lat() && ll.lat() <= probeMax.lat() &&
+               ll.lon() >= probeMin.lon() && ll.lon() <= probeMax.lon();
+    }
+
+    /**
+     * Returns WFS bbox parameter of the area between two corners.
+     */
+    private static String wfsBBox (LatLon a, LatLon b, LpisSrs srs) {
+        if (srs.isGeographic()) {
+            double min_lat = Math.min(a.lat(), b.lat());
+            double max_lat = Math.max(a.lat(), b.lat());
+            double min_lon = Math.min(a.lon(), b.lon());
+            double max_lon = Math.max(a.lon(), b.lon());
+            if (srs.isLatFirst())
+                return min_lat + "," + min_lon + "," + max_lat + "," + max_lon + "," + srs.srsName();
+            return min_lon + "," + min_lat + "," + max_lon + "," + max_lat + "," + srs.srsName();
+        }
+        krovak k = new krovak();
+        xyCoor axy = k.LatLon2krovak(a);
+        xyCoor bxy = k.LatLon2krovak(b);
+        if (TracerLog.isDebug())
+            TracerLog.debug("LatLon: " + a + " <-> XY: " + axy.x() + " " + axy.y());
+        return axy.x()+","+axy.y()+","+bxy.x()+","+bxy.y();
+    }
+
     /**
      * Get element ID and geometry of the land on the position.
      * @param pos Position of the land.
@@ -81,27 +258,35 @@ public class LpisServer {
         if (rec != null)
             return rec;
 
-        krovak k = new krovak();
-        xyCoor xy = k.LatLon2krovak(pos);
-
-        System.out.println ("LatLon: "+pos+" <-> XY: "+xy.x()+" "+xy.y());
-        String bbox = xy.x()+","+xy.y()+","+xy.x()+","+xy.y();
+        LpisSrs srs = outputSrs();
+        String bbox = wfsBBox(pos, pos, srs);
 
-        String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE_BBOX&bbox="+bbox+"&SRSNAME=EPSG:102067";
+        String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE_BBOX&bbox="+bbox+"&SRSNAME="+srs.srsName();
 
-        System.out.println("Request: " + request);
+        if (TracerLog.isDebug())
+            TracerLog.debug("Request: " + request);
         String content = callServer(request);
-        System.out.println("Reply: " + content);
+        if (TracerLog.isTrace())
+            TracerLog.trace("Reply: " + content);
         LpisRecord lpis = new LpisRecord(adjustLat, adjustLon);
-        lpis.parseXML("basic", content);
+        lpis.parseXML("basic", content, srs);
+
+        // already cached by a prefetch that finished in the meantime?
+        if (lpis.getLpisID() > 0) {
+            rec = m_lpisCache.getByLpisID(lpis.getLpisID());
+            if (rec != null)
+                return rec;
+        }
 
         // get additional information for given ID
         if (lpis.getLpisID() > 0) {
-            request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE&&featureID=LPIS_DPB_UCINNE."+lpis.getLpisID()+"&SRSNAME=EPSG:102067";
-            System.out.println("Request: " + request);
+            request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE&&featureID=LPIS_DPB_UCINNE."+lpis.getLpisID()+"&SRSNAME="+srs.srsName();
+            if (TracerLog.isDebug())
+                TracerLog.debug("Request: " + request);
             content = callServer(request);
-            System.out.println("Reply: " + content);
-            lpis.parseXML("extra", content);
+            if (TracerLog.isTrace())
+                TracerLog.trace("Reply: " + content);
+            lpis.parseXML("extra", content, srs);
         }
 
         // cache record
@@ -112,53 +297,98 @@ public class LpisServer {
         return lpis;
     }
 
-    void prefetchRecords (BBox bbox) throws UnsupportedEncodingException, IOException, ParserConfigurationException, SAXException, XPathExpressionException {
-        krovak k = new krovak();
+    void prefetchTile (QuadCache.QuadIndex tile) throws UnsupportedEncodingException, IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+        getTileRecords (tile);
+    }
 
-        LatLon a = bbox.getTopLeft();
-        LatLon b = bbox.getBottomRight();
+    LpisTiling tiling () {
+        return m_tiling;
+    }
 
-        xyCoor axy = k.LatLon2krovak(a);
-        xyCoor bxy = k.LatLon2krovak(b);
+    /**
+     * Get all lands intersecting the given quad tile, including extra information.
+     * The tile is downloaded in subtiles of the level preferred by the tiling,
+     * truncated replies are downloaded again in smaller subtiles. Records already
+     * in the cache are not downloaded again.
+     * @param tile tile to download
+     * @return list of complete records
+     */
+    List<LpisRecord> getTileRecords (QuadCache.QuadIndex tile) throws UnsupportedEncodingException, IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+        List<LpisRecord> result = new ArrayList<> ();
+        collectTileRecords (tile, result, new HashSet<Long> ());
+        return result;
+    }
+
+    private void collectTileRecords (QuadCache.QuadIndex tile, List<LpisRecord> result, Set<Long> ids) throws UnsupportedEncodingException, IOException, ParserConfigurationException, SAXException, XPathExpressionException {
+
+        // known dense area, don't waste a request on a truncated reply
+        if (tile.level() < m_tiling.levelOf(tile.base())) {
+            for (QuadCache.QuadIndex child: tile.children())
+                collectTileRecords (child, result, ids);
+            return;
+        }
 
-        String wfsbox = axy.x()+","+axy.y()+","+bxy.x()+","+bxy.y();
+        BBox bbox = QuadCache.QuadIndex.quadIndexToBBox(m_tiling.baseSize(), tile);
+        LpisSrs srs = outputSrs();
+        String wfsbox = wfsBBox(bbox.getTopLeft(), bbox.getBottomRight(), srs);
 
-        String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE_BBOX&bbox="+wfsbox+"&SRSNAME=EPSG:102067";
+        String request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE_BBOX&bbox="+wfsbox+"&SRSNAME="+srs.srsName() +
+            "&MAXFEATURES=" + Integer.toString(m_tiling.maxFeatures());
 
-        System.out.println("Request: " + request);
+        if (TracerLog.isDebug())
+            TracerLog.debug("Request: " + request);
         String content = callServer(request);
-        System.out.println("Reply: " + content);
+        if (TracerLog.isTrace())
+            TracerLog.trace("Reply: " + content);
+
+        // one record per feature of the reply, records without outer included
+        List<LpisRecord> list = LpisRecord.parseBasicXML (content, adjustLat, adjustLon, srs);
+        m_tiling.observe(tile, list.size(), content.length());
 
-        List<LpisRecord> list = LpisRecord.parseBasicXML (content, adjustLat, adjustLon);
+        if (list.size() >= m_tiling.maxFeatures()) {
+            if (tile.level() < LpisTiling.maxLevel) {
+                TracerLog.count("lpis.tileSplit");
+                for (QuadCache.QuadIndex child: tile.children())
+                    collectTileRecords (child, result, ids);
+                return;
+            }
+            TracerLog.info("LPIS tile " + tile.toString() + " truncated at " + Integer.toString(list.size()) + " features");
+        }
 
         long prefetched = 0;
         long existing = 0;
 
         for (LpisRecord lpis: list) {
 
-            // ignore incomplete records
-            if (lpis.getLpisID() <= 0 || !lpis.hasOuter())
+            // ignore incomplete records and records returned by a neighbouring subtile
+            if (lpis.getLpisID() <= 0 || !lpis.hasOuter() || !ids.add(lpis.getLpisID()))
                 continue;
 
             // ignore records already in cache (avoids unnecessary downloads of extra data)
-            if (m_lpisCache.containsLpisID(lpis.getLpisID())) {
+            LpisRecord cached = m_lpisCache.getByLpisID(lpis.getLpisID());
+            if (cached != null) {
+                result.add(cached);
                 ++existing;
                 continue;
             }
 
-            request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE&&featureID=LPIS_DPB_UCINNE."+lpis.getLpisID()+"&SRSNAME=EPSG:102067";
-            System.out.println("Request: " + request);
+            request = m_url + "?VERSION=1.1.0&SERVICE=WFS&REQUEST=GetFeature&TYPENAME=LPIS_DPB_UCINNE&&featureID=LPIS_DPB_UCINNE."+lpis.getLpisID()+"&SRSNAME="+srs.srsName();
+            if (TracerLog.isDebug())
+                TracerLog.debug("Request: " + request);
             content = callServer(request);
-            System.out.println("Reply: " + content);
-            lpis.parseXML("extra", content);
+            if (TracerLog.isTrace())
+                TracerLog.trace("Reply: " + content);
+            lpis.parseXML("extra", content, srs);
 
             // cache record
             if (lpis.hasData()) {
                 m_lpisCache.add(lpis);
+                result.add(lpis);
                 ++prefetched;
             }
         }
 
-        System.out.println("LpisCache: prefetched: " + Long.toString(prefetched) + ", existing: " + Long.toString (existing) + " bbox: " + bbox.toString());
+        if (TracerLog.isDebug())
+            TracerLog.debug("LpisCache: prefetched: " + Long.toString(prefetched) + ", existing: " + Long.toString (existing) + " tile: " + tile.toString());
     }
 }
@@ -0,0 +1,59 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.modules.lpis;
+
+/**
+ * Output SRS of LPIS WFS requests.
+ *
+ * Axis order of EPSG:4326 differs among WFS servers, so the WGS84 variants
+ * record the order the server actually uses. The same order is used
+ * for bbox parameters of requests and for coordinates of replies.
+ */
+public enum LpisSrs {
+    KROVAK ("EPSG:102067", false),
+    WGS84_LAT_LON ("urn:ogc:def:crs:EPSG::4326", true),
+    WGS84_LON_LAT ("urn:ogc:def:crs:EPSG::4326", false);
+
+    private final String m_srsName;
+    private final boolean m_latFirst;
+
+    LpisSrs (String srs_name, boolean lat_first) {
+        m_srsName = srs_name;
+        m_latFirst = lat_first;
+    }
+
+    /**
+     * Returns SRSNAME parameter of requests.
+     */
+    public String srsName () {
+        return m_srsName;
+    }
+
+    public boolean isGeographic () {
+        return this != KROVAK;
+    }
+
+    /**
+     * Returns whether geographic coordinates are lat/lon pairs, lon/lat otherwise.
+     */
+    public boolean isLatFirst () {
+        return m_latFirst;
+    }
+}
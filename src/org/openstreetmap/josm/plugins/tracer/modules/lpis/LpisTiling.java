@@ -0,0 +1,132 @@
+/**
+ *  Tracer - plugin for JOSM
+ *  Jan Bilak, Marian Kyral, Martin Svec
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.openstreetmap.josm.plugins.tracer.modules.lpis;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.QuadCache;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
+import org.openstreetmap.josm.plugins.tracer.connectways.LatLonSize;
+
+/**
+ * Download tile levels of LPIS quad tiles adapted to the observed density.
+ *
+ * Every base tile remembers the level its neighbourhood should be downloaded
+ * at. Truncated or too large replies move it to smaller tiles. It moves back
+ * to larger tiles only when all four siblings were downloaded and together
+ * stay well below the limits, so a parent whose reply was truncated is never
+ * requested again. Tiny vineyard parcels and huge fields both produce replies
+ * of a reasonable size.
+ */
+final class LpisTiling {
+
+    static final int maxLevel = 4;
+    private static final int defaultLevel = 1;
+
+    private final LatLonSize m_baseSize;
+    private final int m_maxFeatures;
+    private final long m_maxBytes;
+    private final Map<QuadCache.QuadIndex, Integer> m_levels = new HashMap<>(); // this, base tile -> level
+    private final Map<QuadCache.QuadIndex, long[]> m_sparse = new HashMap<>(); // this, tile -> (features, bytes) of sparse replies
+
+    LpisTiling (LatLonSize base_size) {
+        m_baseSize = base_size;
+        m_maxFeatures = Math.max(10, Main.pref.getInteger("tracer.lpis.tile_max_features", 200));
+        m_maxBytes = 1024L * Math.max(16, Main.pref.getInteger("tracer.lpis.tile_max_kbytes", 512));
+    }
+
+    LatLonSize baseSize () {
+        return m_baseSize;
+    }
+
+    /**
+     * Returns maximum number of features requested per tile, a reply with
+     * this number of features is treated as truncated.
+     */
+    int maxFeatures () {
+        return m_maxFeatures;
+    }
+
+    /**
+     * Returns tile of the preferred level containing the position.
+     */
+    QuadCache.QuadIndex tileAt (LatLon pos) {
+        QuadCache.QuadIndex base = QuadCache.QuadIndex.latLonToQuadIndex(m_baseSize, pos.lat(), pos.lon());
+        return QuadCache.QuadIndex.latLonToQuadIndex(m_baseSize, levelOf(base), pos.lat(), pos.lon());
+    }
+
+    /**
+     * Returns preferred level of tiles inside the base tile.
+     */
+    synchronized int levelOf (QuadCache.QuadIndex base) {
+        Integer level = m_levels.get(base);
+        return level != null ? level : defaultLevel;
+    }
+
+    /**
+     * Records reply of a tile download.
+     * @param tile downloaded tile
+     * @param features number of features in the reply, before any filtering
+     * @param bytes reply size
+     */
+    synchronized void observe (QuadCache.QuadIndex tile, int features, long bytes) {
+        QuadCache.QuadIndex base = tile.base();
+        Integer old_level = m_levels.get(base);
+        int level = old_level != null ? old_level : defaultLevel;
+
+        if (features >= m_maxFeatures || bytes > m_maxBytes) {
+            level = Math.max(level, Math.min(maxLevel, tile.level() + 1));
+        }
+        else if (tile.level() == level && level > 0) {
+            m_sparse.put(tile, new long[] { features, bytes });
+            if (siblingsFitParent(tile)) {
+                for (QuadCache.QuadIndex sibling: tile.parent().children())
+                    m_sparse.remove(sibling);
+                level = level - 1;
+            }
+        }
+
+        if (old_level == null || level != old_level) {
+            m_levels.put(base, level);
+            if (TracerLog.isDebug())
+                TracerLog.debug("LpisTiling: tile " + base.toString() + " level " + Integer.toString(level) +
+                    ", features: " + Integer.toString(features) + ", bytes: " + Long.toString(bytes));
+        }
+    }
+
+    /**
+     * Returns whether all siblings of the tile were downloaded and the parent
+     * tile would stay below half of the limits.
+     */
+    private boolean siblingsFitParent (QuadCache.QuadIndex tile) {
+        long features = 0;
+        long bytes = 0;
+        for (QuadCache.QuadIndex sibling: tile.parent().children()) {
+            long[] reply = m_sparse.get(sibling);
+            if (reply == null)
+                return false;
+            features += reply[0];
+            bytes += reply[1];
+        }
+        return 2 * features < m_maxFeatures && 2 * bytes < m_maxBytes;
+    }
+}
@@ -35,6 +35,7 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 
 public class krovak {
 
@@ -71,6 +72,16 @@ public class krovak {
     init();
   }
 
+  /**
+    * Bootstraps GeoTools CRS factories by a single conversion, the first
+    * conversion is very slow otherwise.
+    */
+  public static void warmUp () {
+    long start_time = TracerLog.start();
+    new krovak().LatLon2krovak(new LatLon(49.8, 15.5));
+    TracerLog.stop("krovak.warmUp", start_time);
+  }
+
   private void init () {
     xy = new xyCoor();
     ll = new LatLon(0,0);
@@ -80,7 +91,7 @@ public class krovak {
       krovakCRS = CRS.parseWKT(wkt);
 
     } catch (Exception e) {
-      System.out.println("krovak init() exception: " + e.getMessage());
+      TracerLog.info("krovak init() exception: " + e.getMessage());
     }
   }
 
@@ -109,7 +120,7 @@ public class krovak {
       ll = new LatLon(LatLon.roundToOsmPrecision(p1.getY()),
                       LatLon.roundToOsmPrecision(p1.getX()));
     } catch (Exception e) {
-      System.out.println("CRS conversion exception: " + e.getMessage());
+      TracerLog.info("CRS conversion exception: " + e.getMessage());
     }
 
     return ll;
@@ -131,7 +142,7 @@ public class krovak {
 //       System.out.println(p1.getCoordinate());
       xy = new xyCoor(p1.getX(), p1.getY());
     } catch (Exception e) {
-      System.out.println("CRS conversion exception: " + e.getMessage());
+      TracerLog.info("CRS conversion exception: " + e.getMessage());
     }
     return xy;
   }
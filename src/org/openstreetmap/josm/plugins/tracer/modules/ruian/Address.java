@@ -21,6 +21,7 @@ package org.openstreetmap.josm.plugins.tracer.modules.ruian;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TagPool;
 import org.openstreetmap.josm.tools.Utils;
 
 import java.util.*;
@@ -81,35 +82,35 @@ public class Address {
     }
 
     public void setStreet (String v) {
-      m_street = v;
+      m_street = TagPool.intern(v);
     }
 
     public void setPlace (String v) {
-      m_place = v;
+      m_place = TagPool.intern(v);
     }
 
     public void setSuburb (String v) {
-      m_suburb = v;
+      m_suburb = TagPool.intern(v);
     }
 
     public void setCity (String v) {
-      m_city = v;
+      m_city = TagPool.intern(v);
     }
 
     public void setDistrict (String v) {
-      m_district = v;
+      m_district = TagPool.intern(v);
     }
 
     public void setRegion (String v) {
-      m_region = v;
+      m_region = TagPool.intern(v);
     }
 
     public void setCountryCode (String v) {
-      m_countrycode = v;
+      m_countrycode = TagPool.intern(v);
     }
 
     public void setPostCode (String v) {
-      m_countrycode = v;
+      m_countrycode = TagPool.intern(v);
     }
 // ----------------------------------------------------
     public long getRuianID () {
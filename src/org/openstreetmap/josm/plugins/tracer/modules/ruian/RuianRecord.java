@@ -18,13 +18,12 @@
 
 package org.openstreetmap.josm.plugins.tracer.modules.ruian;
 
-import java.io.ByteArrayInputStream;
 import java.util.*;
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TagPool;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 
@@ -69,11 +68,11 @@ public final class RuianRecord extends TracerRecord {
     }
 
     /**
-     * Parse given JSON string and fill record with RUIAN data
+     * Parse RUIAN JSON reply and fill record with RUIAN data
      *
-     * @param jsonStr JSON string with RUIAN data
+     * @param parser JSON parser positioned before the reply object
      */
-    public void parseJSON(String jsonStr) {
+    public void parseJSON(JsonParser parser) {
 
         init();
 
@@ -89,56 +88,77 @@ public final class RuianRecord extends TracerRecord {
         String region = "";
         String postcode = "";
 
-        JsonObject obj;
-        try (JsonReader jsonReader = Json.createReader(new ByteArrayInputStream(jsonStr.getBytes()))) {
-            obj = jsonReader.readObject();
+        boolean has_geometry = false;
+        List<LatLon> outer = null;
+        List<List<LatLon>> inners = null;
+        Map<String, String> building = null;
+        List<Map<String, String>> addr_places = null;
+
+        // members may come in any order, collect them first
+        if (parser.next() != JsonParser.Event.START_OBJECT)
+            throw new JsonException("RUIAN reply object expected");
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "source":
+                    m_source = TagPool.intern(parseString(readJsonString(parser), m_source));
+                    break;
+                case "geometry":
+                    JsonParser.Event event = parser.next();
+                    if (event != JsonParser.Event.START_OBJECT) {
+                        skipJsonValue(parser, event);
+                        break;
+                    }
+                    has_geometry = true;
+                    while (parser.next() == JsonParser.Event.KEY_NAME) {
+                        switch (parser.getString()) {
+                            case "outer":
+                                outer = readJsonCoordinates(parser, true);
+                                break;
+                            case "inners":
+                                inners = readJsonPolygons(parser, true);
+                                break;
+                            default:
+                                skipJsonValue(parser, parser.next());
+                        }
+                    }
+                    break;
+                case "stavebni_objekt":
+                    building = readJsonStringMap(parser);
+                    break;
+                case "adresni_mista":
+                    addr_places = readAddressPlaces(parser);
+                    break;
+                default:
+                    skipJsonValue(parser, parser.next());
+            }
         }
 
-        // get source
-        m_source = parseJsonString(obj, "source", m_source);
-
         // no geometry? leave record without data
-        JsonObject geomObj = retrieveJsonObject(obj, "geometry");
-        if (geomObj == null)
+        if (!has_geometry)
             return;
+        if (outer == null)
+            throw new JsonException("RUIAN reply without outer geometry");
 
         // outer geometry
-        JsonArray outerArr = geomObj.getJsonArray("outer");
-        List<LatLon> way = new ArrayList<>(outerArr.size());
-        for (int i = 0; i < outerArr.size(); i++) {
-            JsonArray node = outerArr.getJsonArray(i);
-            LatLon coor = new LatLon(
-                    LatLon.roundToOsmPrecision(node.getJsonNumber(1).doubleValue()),
-                    LatLon.roundToOsmPrecision(node.getJsonNumber(0).doubleValue())
-            );
-            System.out.println("outer[" + i + "]:coor: " + coor.toString());
-            way.add(coor);
+        if (TracerLog.isTrace()) {
+            for (int i = 0; i < outer.size(); i++)
+                TracerLog.trace("outer[" + i + "]:coor: " + outer.get(i).toString());
         }
-        super.setOuter(way);
+        super.setOuter(outer);
 
         // inner geometries
-        JsonArray innersArr = retrieveJsonArray(geomObj, "inners");
-        if (innersArr != null) {
-            for (int i = 0; i < innersArr.size(); i++) {
-                JsonArray innerArr = innersArr.getJsonArray(i);
-                ArrayList<LatLon> inner = new ArrayList<>();
-
-                System.out.println("");
-                for (int j = 0; j < innerArr.size(); j++) {
-                    JsonArray node = innerArr.getJsonArray(j);
-                    LatLon coor = new LatLon(
-                            LatLon.roundToOsmPrecision(node.getJsonNumber(1).doubleValue()),
-                            LatLon.roundToOsmPrecision(node.getJsonNumber(0).doubleValue())
-                    );
-                    System.out.println("inner[" + i + "][" + j + "]:coor: " + coor.toString());
-                    inner.add(coor);
+        if (inners != null) {
+            for (int i = 0; i < inners.size(); i++) {
+                List<LatLon> inner = inners.get(i);
+                if (TracerLog.isTrace()) {
+                    for (int j = 0; j < inner.size(); j++)
+                        TracerLog.trace("inner[" + i + "][" + j + "]:coor: " + inner.get(j).toString());
                 }
                 super.addInner(inner);
             }
         }
 
         // SO data
-        JsonObject building = retrieveJsonObject(obj, "stavebni_objekt");
         if (building != null) {
             m_ruian_id = parseJsonLong(building, "ruian_id", m_ruian_id);
             house_number = parseJsonString(building, "cislo_domovni", house_number);
@@ -154,18 +174,17 @@ public final class RuianRecord extends TracerRecord {
             postcode = parseJsonString(building, "psc", postcode);
             m_levels = parseJsonInt(building, "pocet_podlazi", m_levels);
             m_flats = parseJsonInt(building, "pocet_bytu", m_flats);
-            m_usage_code = parseJsonString(building, "zpusob_vyuziti_kod", m_usage_code);
-            m_usage_key = parseJsonString(building, "zpusob_vyuziti_key", m_usage_key);
-            m_usage_val = parseJsonString(building, "zpusob_vyuziti_val", m_usage_val);
-            m_valid_from = parseJsonString(building, "plati_od", m_valid_from);
-            m_finished = parseJsonString(building, "dokonceni", m_finished);
+            // values repeated across cached records are pooled, address strings in Address
+            m_usage_code = TagPool.intern(parseJsonString(building, "zpusob_vyuziti_kod", m_usage_code));
+            m_usage_key = TagPool.intern(parseJsonString(building, "zpusob_vyuziti_key", m_usage_key));
+            m_usage_val = TagPool.intern(parseJsonString(building, "zpusob_vyuziti_val", m_usage_val));
+            m_valid_from = TagPool.intern(parseJsonString(building, "plati_od", m_valid_from));
+            m_finished = TagPool.intern(parseJsonString(building, "dokonceni", m_finished));
         }
 
         // address places
-        JsonArray addrArr = retrieveJsonArray(obj, "adresni_mista");
-        if (addrArr != null) {
-            for (int i = 0; i < addrArr.size(); i++) {
-                JsonObject addrPlace = addrArr.getJsonObject(i);
+        if (addr_places != null) {
+            for (Map<String, String> addrPlace: addr_places) {
                 Address addr = new Address();
 
                 adr_id = parseJsonLong(addrPlace, "ruian_id", adr_id);
@@ -226,6 +245,34 @@ public final class RuianRecord extends TracerRecord {
         }
     }
 
+    private static String parseString(String val, String dflt) {
+        return (val != null) ? val : dflt;
+    }
+
+    private static List<Map<String, String>> readAddressPlaces(JsonParser parser) {
+        JsonParser.Event event = parser.next();
+        if (event != JsonParser.Event.START_ARRAY) {
+            skipJsonValue(parser, event);
+            return null;
+        }
+        List<Map<String, String>> list = new ArrayList<>();
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event != JsonParser.Event.START_OBJECT) {
+                skipJsonValue(parser, event);
+                continue;
+            }
+            Map<String, String> map = new HashMap<>();
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String key = parser.getString();
+                String val = readJsonString(parser);
+                if (val != null)
+                    map.put(key, val);
+            }
+            list.add(map);
+        }
+        return list;
+    }
+
     /**
      * Returns the number of levels in the building
      *
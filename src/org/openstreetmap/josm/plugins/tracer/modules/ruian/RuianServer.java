@@ -22,31 +22,52 @@ package org.openstreetmap.josm.plugins.tracer.modules.ruian;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.SingleFlight;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 
 public final class RuianServer {
 
+    // building lookups of one position that overlap in time are sent to the server once
+    private static final SingleFlight<String, RuianRecord> m_requests = new SingleFlight<> ();
+
     public RuianServer() {
     }
 
     /**
-     * Call Trace server.
-     *
+     * Call Trace server and parse the reply.
      * @param urlString Input parameters.
-     * @return Result text.
+     * @param adjlat Latitude correction.
+     * @param adjlon Longitude correction.
+     * @return Parsed record.
      */
-    private String callServer(String urlString) throws MalformedURLException, IOException {
-        try (BufferedReader reader = TracerUtils.openUrlStream (urlString)) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (sb.length() > 0) {
-                    sb.append(" ");
+    private RuianRecord callServer(final String urlString, final double adjlat, final double adjlon) throws MalformedURLException, IOException {
+        // the record is shared as parsed, so the adjustments are part of the key
+        String key = urlString + "|" + adjlat + "|" + adjlon;
+        return m_requests.execute(key, new SingleFlight.Task<RuianRecord>() {
+            @Override
+            public RuianRecord run() throws IOException {
+                long start_time = TracerLog.start();
+                try {
+                    return downloadRecord(urlString, adjlat, adjlon);
+                }
+                finally {
+                    TracerLog.stop("http.ruian", start_time);
                 }
-                sb.append(line);
             }
-            return sb.toString();
+        });
+    }
+
+    private RuianRecord downloadRecord(String urlString, double adjlat, double adjlon) throws IOException {
+        // decode the reply directly from the stream, without building a JSON tree
+        try (BufferedReader reader = TracerUtils.openUrlStream (urlString, "UTF-8");
+             JsonParser parser = Json.createParser(reader)) {
+            RuianRecord record = new RuianRecord(adjlat, adjlon);
+            record.parseJSON(parser);
+            return record;
         }
     }
 
@@ -62,11 +83,8 @@ public final class RuianServer {
      */
     public RuianRecord trace(LatLon pos, String url, double adjlat, double adjlon) throws IOException {
         String call_url = url + "/ruian-buildings/?req=full&lat=" + pos.lat() + "&lon=" + pos.lon();
-        System.out.println("Request: " + call_url);
-        String content = callServer(call_url);
-        System.out.println("Reply: " + content);
-        RuianRecord ruian = new RuianRecord(adjlat, adjlon);
-        ruian.parseJSON(content);
-        return ruian;
+        if (TracerLog.isDebug())
+            TracerLog.debug("Request: " + call_url);
+        return callServer(call_url, adjlat, adjlon);
     }
 }
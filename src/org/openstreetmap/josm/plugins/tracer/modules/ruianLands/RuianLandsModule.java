@@ -25,6 +25,7 @@ import org.openstreetmap.josm.actions.search.SearchCompiler;
 import org.openstreetmap.josm.actions.search.SearchCompiler.Match;
 import org.openstreetmap.josm.actions.search.SearchCompiler.ParseError;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerModule;
 import org.openstreetmap.josm.plugins.tracer.TracerPreferences;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
@@ -189,7 +190,7 @@ public final class RuianLandsModule extends TracerModule {
         @Override
         protected EdObject createTracedPolygonImpl(WayEditor editor) {
 
-            System.out.println("  RUIAN keys: " + record().getKeys());
+            TracerLog.info("  RUIAN keys: " + record().getKeys());
 
             Match clipWayMatch;
             Match mergeWayMatch;
@@ -394,10 +395,12 @@ public final class RuianLandsModule extends TracerModule {
 //                 if (source == null || !source.equals("cuzk:ruian"))
 //                     continue;
 
-                if (area.isWay())
-                    System.out.println("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
-                else if (area.isMultipolygon())
-                    System.out.println("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                if (TracerLog.isDebug()) {
+                    if (area.isWay())
+                        TracerLog.debug("Retrace candidate EdWay: " + Long.toString(area.getUniqueId()));
+                    else if (area.isMultipolygon())
+                        TracerLog.debug("Retrace candidate EdMultipolygon: " + Long.toString(area.getUniqueId()));
+                }
 
                 String ref = area.get("ref:ruian:building");
                 if (ref != null && ref.equals(ruianref)) // exact match ;)
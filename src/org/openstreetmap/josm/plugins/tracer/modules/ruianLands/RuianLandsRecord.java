@@ -18,14 +18,12 @@
 
 package org.openstreetmap.josm.plugins.tracer.modules.ruianLands;
 
-import java.io.ByteArrayInputStream;
-
 import java.util.*;
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.TagPool;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerRecord;
 
 
@@ -214,54 +212,66 @@ public final class RuianLandsRecord extends TracerRecord {
           m_keys.put("generator:output:electricity", "yes");
           m_keys.put("generator:method", "photovoltaic");
         } else {
-          System.out.println("Unsuported values combination: " + m_druh_pozemku + "/" + m_zpusob_vyuziti);
+          TracerLog.info("Unsuported values combination: " + m_druh_pozemku + "/" + m_zpusob_vyuziti);
         }
 }
     }*/
 
     /**
-     * Parse given JSON string and fill variables with RUIAN data
+     * Parse RUIAN JSON reply and fill variables with RUIAN data
      *
-     * @param jsonStr JSON string with RUIAN data
+     * @param parser JSON parser positioned before the reply object
      */
-    public void parseJSON(String jsonStr) {
+    public void parseJSON(JsonParser parser) {
 
         init();
 
-        JsonObject obj;
-        try (JsonReader jsonReader = Json.createReader(new ByteArrayInputStream(jsonStr.getBytes()))) {
-            obj = jsonReader.readObject();
+        String source = null;
+        String keys = null;
+        List<LatLon> way = null;
+
+        if (parser.next() != JsonParser.Event.START_OBJECT)
+            throw new JsonException("RUIAN reply object expected");
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "source":
+                    source = readJsonString(parser);
+                    break;
+                case "keys":
+                    keys = readJsonString(parser);
+                    break;
+                case "geometry":
+                    way = readJsonCoordinates(parser, false);
+                    break;
+                default:
+                    skipJsonValue(parser, parser.next());
+            }
         }
 
-        m_source = obj.getString("source");
+        if (source == null)
+            throw new JsonException("RUIAN reply without source");
+        m_source = TagPool.intern(source);
         if (m_source.length() == 0)
             m_source = "cuzk:ruian";
 
-        String keys = retrieveJsonString(obj, "keys");
         if (keys != null) {
             String[] kv = keys.replace("\"", "").replace(",{", "").replace("{", "").replace("}}", "}").split("}");
-            System.out.println("keys: " + Arrays.toString(kv));
+            if (TracerLog.isDebug())
+                TracerLog.debug("keys: " + Arrays.toString(kv));
             for (int i = 0; i < kv.length; i++) {
-                System.out.println("key[" + i + "]: " + kv[i]);
+                if (TracerLog.isTrace())
+                    TracerLog.trace("key[" + i + "]: " + kv[i]);
                 String[] x = kv[i].split(",");
                 m_keys.put(x[0], x[1]);
             }
             m_keys.put("source", m_source);
         }
+        m_keys = TagPool.tags(m_keys);
 
-        JsonArray arr = retrieveJsonArray(obj, "geometry");
-        if (arr != null && arr.size() > 0) {
-            List<LatLon> way = new ArrayList<>(arr.size());
-            for (int i = 0; i < arr.size(); i++) {
-                System.out.println("i=" + i);
-                JsonArray node = arr.getJsonArray(i);
-
-                LatLon coor = new LatLon(
-                        node.getJsonNumber(1).doubleValue(),
-                        node.getJsonNumber(0).doubleValue()
-                );
-                System.out.println("coor: " + coor.toString());
-                way.add(coor);
+        if (way != null && way.size() > 0) {
+            if (TracerLog.isTrace()) {
+                for (int i = 0; i < way.size(); i++)
+                    TracerLog.trace("coor: " + way.get(i).toString());
             }
             super.setOuter(way);
         }
@@ -22,40 +22,59 @@ package org.openstreetmap.josm.plugins.tracer.modules.ruianLands;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.plugins.tracer.SingleFlight;
+import org.openstreetmap.josm.plugins.tracer.TracerLog;
 import org.openstreetmap.josm.plugins.tracer.TracerUtils;
 
 
 public class RuianLandsServer {
 
+    // parcel lookups of the same position in flight at once share one reply
+    private static final SingleFlight<String, RuianLandsRecord> m_requests = new SingleFlight<> ();
+
     public RuianLandsServer() {
 
     }
 
     /**
-     * Call Trace server.
+     * Call Trace server and parse the reply.
      * @param urlString Input parameters.
-     * @return Result text.
+     * @param adjlat Latitude correction.
+     * @param adjlon Longitude correction.
+     * @return Parsed record.
      */
-    private String callServer(String urlString) throws MalformedURLException, IOException {
-        try (BufferedReader reader = TracerUtils.openUrlStream (urlString)) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (sb.length() > 0)
-                    sb.append(" ");
-                sb.append(line);
+    private RuianLandsRecord callServer(final String urlString, final double adjlat, final double adjlon) throws MalformedURLException, IOException {
+        String key = urlString + "|" + adjlat + "|" + adjlon;
+        return m_requests.execute(key, new SingleFlight.Task<RuianLandsRecord>() {
+            @Override
+            public RuianLandsRecord run() throws IOException {
+                long start_time = TracerLog.start();
+                try {
+                    return downloadRecord(urlString, adjlat, adjlon);
+                }
+                finally {
+                    TracerLog.stop("http.ruianLands", start_time);
+                }
             }
-            return sb.toString();
+        });
+    }
+
+    private RuianLandsRecord downloadRecord(String urlString, double adjlat, double adjlon) throws IOException {
+        // decode the reply directly from the stream, without building a JSON tree
+        try (BufferedReader reader = TracerUtils.openUrlStream (urlString, "UTF-8");
+             JsonParser parser = Json.createParser(reader)) {
+            RuianLandsRecord record = new RuianLandsRecord(adjlat, adjlon);
+            record.parseJSON(parser);
+            return record;
         }
     }
 
     public RuianLandsRecord trace(LatLon pos, String url, double adjlat, double adjlon) throws IOException {
-        System.out.println("Request: "+ url + "/ruian-lands/beta/?lat=" + pos.lat() + "&lon=" + pos.lon());
-        String content = callServer(url + "/ruian-lands/beta/?lat=" + pos.lat() + "&lon=" + pos.lon());
-        System.out.println("Reply: " + content);
-        RuianLandsRecord ruian = new RuianLandsRecord(adjlat, adjlon);
-        ruian.parseJSON(content);
-        return ruian;
+        if (TracerLog.isDebug())
+            TracerLog.debug("Request: "+ url + "/ruian-lands/beta/?lat=" + pos.lat() + "&lon=" + pos.lon());
+        return callServer(url + "/ruian-lands/beta/?lat=" + pos.lat() + "&lon=" + pos.lon(), adjlat, adjlon);
     }
 }